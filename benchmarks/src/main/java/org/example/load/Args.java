@@ -0,0 +1,57 @@
+package org.example.load;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Аргументы вида --name=value для стаба и генератора нагрузки.
+ */
+final class Args {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    Args(String[] args) {
+        for (String a : args) {
+            if (!a.startsWith("--")) throw new IllegalArgumentException("Expected --name=value, got " + a);
+            int eq = a.indexOf('=');
+            if (eq < 0) values.put(a.substring(2), "true");
+            else values.put(a.substring(2, eq), a.substring(eq + 1));
+        }
+    }
+
+    String string(String name, String def) {
+        return values.getOrDefault(name, def);
+    }
+
+    int integer(String name, int def) {
+        String v = values.get(name);
+        return v == null ? def : Integer.parseInt(v);
+    }
+
+    double fraction(String name, double def) {
+        String v = values.get(name);
+        double d = v == null ? def : Double.parseDouble(v);
+        if (d < 0 || d > 1) throw new IllegalArgumentException("--" + name + " must be in [0, 1]");
+        return d;
+    }
+
+    Duration duration(String name, String def) {
+        return DurationStyle.detectAndParse(values.getOrDefault(name, def));
+    }
+
+    /**
+     * text:60,image:20 → {text=60, image=20}, порядок сохраняется.
+     */
+    Map<String, Integer> weights(String name, String def) {
+        var m = new LinkedHashMap<String, Integer>();
+        for (String part : values.getOrDefault(name, def).split(",")) {
+            String[] kv = part.trim().split(":");
+            m.put(kv[0], kv.length > 1 ? Integer.parseInt(kv[1]) : 1);
+        }
+        return m;
+    }
+}
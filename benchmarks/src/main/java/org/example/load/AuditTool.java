@@ -0,0 +1,224 @@
+package org.example.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.dto.HintAuditRecord;
+import org.example.service.HintAuditReader;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Офлайн-инструмент для аудит-лога подсказок (app.audit.dir, см. HintAuditLog):
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.example.load.AuditTool dump   --dir=data/audit [--kind=hint] [--since=2026-10-17T00:00:00Z] [--limit=100]
+ * java -cp benchmarks/target/benchmarks.jar org.example.load.AuditTool stats  --dir=data/audit [--kind=] [--since=]
+ * java -cp benchmarks/target/benchmarks.jar org.example.load.AuditTool replay --dir=data/audit --target=http://localhost:8080 \
+ *     --license=ABC-123 [--limit=200] [--since=]
+ * </pre>
+ * dump — записи NDJSON в stdout. stats — по route: число, finish_reason, продолжения, p50/p99 латентности, токены.
+ * replay — текстовые hint'ы заново через POST /api/v1/hint запущенного приложения (например, с изменённым промптом):
+ * по каждой записи NDJSON со старым и новым ответом, сходством (Jaccard по словам) и латентностью, в конце — сводка
+ * в stderr. vision и expand не переигрываются: картинка в лог не пишется, а expand требует живого hintId.
+ * Переигрывать стоит на свежем экземпляре: иначе одинаковые вопросы отдаст HintCache, а не модель.
+ */
+public final class AuditTool {
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    private AuditTool() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("usage: AuditTool dump|stats|replay --dir=<audit dir> [options]");
+            System.exit(2);
+        }
+        var a = new Args(Arrays.copyOfRange(args, 1, args.length));
+        var tool = new AuditTool();
+        switch (args[0]) {
+            case "dump" -> tool.dump(a);
+            case "stats" -> tool.stats(a);
+            case "replay" -> tool.replay(a);
+            default -> {
+                System.err.println("unknown command " + args[0]);
+                System.exit(2);
+            }
+        }
+    }
+
+    private void dump(Args a) throws IOException {
+        int limit = a.integer("limit", Integer.MAX_VALUE);
+        var out = new ArrayList<HintAuditRecord>();
+        var result = read(a, out, limit);
+        for (var r : out) System.out.println(om.writeValueAsString(r));
+        System.err.println(summary(result));
+    }
+
+    private void stats(Args a) throws IOException {
+        var records = new ArrayList<HintAuditRecord>();
+        var result = read(a, records, Integer.MAX_VALUE);
+        var byRoute = new TreeMap<String, List<HintAuditRecord>>();
+        for (var r : records) byRoute.computeIfAbsent(r.kind() + "/" + r.route(), k -> new ArrayList<>()).add(r);
+
+        System.out.printf("%-22s %7s %8s %8s %8s %10s %10s %9s %8s  %s%n",
+                "kind/route", "count", "p50 ms", "p99 ms", "contin.", "prompt/op", "compl/op", "cached %", "out ch", "finish");
+        byRoute.forEach((key, list) -> {
+            long[] lat = list.stream().mapToLong(HintAuditRecord::latencyMs).sorted().toArray();
+            long prompt = list.stream().mapToLong(HintAuditRecord::promptTokens).sum();
+            long cached = list.stream().mapToLong(HintAuditRecord::cachedTokens).sum();
+            var finish = new TreeMap<String, Integer>();
+            list.forEach(r -> finish.merge(String.valueOf(r.finishReason()), 1, Integer::sum));
+            System.out.printf(Locale.ROOT, "%-22s %7d %8d %8d %8d %10d %10d %9.1f %8d  %s%n",
+                    key, list.size(), percentile(lat, 0.50), percentile(lat, 0.99),
+                    list.stream().mapToInt(HintAuditRecord::continuations).sum(),
+                    prompt / list.size(),
+                    list.stream().mapToLong(HintAuditRecord::completionTokens).sum() / list.size(),
+                    prompt == 0 ? 0.0 : 100.0 * cached / prompt,
+                    (long) list.stream().mapToInt(r -> r.output() == null ? 0 : r.output().length()).average().orElse(0),
+                    finish);
+        });
+        System.err.println(summary(result));
+    }
+
+    private void replay(Args a) throws Exception {
+        URI target = URI.create(a.string("target", "http://localhost:8080"));
+        String license = a.string("license", "ABC-123");
+        Duration timeout = a.duration("timeout", "60s");
+        int limit = a.integer("limit", 200);
+
+        var all = new ArrayList<HintAuditRecord>();
+        read(a, all, Integer.MAX_VALUE);
+        var skipped = new TreeMap<String, Integer>();
+        var records = new ArrayList<HintAuditRecord>();
+        for (var r : all) {
+            if (!"hint".equals(r.kind()) || r.input() == null) skipped.merge(r.kind(), 1, Integer::sum);
+            else if (records.size() < limit) records.add(r);
+        }
+
+        var http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        int ok = 0;
+        double similarity = 0;
+        var oldLatency = new long[records.size()];
+        var newLatency = new long[records.size()];
+        int n = 0;
+        for (var r : records) {
+            var body = new Multipart();
+            body.text("question", r.input());
+            body.text("meta", om.writeValueAsString(Map.of("lang", r.lang() == null ? "ru" : r.lang())));
+            var req = HttpRequest.newBuilder(target.resolve("/api/v1/hint"))
+                    .timeout(timeout)
+                    .header("X-License-Key", license)
+                    .header("Content-Type", "multipart/form-data; boundary=" + body.boundary)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body.finish()))
+                    .build();
+            long t0 = System.nanoTime();
+            HttpResponse<byte[]> resp;
+            try {
+                resp = http.send(req, HttpResponse.BodyHandlers.ofByteArray());
+            } catch (IOException e) {
+                resp = null;
+            }
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+
+            String before = oldHint(r.output());
+            String after = null;
+            int status = resp == null ? -1 : resp.statusCode();
+            if (status == 200) after = om.readTree(resp.body()).path("output").asText(null);
+            double sim = after == null ? 0 : jaccard(before, after);
+
+            var line = new LinkedHashMap<String, Object>();
+            line.put("ts", Instant.ofEpochMilli(r.ts()).toString());
+            line.put("route", r.route());
+            line.put("status", status);
+            line.put("similarity", Math.round(sim * 1000) / 1000.0);
+            line.put("oldLatencyMs", r.latencyMs());
+            line.put("newLatencyMs", ms);
+            line.put("input", r.input());
+            line.put("old", before);
+            line.put("new", after);
+            System.out.println(om.writeValueAsString(line));
+
+            oldLatency[n] = r.latencyMs();
+            newLatency[n] = ms;
+            n++;
+            if (status == 200) {
+                ok++;
+                similarity += sim;
+            }
+        }
+        Arrays.sort(oldLatency);
+        Arrays.sort(newLatency);
+        System.err.printf(Locale.ROOT, "replayed %d, ok %d, mean similarity %.3f, latency p50 %d -> %d ms, p99 %d -> %d ms, skipped %s%n",
+                n, ok, ok == 0 ? 0.0 : similarity / ok,
+                percentile(oldLatency, 0.50), percentile(newLatency, 0.50),
+                percentile(oldLatency, 0.99), percentile(newLatency, 0.99), skipped);
+    }
+
+    private HintAuditReader.Result read(Args a, List<HintAuditRecord> out, int limit) throws IOException {
+        Path dir = Path.of(a.string("dir", "./data/audit"));
+        String kind = a.string("kind", null);
+        String since = a.string("since", null);
+        long from = since == null ? Long.MIN_VALUE : Instant.parse(since).toEpochMilli();
+        Predicate<HintAuditRecord> keep = r -> r.ts() >= from && (kind == null || kind.equals(r.kind()));
+        return HintAuditReader.read(dir, om, r -> {
+            if (out.size() < limit && keep.test(r)) out.add(r);
+        });
+    }
+
+    /**
+     * Текст подсказки из сырого ответа модели ({"hint": ...}); если JSON битый — как есть.
+     */
+    private String oldHint(String output) {
+        if (output == null) return "";
+        try {
+            JsonNode node = om.readTree(output);
+            return node.path("hint").asText(output);
+        } catch (IOException e) {
+            return output;
+        }
+    }
+
+    private static double jaccard(String a, String b) {
+        Set<String> x = words(a);
+        Set<String> y = words(b);
+        if (x.isEmpty() && y.isEmpty()) return 1;
+        var union = new HashSet<>(x);
+        union.addAll(y);
+        x.retainAll(y);
+        return (double) x.size() / union.size();
+    }
+
+    private static Set<String> words(String s) {
+        var set = new HashSet<String>();
+        for (String w : s.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!w.isEmpty()) set.add(w);
+        }
+        return set;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, Math.max(0, (int) Math.ceil(p * sorted.length) - 1))];
+    }
+
+    private static String summary(HintAuditReader.Result r) {
+        return r.records() + " records in " + r.segments() + " segments" + (r.corrupt() > 0 ? ", " + r.corrupt() + " cut by a corrupt record" : "");
+    }
+}
@@ -0,0 +1,395 @@
+package org.example.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Генератор нагрузки на HintController по HTTP: открытая модель с заданным RPS и смесью запросов
+ * text (/hint), image (/hint со скриншотом), audio (/hint/audio), stream (/hint/stream, SSE до конца).
+ * <p>
+ * Запросы уходят по расписанию независимо от ответов, латентность считается от запланированного момента —
+ * если приложение захлебнулось, очередь на стороне клиента попадёт в p99, а не спрячется (coordinated omission).
+ * Отброшенные по --max-in-flight и не завершившиеся к концу drain'а запросы считаются ошибками
+ * с латентностью до конца прогона.
+ * Вопросы уникальны (кэши не помогают), кроме доли --repeat. Раз в секунду снимаются heap и потоки приложения
+ * через /actuator/metrics. В конце — throughput, p50/p90/p99/max по видам и коды ответов;
+ * --fail-p99 и --fail-error-rate дают ненулевой код выхода для CI.
+ * <pre>
+ * # 1. стаб: java -cp benchmarks/target/benchmarks.jar org.example.load.OpenAiStub
+ * # 2. приложение со стабом и снятыми лимитами плана:
+ * OPENAI_API_KEY=stub java -jar target/interview-assistant-0.0.1-SNAPSHOT.jar \
+ *     --app.openai.baseUrl=http://127.0.0.1:19090/v1 \
+ *     --licenses.plans.PRO.burstHintsPerMinute=1000000 --licenses.plans.PRO.burstSnapshotsPerMinute=1000000 \
+ *     --licenses.plans.PRO.maxHintsPerDay=100000000 --licenses.plans.PRO.maxSnapshotsPerDay=100000000
+ * # 3. нагрузка:
+ * java -cp benchmarks/target/benchmarks.jar org.example.load.LoadGenerator \
+ *     --target=http://localhost:8080 --license=ABC-123 --rps=100 --duration=60s --warmup=10s \
+ *     --mix=text:60,image:20,audio:10,stream:10 --fail-p99=3s --fail-error-rate=0.01
+ * </pre>
+ */
+public final class LoadGenerator {
+
+    private static final List<String> KINDS = List.of("text", "image", "audio", "stream");
+    private static final int DROPPED = -2;
+    private static final int UNFINISHED = -3;
+    private static final String[] QUESTIONS = {
+            "Чем HashMap отличается от TreeMap?",
+            "Как работает volatile и happens-before?",
+            "Объясни разницу между процессом и потоком.",
+            "Что такое идемпотентность HTTP-методов?",
+            "Как устроен индекс B-tree в PostgreSQL?",
+    };
+
+    private final ObjectMapper om = new ObjectMapper();
+    private final HttpClient http;
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+    private final URI target;
+    private final String license;
+    private final Duration timeout;
+    private final double repeat;
+    private final String[] mix;
+    private final List<byte[]> screenshots = new ArrayList<>();
+    private final byte[] audio;
+    private final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+    private final AtomicLong seq = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final LongAdder dropped = new LongAdder();
+    private final AppSampler app;
+
+    private record Pending(String kind, long due, boolean measured) {}
+
+    LoadGenerator(Args a) throws IOException {
+        this.target = URI.create(a.string("target", "http://localhost:8080"));
+        this.license = a.string("license", "ABC-123");
+        this.timeout = a.duration("timeout", "30s");
+        this.repeat = a.fraction("repeat", 0);
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(workers)
+                .build();
+        this.mix = expand(a.weights("mix", "text:60,image:20,audio:10,stream:10"));
+        for (int i = 0; i < a.integer("images", 16); i++) {
+            screenshots.add(Payloads.screenshot(i, a.integer("image-width", 1440), a.integer("image-height", 900)));
+        }
+        this.audio = Payloads.wav(a.integer("audio-seconds", 5));
+        this.app = new AppSampler(http, target, om);
+    }
+
+    public static void main(String[] args) throws Exception {
+        var a = new Args(args);
+        var gen = new LoadGenerator(a);
+        int rps = a.integer("rps", 20);
+        Duration warmup = a.duration("warmup", "5s");
+        Duration duration = a.duration("duration", "30s");
+        int maxInFlight = a.integer("max-in-flight", 5_000);
+        System.out.printf("target %s, %d rps, warm-up %s, measure %s, mix %s%n",
+                gen.target, rps, warmup, duration, a.string("mix", "text:60,image:20,audio:10,stream:10"));
+
+        gen.run(rps, warmup, duration, maxInFlight);
+        boolean ok = gen.report(duration, a);
+        System.exit(ok ? 0 : 1);
+    }
+
+    private void run(int rps, Duration warmup, Duration duration, int maxInFlight) throws InterruptedException {
+        var monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            var t = new Thread(r, "load-monitor");
+            t.setDaemon(true);
+            return t;
+        });
+        long t0 = System.nanoTime();
+        monitor.scheduleAtFixedRate(() -> {
+            app.sample();
+            long s = (System.nanoTime() - t0) / 1_000_000_000;
+            if (s > 0 && s % 5 == 0) {
+                System.out.printf("t=%3ds sent=%d in-flight=%d dropped=%d heap=%s threads=%s%n",
+                        s, seq.get(), inFlight.get(), dropped.sum(), app.heapMb(), app.threads());
+            }
+        }, 0, 1, TimeUnit.SECONDS);
+
+        var droppedDue = new ArrayList<Pending>();
+        long interval = 1_000_000_000L / Math.max(1, rps);
+        long measureFrom = t0 + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        for (long i = 0; ; i++) {
+            long due = t0 + i * interval;
+            if (due >= end) break;
+            long wait = due - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            boolean measured = due >= measureFrom;
+            String kind = mix[ThreadLocalRandom.current().nextInt(mix.length)];
+            if (inFlight.get() >= maxInFlight) {
+                if (measured) {
+                    dropped.increment();
+                    droppedDue.add(new Pending(kind, due, true));
+                }
+                continue;
+            }
+            long id = i;
+            pending.put(id, new Pending(kind, due, measured));
+            inFlight.incrementAndGet();
+            workers.execute(() -> {
+                try {
+                    call(id, kind);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+        long drainUntil = System.nanoTime() + timeout.toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() < drainUntil) Thread.sleep(50);
+
+        // не отправленные и не дождавшиеся ответа — ошибки, иначе самый перегруженный прогон выглядит лучше всех
+        long now = System.nanoTime();
+        for (Long id : pending.keySet()) {
+            var p = pending.remove(id);
+            if (p != null && p.measured()) record(p.kind(), now - p.due(), UNFINISHED);
+        }
+        for (var p : droppedDue) record(p.kind(), now - p.due(), DROPPED);
+        app.sample();
+        monitor.shutdownNow();
+    }
+
+    private void call(long id, String kind) {
+        int status;
+        try {
+            var req = request(kind);
+            if ("stream".equals(kind)) {
+                var resp = http.send(req, HttpResponse.BodyHandlers.ofInputStream());
+                boolean clean = drainSse(resp.body());
+                // 599 — ошибка пришла событием внутри SSE при HTTP 200
+                status = resp.statusCode() == 200 && !clean ? 599 : resp.statusCode();
+            } else {
+                status = http.send(req, HttpResponse.BodyHandlers.discarding()).statusCode();
+            }
+        } catch (IOException e) {
+            status = -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // remove — кто первый: ответ или итог drain'а; запрос записывается ровно один раз
+        var p = pending.remove(id);
+        if (p != null && p.measured()) record(kind, System.nanoTime() - p.due(), status);
+    }
+
+    private void record(String kind, long nanos, int status) {
+        recorders.computeIfAbsent(kind, k -> new Recorder()).record(nanos, status);
+    }
+
+    /**
+     * Дочитывает SSE; false, если пришёл event:error (HTTP при этом уже 200).
+     */
+    private static boolean drainSse(InputStream in) throws IOException {
+        try (in) {
+            var text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            return !text.contains("event:error");
+        }
+    }
+
+    private HttpRequest request(String kind) {
+        var body = new Multipart();
+        String path;
+        switch (kind) {
+            case "audio" -> {
+                path = "/api/v1/hint/audio";
+                body.file("audio", "question.wav", "audio/wav", audio);
+            }
+            case "image" -> {
+                path = "/api/v1/hint";
+                body.text("question", question());
+                body.file("image", "screen.png", "image/png",
+                        screenshots.get(ThreadLocalRandom.current().nextInt(screenshots.size())));
+            }
+            case "stream" -> {
+                path = "/api/v1/hint/stream";
+                body.text("question", question());
+            }
+            default -> {
+                path = "/api/v1/hint";
+                body.text("question", question());
+            }
+        }
+        return HttpRequest.newBuilder(target.resolve(path))
+                .timeout(timeout)
+                .header("X-License-Key", license)
+                .header("Content-Type", "multipart/form-data; boundary=" + body.boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.finish()))
+                .build();
+    }
+
+    private String question() {
+        var rnd = ThreadLocalRandom.current();
+        String q = QUESTIONS[rnd.nextInt(QUESTIONS.length)];
+        return rnd.nextDouble() < repeat ? q : q + " (#" + seq.incrementAndGet() + ")";
+    }
+
+    private boolean report(Duration duration, Args a) {
+        double seconds = duration.toMillis() / 1000.0;
+        System.out.printf("%n%-7s %8s %8s %8s %9s %8s %8s %8s %8s  %s%n",
+                "kind", "sent", "ok", "errors", "ok/s", "p50 ms", "p90 ms", "p99 ms", "max ms", "statuses");
+        var all = new Recorder();
+        for (String kind : KINDS) {
+            var r = recorders.get(kind);
+            if (r == null) continue;
+            r.print(kind, seconds);
+            all.merge(r);
+        }
+        all.print("all", seconds);
+        System.out.printf("dropped by --max-in-flight (status %d): %d%n", DROPPED, dropped.sum());
+        System.out.printf("app heap used: max %s MB, end %s MB; threads live: max %s, end %s%n",
+                app.maxHeapMb(), app.heapMb(), app.maxThreads(), app.threads());
+
+        boolean ok = true;
+        Duration failP99 = a.string("fail-p99", null) == null ? null : a.duration("fail-p99", null);
+        if (failP99 != null && all.percentileMs(0.99) > failP99.toMillis()) {
+            System.out.printf("FAIL: p99 %d ms > %d ms%n", all.percentileMs(0.99), failP99.toMillis());
+            ok = false;
+        }
+        double failErrors = a.fraction("fail-error-rate", 1);
+        if (all.errorRate() > failErrors) {
+            System.out.printf("FAIL: error rate %.4f > %.4f%n", all.errorRate(), failErrors);
+            ok = false;
+        }
+        return ok;
+    }
+
+    private static String[] expand(Map<String, Integer> weights) {
+        var out = new ArrayList<String>();
+        weights.forEach((kind, w) -> {
+            if (!KINDS.contains(kind)) throw new IllegalArgumentException("Unknown kind in --mix: " + kind);
+            for (int i = 0; i < w; i++) out.add(kind);
+        });
+        if (out.isEmpty()) throw new IllegalArgumentException("--mix is empty");
+        return out.toArray(String[]::new);
+    }
+
+    /**
+     * Латентности (нс) и коды ответов одного вида; -1 — сетевая ошибка/таймаут клиента, 599 — event:error в SSE,
+     * -2 — не отправлен (--max-in-flight), -3 — не завершился к концу drain'а.
+     */
+    private static final class Recorder {
+        private long[] latencies = new long[1024];
+        private int size;
+        private final Map<Integer, Integer> statuses = new TreeMap<>();
+
+        synchronized void record(long nanos, int status) {
+            if (size == latencies.length) latencies = Arrays.copyOf(latencies, size * 2);
+            latencies[size++] = nanos;
+            statuses.merge(status, 1, Integer::sum);
+        }
+
+        synchronized void merge(Recorder other) {
+            synchronized (other) {
+                for (int i = 0; i < other.size; i++) {
+                    if (size == latencies.length) latencies = Arrays.copyOf(latencies, size * 2);
+                    latencies[size++] = other.latencies[i];
+                }
+                other.statuses.forEach((k, v) -> statuses.merge(k, v, Integer::sum));
+            }
+        }
+
+        synchronized long ok() {
+            return statuses.entrySet().stream().filter(e -> e.getKey() >= 200 && e.getKey() < 300)
+                    .mapToLong(Map.Entry::getValue).sum();
+        }
+
+        synchronized double errorRate() {
+            return size == 0 ? 0 : 1.0 - (double) ok() / size;
+        }
+
+        synchronized long percentileMs(double p) {
+            if (size == 0) return 0;
+            long[] sorted = Arrays.copyOf(latencies, size);
+            Arrays.sort(sorted);
+            return sorted[Math.min(size - 1, (int) Math.ceil(p * size) - 1)] / 1_000_000;
+        }
+
+        synchronized void print(String kind, double seconds) {
+            long ok = ok();
+            System.out.printf("%-7s %8d %8d %8d %9.1f %8d %8d %8d %8d  %s%n",
+                    kind, size, ok, size - ok, ok / seconds,
+                    percentileMs(0.50), percentileMs(0.90), percentileMs(0.99), percentileMs(1.0), statuses);
+        }
+    }
+
+    /**
+     * Heap и живые потоки приложения из /actuator/metrics; "n/a", если actuator недоступен.
+     */
+    private static final class AppSampler {
+        private final HttpClient http;
+        private final URI target;
+        private final ObjectMapper om;
+        private volatile long heap = -1;
+        private volatile long maxHeap = -1;
+        private volatile long threads = -1;
+        private volatile long maxThreads = -1;
+
+        AppSampler(HttpClient http, URI target, ObjectMapper om) {
+            this.http = http;
+            this.target = target;
+            this.om = om;
+        }
+
+        void sample() {
+            heap = metric("jvm.memory.used?tag=area:heap");
+            threads = metric("jvm.threads.live");
+            maxHeap = Math.max(maxHeap, heap);
+            maxThreads = Math.max(maxThreads, threads);
+        }
+
+        String heapMb() {
+            return heap < 0 ? "n/a" : Long.toString(heap >> 20);
+        }
+
+        String maxHeapMb() {
+            return maxHeap < 0 ? "n/a" : Long.toString(maxHeap >> 20);
+        }
+
+        String threads() {
+            return threads < 0 ? "n/a" : Long.toString(threads);
+        }
+
+        String maxThreads() {
+            return maxThreads < 0 ? "n/a" : Long.toString(maxThreads);
+        }
+
+        private long metric(String query) {
+            try {
+                var req = HttpRequest.newBuilder(target.resolve("/actuator/metrics/" + query))
+                        .timeout(Duration.ofSeconds(2)).build();
+                var resp = http.send(req, HttpResponse.BodyHandlers.ofByteArray());
+                if (resp.statusCode() != 200) return -1;
+                return om.readTree(resp.body()).path("measurements").path(0).path("value").asLong(-1);
+            } catch (IOException e) {
+                return -1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.load;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * multipart/form-data в память: тела небольшие и готовятся на виртуальном потоке запроса.
+ */
+final class Multipart {
+
+    final String boundary = "load-" + UUID.randomUUID();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+
+    void text(String name, String value) {
+        head("Content-Disposition: form-data; name=\"" + name + "\"\r\nContent-Type: text/plain; charset=UTF-8");
+        out.writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        out.writeBytes("\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    void file(String name, String filename, String contentType, byte[] data) {
+        head("Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + filename + "\"\r\nContent-Type: " + contentType);
+        out.writeBytes(data);
+        out.writeBytes("\r\n".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    byte[] finish() {
+        out.writeBytes(("--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        return out.toByteArray();
+    }
+
+    private void head(String headers) {
+        out.writeBytes(("--" + boundary + "\r\n" + headers + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
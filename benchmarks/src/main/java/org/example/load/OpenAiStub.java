@@ -0,0 +1,246 @@
+package org.example.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Локальный OpenAI-совместимый стаб для нагрузочных прогонов без трат на API:
+ * /chat/completions (обычный и stream), /audio/transcriptions, GET /models (warm-up и health),
+ * GET /stub/stats — счётчики по ответам.
+ * <p>
+ * Форма ответа выбирается по запросу: массив в user content — vision (SnapshotJson), {"details" в system —
+ * expand, иначе hint. Латентность — логнормальная по медиане и p99; ошибки, 429, зависания и
+ * finish_reason=length включаются долями. На продолжение (в messages есть assistant) отдаётся остаток ответа.
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.example.load.OpenAiStub \
+ *     --port=19090 --latency-median=300ms --latency-p99=2s --error-rate=0.01 --length-rate=0.05
+ * # приложение: --app.openai.baseUrl=http://127.0.0.1:19090/v1 (OPENAI_API_KEY — любой)
+ * </pre>
+ * Параметры: port, latency-median, latency-p99, stt-median, stt-p99, chunk-chars, chunk-delay,
+ * error-rate (503 + Retry-After), throttle-rate (429), hang-rate, hang (сколько висеть), length-rate.
+ */
+public final class OpenAiStub {
+
+    private static final String HINT = """
+            {"hint":"HashMap — массив бакетов, индекс = hash & (n-1). Коллизии — цепочка, длинная цепочка становится \
+            красно-чёрным деревом. equals и hashCode должны быть согласованы.","nextSteps":["Сравнить с ConcurrentHashMap",\
+            "Рассказать про resize и load factor"]}""";
+    private static final String SNAPSHOT = """
+            {"taskType":"LIVE_CODING","output":"Задача two-sum: за один проход храним в HashMap уже просмотренные числа \
+            и ищем target - x.","code":"Map<Integer,Integer> seen = new HashMap<>();","checklist":["Пустой массив",\
+            "Дубликаты"],"questions":[],"nextSteps":["Обсудить вариант с сортировкой"]}""";
+    private static final String EXPAND = """
+            {"details":"Подробнее: при resize таблица удваивается, элементы бакета делятся на два списка по одному биту \
+            хэша, поэтому перехэширование не нужно. Дерево в бакете появляется только при capacity >= 64."}""";
+
+    private final ObjectMapper om = new ObjectMapper();
+    private final Duration latencyMedian;
+    private final double latencySigma;
+    private final Duration sttMedian;
+    private final double sttSigma;
+    private final int chunkChars;
+    private final Duration chunkDelay;
+    private final double errorRate;
+    private final double throttleRate;
+    private final double hangRate;
+    private final Duration hang;
+    private final double lengthRate;
+    private final AtomicLong transcripts = new AtomicLong();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    OpenAiStub(Args a) {
+        this.latencyMedian = a.duration("latency-median", "300ms");
+        this.latencySigma = sigma(latencyMedian, a.duration("latency-p99", "1500ms"));
+        this.sttMedian = a.duration("stt-median", "200ms");
+        this.sttSigma = sigma(sttMedian, a.duration("stt-p99", "800ms"));
+        this.chunkChars = a.integer("chunk-chars", 12);
+        this.chunkDelay = a.duration("chunk-delay", "15ms");
+        this.errorRate = a.fraction("error-rate", 0);
+        this.throttleRate = a.fraction("throttle-rate", 0);
+        this.hangRate = a.fraction("hang-rate", 0);
+        this.hang = a.duration("hang", "120s");
+        this.lengthRate = a.fraction("length-rate", 0);
+    }
+
+    public static void main(String[] args) throws IOException {
+        var a = new Args(args);
+        var stub = new OpenAiStub(a);
+        int port = a.integer("port", 19090);
+        var server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 4096);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", stub::handle);
+        server.start();
+        System.out.printf("OpenAI stub on http://127.0.0.1:%d/v1 (latency median %s, sigma %.2f)%n",
+                port, stub.latencyMedian, stub.latencySigma);
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try (ex) {
+            String path = ex.getRequestURI().getPath();
+            if ("GET".equals(ex.getRequestMethod())) {
+                send(ex, 200, path.endsWith("/stub/stats") ? om.writeValueAsBytes(stats()) : "{\"data\":[]}".getBytes());
+                return;
+            }
+            byte[] body = ex.getRequestBody().readAllBytes();
+            if (injectFault(ex)) return;
+            if (path.endsWith("/audio/transcriptions")) {
+                sleep(sample(sttMedian, sttSigma));
+                count("stt");
+                String text = "Вопрос #" + transcripts.incrementAndGet() + ": чем HashMap отличается от TreeMap?";
+                send(ex, 200, om.writeValueAsBytes(Map.of("text", text)));
+            } else if (path.endsWith("/chat/completions")) {
+                chat(ex, om.readTree(body));
+            } else {
+                send(ex, 404, "{\"error\":{\"message\":\"unknown path\"}}".getBytes());
+            }
+        } catch (IOException e) {
+            // клиент ушёл по своему дедлайну — для стаба это нормально
+            count("client_gone");
+        }
+    }
+
+    private boolean injectFault(HttpExchange ex) throws IOException {
+        double r = ThreadLocalRandom.current().nextDouble();
+        if (r < errorRate) {
+            count("error_503");
+            ex.getResponseHeaders().set("Retry-After", "0.1");
+            send(ex, 503, "{\"error\":{\"message\":\"stub overloaded\"}}".getBytes());
+            return true;
+        }
+        if ((r -= errorRate) < throttleRate) {
+            count("throttled_429");
+            ex.getResponseHeaders().set("Retry-After", "1");
+            send(ex, 429, "{\"error\":{\"message\":\"stub rate limit\"}}".getBytes());
+            return true;
+        }
+        if (r - throttleRate < hangRate) {
+            count("hang");
+            sleep(hang);
+            return true;
+        }
+        return false;
+    }
+
+    private void chat(HttpExchange ex, JsonNode req) throws IOException {
+        JsonNode messages = req.path("messages");
+        String system = messages.path(0).path("content").asText("");
+        boolean vision = false;
+        String partial = null;
+        for (JsonNode m : messages) {
+            if ("user".equals(m.path("role").asText()) && m.path("content").isArray()) vision = true;
+            if ("assistant".equals(m.path("role").asText())) partial = m.path("content").asText();
+        }
+        String full = vision ? SNAPSHOT : system.contains("{\"details\"") ? EXPAND : HINT;
+
+        String content;
+        String finish = "stop";
+        if (partial != null && full.startsWith(partial)) {
+            content = full.substring(partial.length());
+            count("continuation");
+        } else if (ThreadLocalRandom.current().nextDouble() < lengthRate) {
+            content = full.substring(0, full.length() / 2);
+            finish = "length";
+            count("finish_length");
+        } else {
+            content = full;
+        }
+        count(vision ? "vision" : "text");
+
+        var usage = Map.of("prompt_tokens", vision ? 1400 : 350, "completion_tokens", content.length() / 3,
+                "total_tokens", (vision ? 1400 : 350) + content.length() / 3,
+                "prompt_tokens_details", Map.of("cached_tokens", vision ? 1024 : 256));
+        Duration latency = sample(latencyMedian, latencySigma);
+        if (req.path("stream").asBoolean(false)) {
+            stream(ex, content, finish, usage, latency);
+            return;
+        }
+        sleep(latency);
+        var message = Map.of("role", "assistant", "content", content);
+        send(ex, 200, om.writeValueAsBytes(Map.of(
+                "id", "chatcmpl-stub", "object", "chat.completion", "model", req.path("model").asText(),
+                "choices", List.of(Map.of("index", 0, "message", message, "finish_reason", finish)),
+                "usage", usage)));
+    }
+
+    /**
+     * SSE как у OpenAI: латентность — это время до первого чанка, дальше чанки по chunk-chars через chunk-delay.
+     */
+    private void stream(HttpExchange ex, String content, String finish, Map<String, Object> usage, Duration ttfb)
+            throws IOException {
+        sleep(ttfb);
+        ex.getResponseHeaders().set("Content-Type", "text/event-stream");
+        ex.sendResponseHeaders(200, 0);
+        OutputStream out = ex.getResponseBody();
+        for (int i = 0; i < content.length(); i += chunkChars) {
+            var delta = Map.of("content", content.substring(i, Math.min(content.length(), i + chunkChars)));
+            event(out, Map.of("object", "chat.completion.chunk",
+                    "choices", List.of(Map.of("index", 0, "delta", delta))));
+            sleep(chunkDelay);
+        }
+        event(out, Map.of("object", "chat.completion.chunk",
+                "choices", List.of(Map.of("index", 0, "delta", Map.of(), "finish_reason", finish))));
+        event(out, Map.of("object", "chat.completion.chunk", "choices", List.of(), "usage", usage));
+        out.write("data: [DONE]\n\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private void event(OutputStream out, Object data) throws IOException {
+        out.write("data: ".getBytes(StandardCharsets.US_ASCII));
+        out.write(om.writeValueAsBytes(data));
+        out.write("\n\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private static void send(HttpExchange ex, int status, byte[] body) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, body.length);
+        ex.getResponseBody().write(body);
+    }
+
+    private Map<String, Long> stats() {
+        var m = new TreeMap<String, Long>();
+        counters.forEach((k, v) -> m.put(k, v.sum()));
+        return m;
+    }
+
+    private void count(String name) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * sigma логнормального распределения, у которого p99 = median * e^(2.326 * sigma).
+     */
+    private static double sigma(Duration median, Duration p99) {
+        if (p99.compareTo(median) <= 0) return 0;
+        return Math.log((double) p99.toNanos() / median.toNanos()) / 2.326;
+    }
+
+    private static Duration sample(Duration median, double sigma) {
+        double factor = Math.exp(sigma * ThreadLocalRandom.current().nextGaussian());
+        return Duration.ofNanos((long) Math.min(median.toNanos() * factor, Duration.ofMinutes(5).toNanos()));
+    }
+
+    private static void sleep(Duration d) {
+        try {
+            Thread.sleep(d);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.example.load;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Тела запросов генератора: скриншоты "IDE с кодом" в PNG и WAV с речеподобным сигналом.
+ * Готовятся заранее, чтобы генератор не мерил сам себя.
+ */
+final class Payloads {
+
+    private Payloads() {
+    }
+
+    static byte[] screenshot(int seed, int width, int height) throws IOException {
+        var img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        var g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setColor(new Color(0x1E1F22));
+        g.fillRect(0, 0, width, height);
+        g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 15));
+        var rnd = new Random(seed);
+        String[] words = {"public", "int", "return", "for", "if", "map.get(key)", "new HashMap<>()", "seen.put(a[i], i);",
+                "target - a[i]", "List<Integer>", "while", "null", "throw", "Optional.empty()"};
+        for (int y = 24, line = 1; y < height; y += 20, line++) {
+            g.setColor(new Color(0x6F737A));
+            g.drawString(String.format("%3d", line), 8, y);
+            var sb = new StringBuilder("    ".repeat(rnd.nextInt(4)));
+            for (int w = rnd.nextInt(6) + 1; w > 0; w--) sb.append(words[rnd.nextInt(words.length)]).append(' ');
+            g.setColor(new Color(0xBCBEC4 ^ rnd.nextInt(0x202020)));
+            g.drawString(sb.toString(), 48, y);
+        }
+        g.dispose();
+        var out = new ByteArrayOutputStream();
+        ImageIO.write(img, "png", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * PCM s16le mono 16 kHz: тон с амплитудной модуляцией и шумом — STT-стабу всё равно, а размер реальный.
+     */
+    static byte[] wav(int seconds) {
+        int rate = 16_000;
+        int samples = rate * seconds;
+        var buf = ByteBuffer.allocate(44 + samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put("RIFF".getBytes()).putInt(36 + samples * 2).put("WAVE".getBytes());
+        buf.put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) 1)
+                .putInt(rate).putInt(rate * 2).putShort((short) 2).putShort((short) 16);
+        buf.put("data".getBytes()).putInt(samples * 2);
+        var rnd = new Random(7);
+        for (int i = 0; i < samples; i++) {
+            double t = (double) i / rate;
+            double v = Math.sin(2 * Math.PI * 220 * t) * (0.5 + 0.5 * Math.sin(2 * Math.PI * 3 * t)) + rnd.nextGaussian() * 0.05;
+            buf.putShort((short) (v * 8_000));
+        }
+        return buf.array();
+    }
+}
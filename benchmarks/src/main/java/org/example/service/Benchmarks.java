@@ -0,0 +1,26 @@
+package org.example.service;
+
+import org.openjdk.jmh.Main;
+
+import java.util.Arrays;
+
+/**
+ * Точка входа benchmarks.jar: обычный JMH Main (-l, -h, regex, -p ...) с GC-профайлером по умолчанию,
+ * чтобы рядом с throughput был gc.alloc.rate.norm (байт на операцию).
+ */
+public final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (Arrays.asList(args).contains("-prof")) {
+            Main.main(args);
+            return;
+        }
+        String[] withGc = Arrays.copyOf(args, args.length + 2);
+        withGc[args.length] = "-prof";
+        withGc[args.length + 1] = "gc";
+        Main.main(withGc);
+    }
+}
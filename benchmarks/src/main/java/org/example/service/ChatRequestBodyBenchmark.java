@@ -0,0 +1,78 @@
+package org.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сборка и сериализация тела /chat/completions: текстовый hint (без сессии и с историей) и vision-конверт.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChatRequestBodyBenchmark {
+
+    private static final String MODEL = "gpt-5-mini";
+
+    private ObjectMapper om;
+    private ChatTemplates templates;
+    private SessionService.Context session;
+
+    @Setup
+    public void setup() throws Exception {
+        om = Fixtures.objectMapper();
+        templates = new ChatTemplates(om, List.of(MODEL));
+        var history = new ArrayList<byte[]>();
+        for (int i = 0; i < 6; i++) {
+            history.add(om.writeValueAsBytes(Map.of("role", "user", "content", Fixtures.TRANSCRIPT)));
+            history.add(om.writeValueAsBytes(Map.of("role", "assistant", "content", Fixtures.HINT_CONTENT)));
+        }
+        session = new SessionService.Context("Кандидат: backend, Java 21, Spring Boot.", history);
+    }
+
+    @Benchmark
+    public byte[] textHint() {
+        return templates.hint(MODEL, SessionService.Context.NONE, Fixtures.TRANSCRIPT, 800, List.of(), false);
+    }
+
+    @Benchmark
+    public byte[] textHintInSession() {
+        return templates.hint(MODEL, session, Fixtures.TRANSCRIPT, 800, List.of(), true);
+    }
+
+    @Benchmark
+    public ChatTemplates.VisionParts visionEnvelope() {
+        return templates.vision(MODEL, SessionService.Context.NONE, "Что на экране и как решить?", "image/jpeg", "high",
+                1200, List.of(), false);
+    }
+
+    /**
+     * Для сравнения: то же тело hint'а через Map → writeValueAsBytes, как до {@link ChatTemplates}.
+     */
+    @Benchmark
+    public byte[] textHintViaMap() throws Exception {
+        return om.writeValueAsBytes(Map.of(
+                "model", MODEL,
+                "messages", List.of(
+                        Map.of("role", "system", "content", ChatTemplates.HINT_SYSTEM),
+                        Map.of("role", "user", "content", "Текст вопроса/контекст:\n" + Fixtures.TRANSCRIPT)),
+                "reasoning_effort", "minimal",
+                "max_completion_tokens", 800));
+    }
+}
@@ -0,0 +1,56 @@
+package org.example.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Извлечение content ассистента из chat.completion (строкой и массивом частей) и из SSE-чанка.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChatResponseParserBenchmark {
+
+    @Param({"string", "parts"})
+    public String content;
+
+    private ChatResponseParser parser;
+    private byte[] completion;
+    private String chunk;
+
+    @Setup
+    public void setup() throws Exception {
+        var om = Fixtures.objectMapper();
+        parser = new ChatResponseParser(om);
+        completion = Fixtures.completion(om, Fixtures.HINT_CONTENT, "parts".equals(content));
+        chunk = om.writeValueAsString(Map.of(
+                "id", "chatcmpl-bench", "object", "chat.completion.chunk",
+                "choices", List.of(Map.of("index", 0, "delta", Map.of("content", "ConcurrentHashMap"), "finish_reason", ""))));
+    }
+
+    @Benchmark
+    public ChatResponseParser.Reply completion() throws Exception {
+        return parser.completion(completion);
+    }
+
+    @Benchmark
+    public ChatResponseParser.Reply streamChunk() throws Exception {
+        return parser.chunk(chunk);
+    }
+}
@@ -0,0 +1,69 @@
+package org.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Общие данные бенчмарков: ObjectMapper с настройками Spring Boot по умолчанию и типичные ответы модели.
+ */
+final class Fixtures {
+
+    static final String TRANSCRIPT = """
+            Интервьюер: расскажите, как устроен HashMap в Java. Что происходит при коллизиях,
+            когда бакет превращается в дерево и почему важно согласовать equals и hashCode?
+            Как ведёт себя итерация при конкурентной модификации?""";
+
+    static final String HINT_CONTENT = """
+            {"hint":"HashMap — массив бакетов; индекс = hash(key) & (n-1). Коллизии — цепочка, при 8+ элементах \
+            и capacity >= 64 бакет превращается в красно-чёрное дерево. equals/hashCode обязаны быть согласованы, \
+            иначе ключ не найдётся. Итератор fail-fast: ConcurrentModificationException по modCount.",\
+            "nextSteps":["Сравнить с ConcurrentHashMap","Рассказать про resize и load factor 0.75","Упомянуть TREEIFY_THRESHOLD"]}""";
+
+    static final String SNAPSHOT_CONTENT = """
+            {"taskType":"CODING","output":"Задача: найти два числа с заданной суммой. Решение за O(n) с HashMap: \
+            для каждого x ищем target - x среди уже просмотренных.","code":"Map<Integer,Integer> seen = new HashMap<>();\\n\
+            for (int i = 0; i < a.length; i++) {\\n  Integer j = seen.get(target - a[i]);\\n  if (j != null) return new int[]{j, i};\\n\
+              seen.put(a[i], i);\\n}\\nreturn null;","checklist":["Пустой массив","Дубликаты","Отрицательные числа"],\
+            "questions":["Можно ли модифицировать массив?"],"nextSteps":["Обсудить вариант с сортировкой и двумя указателями"]}""";
+
+    private Fixtures() {
+    }
+
+    static ObjectMapper objectMapper() {
+        return Jackson2ObjectMapperBuilder.json().build();
+    }
+
+    /**
+     * chat.completion с content строкой или (parts) массивом текстовых частей, как у некоторых моделей.
+     */
+    static byte[] completion(ObjectMapper om, String content, boolean parts) throws Exception {
+        Object body = content;
+        if (parts) {
+            var list = new ArrayList<Map<String, Object>>();
+            int step = (content.length() + 2) / 3;
+            for (int i = 0; i < content.length(); i += step) {
+                list.add(Map.of("type", "text", "text", content.substring(i, Math.min(content.length(), i + step))));
+            }
+            body = list;
+        }
+        var message = Map.of("role", "assistant", "content", body, "refusal", "");
+        return om.writeValueAsBytes(Map.of(
+                "id", "chatcmpl-bench",
+                "object", "chat.completion",
+                "created", 1_760_000_000,
+                "model", "gpt-5-mini-2025-08-07",
+                "choices", List.of(Map.of("index", 0, "message", message, "finish_reason", "stop")),
+                "usage", Map.of("prompt_tokens", 1250, "completion_tokens", 180, "total_tokens", 1430,
+                        "prompt_tokens_details", Map.of("cached_tokens", 1024)),
+                "system_fingerprint", "fp_bench"));
+    }
+
+    static String utf8(byte[] b) {
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
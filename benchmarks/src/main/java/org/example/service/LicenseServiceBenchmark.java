@@ -0,0 +1,76 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.config.LicenseProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LicenseService.requireValid на больших наборах ключей: сам lookup в реестре и полный путь с метрикой фазы.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LicenseServiceBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int keys;
+
+    private LicenseRegistry registry;
+    private LicenseService service;
+    private String[] probes;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        var entries = new ArrayList<LicenseProperties.LicenseEntry>(keys);
+        Instant expires = Instant.parse("2100-01-01T00:00:00Z");
+        for (int i = 0; i < keys; i++) {
+            entries.add(new LicenseProperties.LicenseEntry(key(i), i % 10 != 0, expires, i % 3 == 0 ? "PRO" : "DEMO"));
+        }
+        registry = new LicenseRegistry(new LicenseProperties(entries, Map.of(), null), Fixtures.objectMapper());
+        registry.init();
+        service = new LicenseService(registry, new HintMetrics(new SimpleMeterRegistry(), registry));
+
+        // новые String на каждый ключ: в запросе ключ приходит из заголовка, хэш у него ещё не посчитан
+        probes = new String[1024];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = new String(key((i * 7919 % keys) / 10 * 10 + 1));
+        }
+    }
+
+    @Benchmark
+    public LicenseRegistry.Resolved lookup() {
+        return registry.lookup(probe());
+    }
+
+    @Benchmark
+    public LicenseProperties.LicenseEntry requireValid() {
+        return service.requireValid(probe());
+    }
+
+    private String probe() {
+        return probes[next++ & (probes.length - 1)];
+    }
+
+    private static String key(int i) {
+        return String.format("LIC-%08d-%04X", i, i * 31 & 0xFFFF);
+    }
+}
@@ -0,0 +1,59 @@
+package org.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.dto.OpenAiDtos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Полный разбор ответа: тело chat.completion → content → HintJson / SnapshotJson (как в OpenAiClient.readContent).
+ * Для сравнения — через JsonNode-дерево и DTO всего ответа, как было до {@link ChatResponseParser}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReplyParsingBenchmark {
+
+    private ObjectMapper om;
+    private ChatResponseParser parser;
+    private byte[] hintBody;
+    private byte[] snapshotBody;
+
+    @Setup
+    public void setup() throws Exception {
+        om = Fixtures.objectMapper();
+        parser = new ChatResponseParser(om);
+        hintBody = Fixtures.completion(om, Fixtures.HINT_CONTENT, false);
+        snapshotBody = Fixtures.completion(om, Fixtures.SNAPSHOT_CONTENT, false);
+    }
+
+    @Benchmark
+    public OpenAiDtos.HintJson hintJson() throws Exception {
+        return om.readValue(parser.completion(hintBody).content(), OpenAiDtos.HintJson.class);
+    }
+
+    @Benchmark
+    public OpenAiDtos.SnapshotJson snapshotJson() throws Exception {
+        return om.readValue(parser.completion(snapshotBody).content(), OpenAiDtos.SnapshotJson.class);
+    }
+
+    @Benchmark
+    public OpenAiDtos.SnapshotJson snapshotJsonViaTree() throws Exception {
+        var root = om.readTree(snapshotBody);
+        String content = root.path("choices").path(0).path("message").path("content").asText();
+        return om.readValue(content, OpenAiDtos.SnapshotJson.class);
+    }
+}
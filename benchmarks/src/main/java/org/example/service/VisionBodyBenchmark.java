@@ -0,0 +1,83 @@
+package org.example.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * base64 скриншота 100KB–3MB в теле vision-запроса: потоковая запись {@link OpenAiClient.VisionBody}
+ * против data URL строкой. gc.alloc.rate.norm здесь главное — строковый вариант держит в heap несколько копий картинки.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+@State(Scope.Benchmark)
+public class VisionBodyBenchmark {
+
+    @Param({"100000", "1000000", "3000000"})
+    public int imageBytes;
+
+    private byte[] image;
+    private OpenAiClient.VisionBody body;
+
+    @Setup
+    public void setup() {
+        // случайные байты — как уже сжатый JPEG/PNG
+        image = new byte[imageBytes];
+        new Random(42).nextBytes(image);
+        var templates = new ChatTemplates(Fixtures.objectMapper(), List.of("gpt-5-mini"));
+        var parts = templates.vision("gpt-5-mini", SessionService.Context.NONE, "Что на экране?", "image/jpeg", "high",
+                1200, List.of(), false);
+        long length = parts.head().length + 4L * ((imageBytes + 2) / 3) + parts.tail().length;
+        body = new OpenAiClient.VisionBody(parts.head(), new ByteArrayResource(image), parts.tail(), length);
+    }
+
+    @Benchmark
+    public long streamedBase64() throws Exception {
+        var out = new CountingOutputStream();
+        body.writeTo(out);
+        return out.count;
+    }
+
+    @Benchmark
+    public long dataUrlString() {
+        String url = "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(image);
+        byte[] json = ("{\"url\":\"" + url + "\",\"detail\":\"high\"}").getBytes(StandardCharsets.UTF_8);
+        return json.length;
+    }
+
+    /**
+     * Сток вместо сокета: считает байты, чтобы JIT не выбросил запись.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
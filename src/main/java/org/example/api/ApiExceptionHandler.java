@@ -0,0 +1,34 @@
+package org.example.api;
+
+import org.example.dto.ApiException;
+import org.example.dto.ErrorResponse;
+import org.example.service.HintMetrics;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.UUID;
+
+@RestControllerAdvice
+public class ApiExceptionHandler {
+
+    private final HintMetrics metrics;
+
+    public ApiExceptionHandler(HintMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @ExceptionHandler(ApiException.class)
+    public ResponseEntity<ErrorResponse> handle(ApiException e) {
+        metrics.error(e.getCode());
+        var body = new ErrorResponse(new ErrorResponse.ErrorBody(
+                e.getCode(), e.getMessage(), UUID.randomUUID().toString(), e.getDetails()));
+
+        var resp = ResponseEntity.status(e.getStatus());
+        if (e.getDetails().get("retryAfterSeconds") instanceof Number n) {
+            resp.header(HttpHeaders.RETRY_AFTER, String.valueOf(n.longValue()));
+        }
+        return resp.body(body);
+    }
+}
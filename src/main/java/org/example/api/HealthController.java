@@ -1,6 +1,10 @@
 package org.example.api;
 
 
+import org.example.service.UpstreamHealth;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -8,8 +12,23 @@ import java.util.Map;
 
 @RestController
 public class HealthController {
+
+    private final UpstreamHealth upstream;
+
+    public HealthController(UpstreamHealth upstream) {
+        this.upstream = upstream;
+    }
+
+    /**
+     * ok — upstream отвечает; down (503) — нет ключа, открыт breaker или последний контакт с OpenAI неудачный;
+     * unknown — контакта ещё не было (проверка уже запущена в фоне).
+     */
     @GetMapping("/health")
-    public Map<String, String> health() {
-        return Map.of("status", "ok");
+    public ResponseEntity<Map<String, Object>> health() {
+        var h = upstream.health();
+        String status = Status.UP.equals(h.getStatus()) ? "ok" : h.getStatus().getCode().toLowerCase();
+        var body = Map.<String, Object>of("status", status, "upstream", h.getDetails());
+        return ResponseEntity.status(Status.DOWN.equals(h.getStatus()) ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.OK)
+                .body(body);
     }
 }
@@ -2,33 +2,126 @@ package org.example.api;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.example.config.AppProperties;
+import org.example.config.LicenseProperties;
 import org.example.dto.ApiException;
+import org.example.dto.BatchHintRequest;
+import org.example.dto.ErrorResponse;
+import org.example.dto.ExpandHintRequest;
+import org.example.dto.ExpandHintResponse;
+import org.example.dto.HintAudioResponse;
 import org.example.dto.OpenAiDtos;
+import org.example.service.HintCache;
+import org.example.service.HintMetrics;
+import org.example.service.HintJobService;
+import org.example.service.HintStore;
+import org.example.service.IdempotencyService;
+import org.example.service.ImagePreprocessor;
 import org.example.service.LicenseService;
 import org.example.service.OpenAiClient;
+import org.example.service.RateLimitService;
+import org.example.service.UsageMeter;
+import org.example.service.ScreenshotCache;
+import org.example.service.SessionService;
+import org.example.service.Wav;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RestController
 @RequestMapping("/api/v1")
 public class HintController {
 
+    private static final long STREAM_TIMEOUT_MS = 120_000L;
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
     private final OpenAiClient openAi;
     private final ObjectMapper om;
     private final LicenseService licenseService;
+    private final AsyncTaskExecutor streamExecutor;
+    private final AsyncTaskExecutor batchExecutor;
+    private final HintCache hintCache;
+    private final ScreenshotCache screenshotCache;
+    private final ImagePreprocessor imagePreprocessor;
+    private final IdempotencyService idempotency;
+    private final RateLimitService rateLimit;
+    private final UsageMeter usageMeter;
+    private final SessionService sessions;
+    private final HintStore hintStore;
+    private final HintMetrics metrics;
+    private final int batchMaxItems;
+    private final HintJobService jobs;
+    private final long jobMaxWaitMs;
 
-    public HintController(OpenAiClient openAi, ObjectMapper om, LicenseService licenseService) {
+    public HintController(OpenAiClient openAi, ObjectMapper om, LicenseService licenseService,
+                          @Qualifier("hintStreamExecutor") AsyncTaskExecutor hintStreamExecutor,
+                          @Qualifier("hintBatchExecutor") AsyncTaskExecutor hintBatchExecutor, HintCache hintCache,
+                          ScreenshotCache screenshotCache, ImagePreprocessor imagePreprocessor,
+                          IdempotencyService idempotency, RateLimitService rateLimit, UsageMeter usageMeter,
+                          SessionService sessions, HintStore hintStore, AppProperties props,
+                          HintJobService jobs, HintMetrics metrics) {
         this.openAi = openAi;
         this.om = om;
         this.licenseService = licenseService;
+        this.streamExecutor = hintStreamExecutor;
+        this.batchExecutor = hintBatchExecutor;
+        this.hintCache = hintCache;
+        this.screenshotCache = screenshotCache;
+        this.imagePreprocessor = imagePreprocessor;
+        this.idempotency = idempotency;
+        this.rateLimit = rateLimit;
+        this.usageMeter = usageMeter;
+        this.sessions = sessions;
+        this.hintStore = hintStore;
+        this.metrics = metrics;
+        this.batchMaxItems = props.batch() != null && props.batch().maxItems() > 0 ? props.batch().maxItems() : 100;
+        this.jobs = jobs;
+        Duration maxWait = props.jobs() == null ? null : props.jobs().maxWait();
+        this.jobMaxWaitMs = maxWait == null ? 30_000 : maxWait.toMillis();
     }
 
+    /**
+     * Строка NDJSON-ответа /hints:batch: либо hint, либо error.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record BatchHintLine(int index, String id, HintResponse hint, ErrorResponse.ErrorBody error) {}
+
+    /**
+     * Состояние асинхронной задачи: status QUEUED | RUNNING | DONE | FAILED, hint — при DONE, error — при FAILED.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record HintJob(String jobId, String status, Instant createdAt, Instant finishedAt,
+                          HintResponse hint, ErrorResponse.ErrorBody error) {}
+
     public record HintResponse(
             String hintId,
             String taskType,     // TEXT | VISION
@@ -47,48 +140,661 @@ public class HintController {
     )
     public HintResponse hint(
             @RequestHeader("X-License-Key") String licenseKey,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idemKey,
             @RequestPart("question") String question,
             @RequestPart(value = "image", required = false) MultipartFile image,
-            @RequestPart(value = "meta", required = false) String metaJson
-    ) throws Exception {
+            @RequestPart(value = "meta", required = false) String metaJson,
+            @RequestPart(value = "sessionId", required = false) String sessionId
+    ) {
 
-        licenseService.requireValid(licenseKey);
+        var license = licenseService.requireValid(licenseKey);
 
         if (question == null || question.isBlank()) {
             throw new ApiException(HttpStatus.BAD_REQUEST, "BAD_QUESTION", "question is required", Map.of());
         }
 
+        String session = blankToNull(sessionId);
+        var ctx = session == null ? SessionService.Context.NONE : sessions.context(session, licenseKey);
+
         String lang = parseLang(metaJson);
+        var request = Arrays.asList(question, lang, session, hasImage(image) ? image.getResource() : null);
 
-        // если есть картинка — используем vision-ответ, иначе обычный hint
-        if (image != null && !image.isEmpty()) {
-            String ct = image.getContentType();
-            OpenAiDtos.SnapshotJson sj = openAi.analyzeScreenshot(image.getBytes(), ct, lang, question);
-
-            return new HintResponse(
-                    UUID.randomUUID().toString(),
-                    "VISION",
-                    question,
-                    sj.output(),
-                    sj.code(),
-                    sj.checklist() == null ? List.of() : sj.checklist(),
-                    sj.questions() == null ? List.of() : sj.questions(),
-                    sj.nextSteps() == null ? List.of() : sj.nextSteps()
-            );
+        // лимит и учёт — только при первом выполнении, повтор по Idempotency-Key их не тратит
+        try (var ignored = usageMeter.bind(licenseKey)) {
+            return idempotency.execute("hint", idemKey, licenseKey, request, HintResponse.class, () -> {
+                rateLimit.consume(license, hasImage(image) ? RateLimitService.Kind.VISION : RateLimitService.Kind.TEXT);
+                var r = computeHint(question, image, lang, ctx);
+                remember(licenseKey, lang, r);
+                if (session != null) sessions.append(session, licenseKey, turnQuestion(question, hasImage(image)), r.output());
+                usageMeter.recordHint(licenseKey, hasImage(image));
+                return r;
+            });
+        }
+    }
+
+    private HintResponse computeHint(String question, MultipartFile image, String lang, SessionService.Context ctx) {
+        try {
+            var prepared = hasImage(image) ? imagePreprocessor.prepare(image.getResource(), image.getContentType()) : null;
+            return computeHint(question, prepared, lang, ctx);
+        } catch (IOException e) {
+            throw new ApiException("BAD_IMAGE", "Image is not readable: " + e.getMessage());
+        }
+    }
+
+    private HintResponse computeHint(String question, ImagePreprocessor.PreparedImage prepared, String lang,
+                                     SessionService.Context ctx) throws IOException {
+        // если есть картинка — используем vision-ответ, иначе обычный hint.
+        // В сессии ответ зависит от истории — кэши по вопросу не годятся
+        if (prepared != null) {
+            OpenAiDtos.SnapshotJson sj = ctx.isEmpty()
+                    ? screenshotCache.analyze(prepared, lang, question)
+                    : openAi.analyzeScreenshot(prepared.body(), prepared.contentType(), prepared.detail(), lang, question, ctx);
+            return visionResponse(question, sj);
         } else {
-            OpenAiDtos.HintJson hj = openAi.hintFromTranscript(question, lang);
-
-            return new HintResponse(
-                    UUID.randomUUID().toString(),
-                    "TEXT",
-                    question,
-                    hj.hint(),
-                    "",
-                    List.of(),
-                    List.of(),
-                    hj.nextSteps() == null ? List.of() : hj.nextSteps()
-            );
+            OpenAiDtos.HintJson hj = ctx.isEmpty()
+                    ? hintCache.hint(question, lang)
+                    : openAi.hintFromTranscript(question, lang, ctx);
+            return textResponse(question, hj);
+        }
+    }
+
+    /**
+     * /hint?async=true: задача ставится в очередь {@link HintJobService}, ответ — сразу 202 с jobId
+     * (Location — куда ходить за результатом). Лимиты списываются при постановке.
+     */
+    @PostMapping(
+            value = "/hint",
+            params = "async=true",
+            consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ResponseEntity<HintJob> hintAsync(
+            @RequestHeader("X-License-Key") String licenseKey,
+            @RequestPart("question") String question,
+            @RequestPart(value = "image", required = false) MultipartFile image,
+            @RequestPart(value = "meta", required = false) String metaJson,
+            @RequestPart(value = "sessionId", required = false) String sessionId
+    ) throws IOException {
+
+        var license = licenseService.requireValid(licenseKey);
+
+        if (question == null || question.isBlank()) {
+            throw new ApiException(HttpStatus.BAD_REQUEST, "BAD_QUESTION", "question is required", Map.of());
+        }
+
+        String session = blankToNull(sessionId);
+        var ctx = session == null ? SessionService.Context.NONE : sessions.context(session, licenseKey);
+
+        String lang = parseLang(metaJson);
+
+        // multipart живёт только до конца запроса — картинку готовим сейчас; BAD_IMAGE не должен тратить лимит
+        var prepared = hasImage(image)
+                ? imagePreprocessor.prepare(image.getResource(), image.getContentType()).detached()
+                : null;
+
+        var kind = prepared != null ? RateLimitService.Kind.VISION : RateLimitService.Kind.TEXT;
+        rateLimit.consume(license, kind);
+
+        HintJobService.View job;
+        try {
+            job = jobs.submit(license, () -> {
+                try (var ignored = usageMeter.bind(licenseKey)) {
+                    var r = computeHint(question, prepared, lang, ctx);
+                    usageMeter.recordHint(licenseKey, prepared != null);
+                    remember(licenseKey, lang, r);
+                    if (session != null) sessions.append(session, licenseKey, turnQuestion(question, prepared != null), r.output());
+                    return r;
+                } catch (IOException e) {
+                    metrics.error("BAD_IMAGE", "/api/v1/hint?async", licenseKey);
+                    throw new ApiException("BAD_IMAGE", "Image is not readable: " + e.getMessage());
+                } catch (ApiException e) {
+                    metrics.error(e.getCode(), "/api/v1/hint?async", licenseKey);
+                    throw e;
+                }
+            });
+        } catch (ApiException e) {
+            // JOBS_BUSY: задача не принята — лимит возвращаем
+            rateLimit.refund(license, kind);
+            throw e;
+        }
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/v1/hint/jobs/" + job.id()))
+                .body(hintJob(job));
+    }
+
+    /**
+     * Состояние задачи. С waitMs — long-poll: ответ приходит, как только задача готова,
+     * или по истечении waitMs (не больше app.jobs.maxWait) с текущим статусом.
+     */
+    @GetMapping(value = "/hint/jobs/{jobId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<HintJob> hintJob(
+            @RequestHeader("X-License-Key") String licenseKey,
+            @PathVariable String jobId,
+            @RequestParam(defaultValue = "0") long waitMs
+    ) {
+        licenseService.requireValid(licenseKey);
+        var now = jobs.get(jobId, licenseKey);
+
+        long wait = Math.min(Math.max(0, waitMs), jobMaxWaitMs);
+        var result = new DeferredResult<HintJob>(wait > 0 ? wait : null);
+        if (wait == 0 || now.finishedAt() != null) {
+            result.setResult(hintJob(now));
+            return result;
+        }
+        result.onTimeout(() -> result.setResult(hintJob(jobs.get(jobId, licenseKey))));
+        jobs.whenDone(jobId, licenseKey).thenAccept(v -> result.setResult(hintJob(v)));
+        return result;
+    }
+
+    /**
+     * Подписка по SSE: сразу "status" (HintJob), по готовности — "hint" (HintResponse) или "error" (ErrorResponse).
+     */
+    @GetMapping(value = "/hint/jobs/{jobId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter hintJobEvents(
+            @RequestHeader("X-License-Key") String licenseKey,
+            @PathVariable String jobId
+    ) throws IOException {
+        licenseService.requireValid(licenseKey);
+        var now = jobs.get(jobId, licenseKey);
+
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS + jobMaxWaitMs);
+        emitter.send(SseEmitter.event().name("status").data(hintJob(now), MediaType.APPLICATION_JSON));
+        jobs.whenDone(jobId, licenseKey).thenAccept(v -> {
+            try {
+                if (v.error() != null) {
+                    // ошибка задачи уже посчитана при её падении
+                    sendError(emitter, v.error(), null, licenseKey);
+                    return;
+                }
+                emitter.send(SseEmitter.event().name("hint").data(v.result(), MediaType.APPLICATION_JSON));
+                emitter.complete();
+            } catch (Exception e) {
+                emitter.completeWithError(e);
+            }
+        });
+        return emitter;
+    }
+
+    /**
+     * То же, что /hint, но ответ идёт через SSE:
+     * - event "delta": {"text":"..."} — куски output/hint по мере генерации
+     * - event "hint": полный HintResponse
+     * - event "error": ErrorResponse, если upstream упал
+     */
+    @PostMapping(
+            value = "/hint/stream",
+            consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE
+    )
+    public SseEmitter hintStream(
+            @RequestHeader("X-License-Key") String licenseKey,
+            @RequestPart("question") String question,
+            @RequestPart(value = "image", required = false) MultipartFile image,
+            @RequestPart(value = "meta", required = false) String metaJson,
+            @RequestPart(value = "sessionId", required = false) String sessionId
+    ) throws Exception {
+
+        var license = licenseService.requireValid(licenseKey);
+
+        if (question == null || question.isBlank()) {
+            throw new ApiException(HttpStatus.BAD_REQUEST, "BAD_QUESTION", "question is required", Map.of());
+        }
+
+        String session = blankToNull(sessionId);
+        var ctx = session == null ? SessionService.Context.NONE : sessions.context(session, licenseKey);
+
+        String lang = parseLang(metaJson);
+
+        // multipart живёт только до конца запроса — картинку готовим до ухода в другой поток (и до списания лимита)
+        var prepared = (image != null && !image.isEmpty())
+                ? imagePreprocessor.prepare(image.getResource(), image.getContentType()).detached()
+                : null;
+
+        rateLimit.consume(license, prepared != null ? RateLimitService.Kind.VISION : RateLimitService.Kind.TEXT);
+
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        streamExecutor.execute(() -> {
+            try (var ignored = usageMeter.bind(licenseKey)) {
+                HintResponse resp;
+                if (prepared != null && !ctx.isEmpty()) {
+                    var sj = openAi.streamAnalyzeScreenshot(prepared.body(), prepared.contentType(), prepared.detail(),
+                            lang, question, ctx, d -> sendDelta(emitter, d));
+                    resp = visionResponse(question, sj);
+                } else if (prepared != null) {
+                    var fp = screenshotCache.fingerprint(prepared);
+                    var sj = screenshotCache.lookup(fp, question, lang);
+                    if (sj != null) {
+                        sendDelta(emitter, sj.output());
+                    } else {
+                        sj = openAi.streamAnalyzeScreenshot(prepared.body(), prepared.contentType(), prepared.detail(),
+                                lang, question, d -> sendDelta(emitter, d));
+                        screenshotCache.put(fp, question, lang, sj);
+                    }
+                    resp = visionResponse(question, sj);
+                } else if (!ctx.isEmpty()) {
+                    var hj = openAi.streamHintFromTranscript(question, lang, ctx, d -> sendDelta(emitter, d));
+                    resp = textResponse(question, hj);
+                } else {
+                    var hj = hintCache.streamHint(question, lang, d -> sendDelta(emitter, d));
+                    resp = textResponse(question, hj);
+                }
+                usageMeter.recordHint(licenseKey, prepared != null);
+                remember(licenseKey, lang, resp);
+                if (session != null) sessions.append(session, licenseKey, turnQuestion(question, prepared != null), resp.output());
+                emitter.send(SseEmitter.event().name("hint").data(resp, MediaType.APPLICATION_JSON));
+                emitter.complete();
+            } catch (ApiException e) {
+                sendError(emitter, e, "/api/v1/hint/stream", licenseKey);
+            } catch (Exception e) {
+                emitter.completeWithError(e);
+            }
+        });
+        return emitter;
+    }
+
+    /**
+     * Голосовой вопрос за один запрос: STT → текстовый hint.
+     * Аудио не читается в heap — multipart лежит на диске и потоком уходит в /audio/transcriptions.
+     */
+    @PostMapping(
+            value = "/hint/audio",
+            consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public HintAudioResponse hintAudio(
+            @RequestHeader("X-License-Key") String licenseKey,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idemKey,
+            @RequestPart("audio") MultipartFile audio,
+            @RequestPart(value = "meta", required = false) String metaJson
+    ) {
+
+        var license = licenseService.requireValid(licenseKey);
+
+        if (audio == null || audio.isEmpty()) {
+            throw new ApiException(HttpStatus.BAD_REQUEST, "BAD_AUDIO", "audio is required", Map.of());
+        }
+
+        requireAudioWithinPlan(audio, license);
+        String lang = parseLang(metaJson);
+        var request = Arrays.asList(lang, audio.getResource());
+
+        try (var ignored = usageMeter.bind(licenseKey)) {
+            return idempotency.execute("hint/audio", idemKey, licenseKey, request, HintAudioResponse.class, () -> {
+                rateLimit.consume(license, RateLimitService.Kind.TEXT);
+                String transcript = openAi.transcribe(audio, lang);
+                if (transcript.isBlank()) {
+                    throw new ApiException(HttpStatus.UNPROCESSABLE_ENTITY, "EMPTY_TRANSCRIPT", "No speech recognized", Map.of());
+                }
+
+                OpenAiDtos.HintJson hj = hintCache.hint(transcript, lang);
+                String hintId = UUID.randomUUID().toString();
+                hintStore.remember(hintId, licenseKey, lang, "TEXT", transcript, hj.hint(), null, null);
+                usageMeter.recordHint(licenseKey, false);
+                return new HintAudioResponse(
+                        hintId,
+                        transcript,
+                        hj.hint(),
+                        hj.nextSteps() == null ? List.of() : hj.nextSteps()
+                );
+            });
+        }
+    }
+
+    /**
+     * maxAudioSecondsPerHint плана — до STT: длинная запись не должна ни тратить квоту, ни уходить в upstream.
+     */
+    private void requireAudioWithinPlan(MultipartFile audio, LicenseProperties.LicenseEntry license) {
+        int maxSeconds = rateLimit.limits(license.plan()).maxAudioSecondsPerHint();
+        if (maxSeconds <= 0) return;
+        long ms;
+        try {
+            ms = Wav.estimateMs(audio.getResource());
+        } catch (IOException e) {
+            throw new ApiException(HttpStatus.BAD_REQUEST, "BAD_AUDIO", "audio cannot be read", Map.of());
+        }
+        if (ms > maxSeconds * 1000L) {
+            throw new ApiException(HttpStatus.PAYLOAD_TOO_LARGE, "AUDIO_TOO_LONG",
+                    "Audio is longer than the plan allows (" + maxSeconds + "s)",
+                    Map.of("maxSeconds", maxSeconds, "estimatedSeconds", (ms + 999) / 1000));
+        }
+    }
+
+    /**
+     * "Подробнее" по уже выданной подсказке: контекст берётся из {@link HintStore} по hintId,
+     * скриншот заново не нужен. Бюджет ответа считается от maxWords.
+     */
+    @PostMapping(
+            value = "/hint/expand",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public ExpandHintResponse expand(
+            @RequestHeader("X-License-Key") String licenseKey,
+            @RequestBody ExpandHintRequest req
+    ) {
+        var license = licenseService.requireValid(licenseKey);
+        var hint = hintStore.require(req.hintId(), licenseKey);
+        int words = hintStore.expandWords(req.maxWords());
+
+        rateLimit.consume(license, RateLimitService.Kind.TEXT);
+
+        try (var ignored = usageMeter.bind(licenseKey)) {
+            var ej = openAi.expandHint(hint, words, null);
+            usageMeter.recordHint(licenseKey, false);
+            return new ExpandHintResponse(req.hintId(), ej.details());
+        }
+    }
+
+    /**
+     * То же через SSE (Accept: text/event-stream): "delta" — куски details, "expand" — ExpandHintResponse,
+     * "error" — ErrorResponse.
+     */
+    @PostMapping(
+            value = "/hint/expand",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.TEXT_EVENT_STREAM_VALUE
+    )
+    public SseEmitter expandStream(
+            @RequestHeader("X-License-Key") String licenseKey,
+            @RequestBody ExpandHintRequest req
+    ) {
+        var license = licenseService.requireValid(licenseKey);
+        var hint = hintStore.require(req.hintId(), licenseKey);
+        int words = hintStore.expandWords(req.maxWords());
+
+        rateLimit.consume(license, RateLimitService.Kind.TEXT);
+
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        streamExecutor.execute(() -> {
+            try (var ignored = usageMeter.bind(licenseKey)) {
+                var ej = openAi.expandHint(hint, words, d -> sendDelta(emitter, d));
+                usageMeter.recordHint(licenseKey, false);
+                emitter.send(SseEmitter.event().name("expand")
+                        .data(new ExpandHintResponse(req.hintId(), ej.details()), MediaType.APPLICATION_JSON));
+                emitter.complete();
+            } catch (ApiException e) {
+                sendError(emitter, e, "/api/v1/hint/expand", licenseKey);
+            } catch (Exception e) {
+                emitter.completeWithError(e);
+            }
+        });
+        return emitter;
+    }
+
+    /**
+     * Пачка вопросов за один запрос (multipart): часть "batch" — JSON {@link BatchHintRequest},
+     * картинки — отдельными частями, на которые ссылается item.image.
+     * <p>
+     * Ответ — NDJSON ({@link BatchHintLine}) в порядке готовности, а не в порядке вопросов.
+     * Одновременно в upstream идёт не больше batchParallelism плана (на лицензию, общий для всех её батчей).
+     * Лимиты RateLimitService списываются на каждый вопрос; отказ по одному вопросу — строка с error, батч продолжается.
+     */
+    @PostMapping(
+            value = "/hints:batch",
+            consumes = MediaType.MULTIPART_FORM_DATA_VALUE,
+            produces = "application/x-ndjson"
+    )
+    public ResponseEntity<StreamingResponseBody> batch(
+            @RequestHeader("X-License-Key") String licenseKey,
+            @RequestPart("batch") String batchJson,
+            @RequestParam MultiValueMap<String, MultipartFile> files
+    ) throws IOException {
+        var license = licenseService.requireValid(licenseKey);
+        BatchHintRequest req;
+        try {
+            req = om.readValue(batchJson, BatchHintRequest.class);
+        } catch (IOException e) {
+            throw new ApiException(HttpStatus.BAD_REQUEST, "BAD_BATCH", "batch part is not valid JSON", Map.of());
         }
+        return startBatch(license, req, files);
+    }
+
+    /**
+     * То же без картинок — обычным JSON-телом.
+     */
+    @PostMapping(
+            value = "/hints:batch",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = "application/x-ndjson"
+    )
+    public ResponseEntity<StreamingResponseBody> batchJson(
+            @RequestHeader("X-License-Key") String licenseKey,
+            @RequestBody BatchHintRequest req
+    ) throws IOException {
+        var license = licenseService.requireValid(licenseKey);
+        return startBatch(license, req, null);
+    }
+
+    private ResponseEntity<StreamingResponseBody> startBatch(LicenseProperties.LicenseEntry license, BatchHintRequest req,
+                                                             MultiValueMap<String, MultipartFile> files) throws IOException {
+        var items = req == null ? null : req.items();
+        if (items == null || items.isEmpty()) {
+            throw new ApiException(HttpStatus.BAD_REQUEST, "BAD_BATCH", "items are required", Map.of());
+        }
+        if (items.size() > batchMaxItems) {
+            throw new ApiException(HttpStatus.BAD_REQUEST, "BAD_BATCH", "Too many items (max " + batchMaxItems + ")",
+                    Map.of("items", items.size(), "maxItems", batchMaxItems));
+        }
+
+        // multipart живёт только до конца запроса — картинки готовим здесь, каждую один раз
+        var images = new HashMap<String, ImagePreprocessor.PreparedImage>();
+        for (int i = 0; i < items.size(); i++) {
+            var item = items.get(i);
+            if (item == null || item.question() == null || item.question().isBlank()) {
+                throw new ApiException(HttpStatus.BAD_REQUEST, "BAD_BATCH", "question is required", Map.of("index", i));
+            }
+            String part = item.image();
+            if (part == null || part.isBlank() || images.containsKey(part)) continue;
+            MultipartFile file = files == null ? null : files.getFirst(part);
+            if (!hasImage(file)) {
+                throw new ApiException(HttpStatus.BAD_REQUEST, "BAD_BATCH", "Image part is missing: " + part, Map.of("index", i));
+            }
+            images.put(part, imagePreprocessor.prepare(file.getResource(), file.getContentType()).detached());
+        }
+
+        String lang = req.lang() == null || req.lang().isBlank() ? "ru" : req.lang();
+        StreamingResponseBody body = out -> runBatch(license, items, images, lang, out);
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * Диспетчер (в batchExecutor) берёт permit и запускает вопрос; этот поток только пишет готовые строки.
+     * Одинаковые вопросы по одной картинке считаются один раз; текстовые схлопывает HintCache.
+     * Писатель не ждёт бесконечно: если за STREAM_TIMEOUT_MS не пришло ни одной строки,
+     * недостающие закрываются ошибкой BATCH_TIMEOUT.
+     */
+    private void runBatch(LicenseProperties.LicenseEntry license, List<BatchHintRequest.Item> items,
+                          Map<String, ImagePreprocessor.PreparedImage> images, String lang,
+                          OutputStream out) throws IOException {
+        var permits = rateLimit.batchPermits(license);
+        BlockingQueue<BatchHintLine> done = new LinkedBlockingQueue<>();
+        var shots = new ConcurrentHashMap<String, CompletableFuture<OpenAiDtos.SnapshotJson>>();
+        var cancelled = new AtomicBoolean();
+
+        Runnable dispatch = () -> {
+            for (int i = 0; i < items.size(); i++) {
+                int index = i;
+                var item = items.get(i);
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    // писатель ждёт ровно items.size() строк — оставшиеся закрываем ошибкой
+                    failBatchItems(items, i, done, "BATCH_CANCELLED", "Batch was cancelled");
+                    return;
+                }
+                if (cancelled.get()) {
+                    permits.release();
+                    return;
+                }
+                try {
+                    batchExecutor.execute(() -> {
+                        try {
+                            done.add(batchItem(license, index, item, images.get(item.image()), lang, shots));
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    failBatchItems(items, i, done, "BATCH_REJECTED", "Batch item could not be scheduled");
+                    return;
+                }
+            }
+        };
+        try {
+            batchExecutor.execute(dispatch);
+        } catch (RejectedExecutionException e) {
+            failBatchItems(items, 0, done, "BATCH_REJECTED", "Batch could not be scheduled");
+        }
+
+        var written = new boolean[items.size()];
+        try {
+            for (int n = 0; n < items.size(); n++) {
+                var line = done.poll(STREAM_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (line == null) {
+                    cancelled.set(true);
+                    for (int i = 0; i < items.size(); i++) {
+                        if (!written[i]) writeBatchLine(out, batchError(i, items.get(i).id(), "BATCH_TIMEOUT",
+                                "No result within " + STREAM_TIMEOUT_MS + "ms"));
+                    }
+                    return;
+                }
+                written[line.index()] = true;
+                writeBatchLine(out, line);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled.set(true);
+        } catch (IOException e) {
+            // клиент отключился — новые вопросы не запускаем, уже начатые доработают в кэш
+            cancelled.set(true);
+            throw e;
+        }
+    }
+
+    private void writeBatchLine(OutputStream out, BatchHintLine line) throws IOException {
+        out.write(om.writeValueAsBytes(line));
+        out.write('\n');
+        out.flush();
+    }
+
+    private static void failBatchItems(List<BatchHintRequest.Item> items, int from, BlockingQueue<BatchHintLine> done,
+                                       String code, String message) {
+        for (int j = from; j < items.size(); j++) {
+            done.add(batchError(j, items.get(j).id(), code, message));
+        }
+    }
+
+    private static BatchHintLine batchError(int index, String id, String code, String message) {
+        return new BatchHintLine(index, id, null, new ErrorResponse.ErrorBody(code, message, null, Map.of()));
+    }
+
+    private BatchHintLine batchItem(LicenseProperties.LicenseEntry license, int index, BatchHintRequest.Item item,
+                                    ImagePreprocessor.PreparedImage image, String lang,
+                                    Map<String, CompletableFuture<OpenAiDtos.SnapshotJson>> shots) {
+        String question = item.question();
+        try (var ignored = usageMeter.bind(license.key())) {
+            rateLimit.consume(license, image != null ? RateLimitService.Kind.VISION : RateLimitService.Kind.TEXT);
+            HintResponse resp;
+            if (image != null) {
+                var mine = new CompletableFuture<OpenAiDtos.SnapshotJson>();
+                var fut = shots.putIfAbsent(item.image() + '\n' + question.strip(), mine);
+                if (fut == null) {
+                    try {
+                        mine.complete(screenshotCache.analyze(image, lang, question));
+                    } catch (IOException | RuntimeException e) {
+                        mine.completeExceptionally(e);
+                    }
+                    fut = mine;
+                }
+                resp = visionResponse(question, fut.join());
+            } else {
+                resp = textResponse(question, hintCache.hint(question, lang));
+            }
+            usageMeter.recordHint(license.key(), image != null);
+            remember(license.key(), lang, resp);
+            return new BatchHintLine(index, item.id(), resp, null);
+        } catch (Exception e) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            ApiException api = cause instanceof ApiException a ? a
+                    : new ApiException(HttpStatus.BAD_GATEWAY, "HINT_FAILED", String.valueOf(cause.getMessage()), Map.of());
+            metrics.error(api.getCode(), "/api/v1/hints:batch", license.key());
+            return new BatchHintLine(index, item.id(), null,
+                    new ErrorResponse.ErrorBody(api.getCode(), api.getMessage(), null, api.getDetails()));
+        }
+    }
+
+    private static HintJob hintJob(HintJobService.View v) {
+        var e = v.error();
+        return new HintJob(v.id(), v.status().name(), v.createdAt(), v.finishedAt(),
+                v.result() instanceof HintResponse r ? r : null,
+                e == null ? null : new ErrorResponse.ErrorBody(e.getCode(), e.getMessage(), null, e.getDetails()));
+    }
+
+    private void remember(String licenseKey, String lang, HintResponse r) {
+        hintStore.remember(r.hintId(), licenseKey, lang, r.taskType(), r.question(), r.output(), r.code(), r.checklist());
+    }
+
+    private static String blankToNull(String s) {
+        return s == null || s.isBlank() ? null : s.strip();
+    }
+
+    /**
+     * Вопрос в истории сессии; сам скриншот туда не попадает — только пометка.
+     */
+    private static String turnQuestion(String question, boolean withImage) {
+        return withImage ? "[по скриншоту] " + question : question;
+    }
+
+    private static boolean hasImage(MultipartFile image) {
+        return image != null && !image.isEmpty();
+    }
+
+    private static void sendDelta(SseEmitter emitter, String text) {
+        try {
+            emitter.send(SseEmitter.event().name("delta").data(Map.of("text", text), MediaType.APPLICATION_JSON));
+        } catch (IOException e) {
+            // клиент отключился — рвём чтение upstream
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void sendError(SseEmitter emitter, ApiException e, String endpoint, String licenseKey) {
+        if (endpoint != null) metrics.error(e.getCode(), endpoint, licenseKey);
+        try {
+            var err = new ErrorResponse(new ErrorResponse.ErrorBody(e.getCode(), e.getMessage(), null, e.getDetails()));
+            emitter.send(SseEmitter.event().name("error").data(err, MediaType.APPLICATION_JSON));
+            emitter.complete();
+        } catch (Exception sendFailed) {
+            emitter.completeWithError(e);
+        }
+    }
+
+    private static HintResponse visionResponse(String question, OpenAiDtos.SnapshotJson sj) {
+        return new HintResponse(
+                UUID.randomUUID().toString(),
+                "VISION",
+                question,
+                sj.output(),
+                sj.code(),
+                sj.checklist() == null ? List.of() : sj.checklist(),
+                sj.questions() == null ? List.of() : sj.questions(),
+                sj.nextSteps() == null ? List.of() : sj.nextSteps()
+        );
+    }
+
+    private static HintResponse textResponse(String question, OpenAiDtos.HintJson hj) {
+        return new HintResponse(
+                UUID.randomUUID().toString(),
+                "TEXT",
+                question,
+                hj.hint(),
+                "",
+                List.of(),
+                List.of(),
+                hj.nextSteps() == null ? List.of() : hj.nextSteps()
+        );
     }
 
     private String parseLang(String metaJson) {
@@ -0,0 +1,232 @@
+package org.example.api;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.dto.ApiException;
+import org.example.dto.ErrorResponse;
+import org.example.dto.HintAudioResponse;
+import org.example.dto.OpenAiDtos;
+import org.example.service.HintCache;
+import org.example.service.HintMetrics;
+import org.example.service.HintStore;
+import org.example.service.LicenseService;
+import org.example.service.LiveTranscriber;
+import org.example.service.OpenAiClient;
+import org.example.service.RateLimitService;
+import org.example.service.UsageMeter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * /api/v1/hint/live — живая транскрипция вопроса со спекулятивным hint.
+ * <p>
+ * Лицензия: заголовок X-License-Key или ?licenseKey=... (браузерный WebSocket заголовки ставить не умеет).
+ * Клиент → сервер:
+ * - text {"type":"start","lang":"ru","sampleRate":16000} — опционально, до первого аудио;
+ *   sampleRate — 8000/16000/24000/48000, иначе соединение закрывается с 1008 (policy violation);
+ * - binary — PCM s16le mono;
+ * - text {"type":"stop"} — вопрос закончен, не ждать паузы.
+ * Сервер → клиент (text JSON):
+ * - {"type":"transcript","stable":"...","unstable":"..."}
+ * - {"type":"hint","hint":HintAudioResponse}
+ * - {"type":"rate_limited","error":ErrorBody} — лимит лицензии исчерпан, вопрос в upstream не ушёл;
+ * - {"type":"error","error":ErrorBody}
+ * <p>
+ * Лимит TEXT списывается на каждый законченный вопрос, а не на соединение.
+ */
+@Component
+public class LiveHintSocketHandler extends AbstractWebSocketHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(LiveHintSocketHandler.class);
+
+    private static final String ATTR_TRANSCRIBER = "transcriber";
+    private static final String ATTR_OUT = "out";
+    private static final String ATTR_LICENSE = "licenseKey";
+    private static final int DEFAULT_SAMPLE_RATE = 16_000;
+
+    private final OpenAiClient openAi;
+    private final HintCache hintCache;
+    private final LicenseService licenseService;
+    private final AsyncTaskExecutor executor;
+    private final ObjectMapper om;
+    private final RateLimitService rateLimit;
+    private final UsageMeter usageMeter;
+    private final HintStore hintStore;
+    private final HintMetrics metrics;
+
+    public LiveHintSocketHandler(OpenAiClient openAi, HintCache hintCache, LicenseService licenseService,
+                                 @Qualifier("hintStreamExecutor") AsyncTaskExecutor hintStreamExecutor, ObjectMapper om, RateLimitService rateLimit,
+                                 UsageMeter usageMeter, HintStore hintStore,
+                                 HintMetrics metrics) {
+        this.openAi = openAi;
+        this.hintCache = hintCache;
+        this.licenseService = licenseService;
+        this.executor = hintStreamExecutor;
+        this.om = om;
+        this.rateLimit = rateLimit;
+        this.usageMeter = usageMeter;
+        this.hintStore = hintStore;
+        this.metrics = metrics;
+    }
+
+    public HandshakeInterceptor licenseInterceptor() {
+        return new HandshakeInterceptor() {
+            @Override
+            public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                           WebSocketHandler wsHandler, Map<String, Object> attributes) {
+                String key = request.getHeaders().getFirst("X-License-Key");
+                if (key == null) {
+                    key = UriComponentsBuilder.fromUri(request.getURI()).build().getQueryParams().getFirst("licenseKey");
+                }
+                try {
+                    var license = licenseService.requireValid(key);
+                    attributes.put(ATTR_LICENSE, license.key());
+                    return true;
+                } catch (ApiException e) {
+                    response.setStatusCode(e.getStatus());
+                    return false;
+                }
+            }
+
+            @Override
+            public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                       WebSocketHandler wsHandler, Exception exception) {
+            }
+        };
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession raw) {
+        // отправка идёт и из потоков STT/hint — нужен потокобезопасный декоратор
+        var session = new ConcurrentWebSocketSessionDecorator(raw, 5_000, 256 * 1024);
+        raw.getAttributes().put(ATTR_OUT, session);
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+        JsonNode node = om.readTree(message.getPayload());
+        String type = node.path("type").asText("");
+        switch (type) {
+            case "start" -> {
+                String lang = node.path("lang").asText("ru");
+                int rate = node.path("sampleRate").asInt(DEFAULT_SAMPLE_RATE);
+                if (!LiveTranscriber.SAMPLE_RATES.contains(rate)) {
+                    session.close(CloseStatus.POLICY_VIOLATION.withReason("Unsupported sampleRate: " + rate));
+                    return;
+                }
+                replaceTranscriber(session, lang, rate);
+            }
+            case "stop" -> {
+                var t = transcriber(session);
+                if (t != null) t.flush();
+            }
+            default -> sendError(out(session), new ApiException("BAD_MESSAGE", "Unknown message type: " + type));
+        }
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        var t = transcriber(session);
+        if (t == null) t = replaceTranscriber(session, "ru", DEFAULT_SAMPLE_RATE);
+
+        var payload = message.getPayload();
+        byte[] pcm = new byte[payload.remaining()];
+        payload.get(pcm);
+        t.accept(pcm);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        var t = transcriber(session);
+        if (t != null) t.close();
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        log.debug("Live socket transport error: {}", exception.toString());
+    }
+
+    private LiveTranscriber transcriber(WebSocketSession session) {
+        return (LiveTranscriber) session.getAttributes().get(ATTR_TRANSCRIBER);
+    }
+
+    private WebSocketSession out(WebSocketSession session) {
+        return (WebSocketSession) session.getAttributes().get(ATTR_OUT);
+    }
+
+    private LiveTranscriber replaceTranscriber(WebSocketSession session, String lang, int sampleRate) {
+        var old = transcriber(session);
+        if (old != null) old.close();
+
+        WebSocketSession out = out(session);
+        String licenseKey = (String) session.getAttributes().get(ATTR_LICENSE);
+        int maxAudioSeconds = rateLimit.limits(licenseService.requireValid(licenseKey).plan()).maxAudioSecondsPerHint();
+        var t = new LiveTranscriber(openAi, hintCache, executor, usageMeter, licenseKey, lang, sampleRate, maxAudioSeconds,
+                new LiveTranscriber.Listener() {
+                @Override
+                public void admitQuestion() {
+                    // лицензию перепроверяем: за время соединения её могли отключить
+                    rateLimit.consume(licenseService.requireValid(licenseKey), RateLimitService.Kind.TEXT);
+                }
+
+                @Override
+                public void onTranscript(String stable, String unstable) {
+                    send(out, Map.of("type", "transcript", "stable", stable, "unstable", unstable));
+                }
+
+                @Override
+                public void onHint(String question, OpenAiDtos.HintJson hint) {
+                    String hintId = UUID.randomUUID().toString();
+                    hintStore.remember(hintId, licenseKey, lang, "TEXT", question, hint.hint(), null, null);
+                    var resp = new HintAudioResponse(
+                            hintId,
+                            question,
+                            hint.hint(),
+                            hint.nextSteps() == null ? List.of() : hint.nextSteps()
+                    );
+                    send(out, Map.of("type", "hint", "hint", resp));
+                }
+
+                @Override
+                public void onError(ApiException e) {
+                    sendError(out, e);
+                }
+            });
+        session.getAttributes().put(ATTR_TRANSCRIBER, t);
+        return t;
+    }
+
+    private void sendError(WebSocketSession out, ApiException e) {
+        metrics.error(e.getCode(), "/api/v1/hint/live", (String) out.getAttributes().get(ATTR_LICENSE));
+        var err = new ErrorResponse.ErrorBody(e.getCode(), e.getMessage(), null, e.getDetails());
+        String type = e.getStatus() == HttpStatus.TOO_MANY_REQUESTS ? "rate_limited" : "error";
+        send(out, Map.of("type", type, "error", err));
+    }
+
+    private void send(WebSocketSession out, Object payload) {
+        try {
+            if (out.isOpen()) out.sendMessage(new TextMessage(om.writeValueAsString(payload)));
+        } catch (Exception e) {
+            log.debug("Live socket send failed: {}", e.toString());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.example.api;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.example.service.HintMetrics;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Фаза multipart и размер входящих запросов API.
+ * <p>
+ * Multipart разбирается здесь явно (getParts) — так время чтения/записи частей на диск видно отдельно
+ * от работы контроллера; Spring потом берёт уже разобранные части. Endpoint — шаблон пути,
+ * он известен только после диспетчеризации, поэтому метрики пишутся после chain.
+ */
+@Component
+public class RequestMetricsFilter extends OncePerRequestFilter {
+
+    private final HintMetrics metrics;
+
+    public RequestMetricsFilter(HintMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !request.getRequestURI().startsWith("/api/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long multipartNanos = -1;
+        String contentType = request.getContentType();
+        if (contentType != null && contentType.toLowerCase().startsWith(MediaType.MULTIPART_FORM_DATA_VALUE)) {
+            long t0 = System.nanoTime();
+            try {
+                request.getParts();
+            } catch (IOException | ServletException | IllegalStateException e) {
+                // битый или слишком большой multipart — ошибку отдаст MultipartResolver, как и раньше
+            }
+            multipartNanos = System.nanoTime() - t0;
+        }
+
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (multipartNanos >= 0) metrics.phase("multipart", multipartNanos, null, null);
+            metrics.requestSize(metrics.endpoint(), request.getContentLengthLong());
+        }
+    }
+}
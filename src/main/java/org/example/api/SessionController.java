@@ -0,0 +1,41 @@
+package org.example.api;
+
+import org.example.dto.CreateSessionRequest;
+import org.example.dto.CreateSessionResponse;
+import org.example.service.LicenseService;
+import org.example.service.SessionService;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/v1")
+public class SessionController {
+
+    private final LicenseService licenseService;
+    private final SessionService sessions;
+
+    public SessionController(LicenseService licenseService, SessionService sessions) {
+        this.licenseService = licenseService;
+        this.sessions = sessions;
+    }
+
+    /**
+     * Новая сессия собеседования; sessionId дальше передаётся в /hint и /hint/stream.
+     */
+    @PostMapping(
+            value = "/sessions",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE
+    )
+    public CreateSessionResponse create(
+            @RequestHeader("X-License-Key") String licenseKey,
+            @RequestBody(required = false) CreateSessionRequest req
+    ) {
+        var license = licenseService.requireValid(licenseKey);
+        return sessions.create(license.key(), req);
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.api;
+
+import org.example.service.ChatRouter;
+import org.example.service.HintAuditLog;
+import org.example.service.HintCache;
+import org.example.service.HintJobService;
+import org.example.service.HintStore;
+import org.example.service.ImagePreprocessor;
+import org.example.service.ScreenshotCache;
+import org.example.service.SessionService;
+import org.example.service.UpstreamResilience;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+public class StatsController {
+
+    private final HintCache hintCache;
+    private final ScreenshotCache screenshotCache;
+    private final ImagePreprocessor imagePreprocessor;
+    private final UpstreamResilience resilience;
+    private final ChatRouter router;
+    private final SessionService sessions;
+    private final HintStore hintStore;
+    private final HintJobService jobs;
+    private final HintAuditLog audit;
+
+    public StatsController(HintCache hintCache, ScreenshotCache screenshotCache, ImagePreprocessor imagePreprocessor,
+                           UpstreamResilience resilience, ChatRouter router, SessionService sessions,
+                           HintStore hintStore, HintJobService jobs, HintAuditLog audit) {
+        this.hintCache = hintCache;
+        this.screenshotCache = screenshotCache;
+        this.imagePreprocessor = imagePreprocessor;
+        this.resilience = resilience;
+        this.router = router;
+        this.sessions = sessions;
+        this.hintStore = hintStore;
+        this.jobs = jobs;
+        this.audit = audit;
+    }
+
+    @GetMapping("/stats/cache")
+    public Map<String, Object> cache() {
+        return Map.of(
+                "hints", hintCache.stats(),
+                "screenshots", screenshotCache.stats(),
+                "sessions", sessions.stats(),
+                "expandable", hintStore.stats()
+        );
+    }
+
+    @GetMapping("/stats/images")
+    public Map<String, Object> images() {
+        return imagePreprocessor.stats();
+    }
+
+    @GetMapping("/stats/upstream")
+    public Map<String, Object> upstream() {
+        return resilience.stats();
+    }
+
+    @GetMapping("/stats/routes")
+    public Map<String, Object> routes() {
+        return router.stats();
+    }
+
+    @GetMapping("/stats/jobs")
+    public Map<String, Object> jobs() {
+        return jobs.stats();
+    }
+
+    @GetMapping("/stats/audit")
+    public Map<String, Object> audit() {
+        return audit.stats();
+    }
+}
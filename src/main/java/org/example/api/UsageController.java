@@ -0,0 +1,70 @@
+package org.example.api;
+
+import org.example.dto.LicenseStatusResponse;
+import org.example.dto.UsageTodayResponse;
+import org.example.service.LicenseService;
+import org.example.service.RateLimitService;
+import org.example.service.UsageMeter;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/v1")
+public class UsageController {
+
+    private final LicenseService licenseService;
+    private final RateLimitService rateLimit;
+    private final UsageMeter usageMeter;
+
+    public UsageController(LicenseService licenseService, RateLimitService rateLimit, UsageMeter usageMeter) {
+        this.licenseService = licenseService;
+        this.rateLimit = rateLimit;
+        this.usageMeter = usageMeter;
+    }
+
+    @GetMapping("/usage/today")
+    public UsageTodayResponse today(@RequestHeader("X-License-Key") String licenseKey) {
+        var license = licenseService.requireValid(licenseKey);
+        var t = usageMeter.today(license.key());
+        var l = rateLimit.limits(license.plan());
+
+        var usage = new LinkedHashMap<String, Object>();
+        usage.put("hints", t.hints());
+        usage.put("snapshots", t.snapshots());
+        usage.put("promptTokens", t.promptTokens());
+        usage.put("completionTokens", t.completionTokens());
+        usage.put("cachedTokens", t.cachedTokens());
+        usage.put("llmTokens", t.llmTokens());
+
+        return new UsageTodayResponse(
+                LocalDate.now(ZoneOffset.UTC).toString(),
+                usage,
+                Map.of(
+                        "maxHintsPerDay", l.maxHintsPerDay(),
+                        "maxSnapshotsPerDay", l.maxSnapshotsPerDay(),
+                        "maxAudioSecondsPerHint", l.maxAudioSecondsPerHint()
+                )
+        );
+    }
+
+    @GetMapping("/license/status")
+    public LicenseStatusResponse status(@RequestHeader("X-License-Key") String licenseKey) {
+        var license = licenseService.requireValid(licenseKey);
+        var t = usageMeter.today(license.key());
+        var l = rateLimit.limits(license.plan());
+
+        return new LicenseStatusResponse(
+                "ACTIVE",
+                license.plan(),
+                new LicenseStatusResponse.Limits(l.maxHintsPerDay(), l.maxSnapshotsPerDay(), l.maxAudioSecondsPerHint()),
+                new LicenseStatusResponse.UsageToday((int) t.hints(), (int) t.snapshots(), t.llmTokens())
+        );
+    }
+}
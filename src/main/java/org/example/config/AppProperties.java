@@ -1,19 +1,140 @@
 package org.example.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
 
 import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 
 @ConfigurationProperties(prefix = "app")
-public record AppProperties(OpenAi openai) {
+public record AppProperties(OpenAi openai, Cache cache, Idempotency idempotency, Usage usage, Routing routing,
+                            Sessions sessions, Hints hints, Batch batch,
+                            Jobs jobs, Audit audit, Images images) {
 
     public record OpenAi(
             String apiKey,
             String baseUrl,
             String chatModel,
             String sttModel,
-            int timeoutMs
+            int timeoutMs,
+            double screenshotSimilarity,
+            int maxConcurrentCalls,
+            long bulkheadWaitMs,
+            Transport transport,
+            Timeouts timeouts,
+            Resilience resilience
+    ) {}
+
+    public record Transport(
+            Duration connectTimeout,
+            int warmupConnections,
+            Duration keepWarmInterval
+    ) {}
+
+    public record Resilience(
+            int maxAttempts,
+            Duration backoffBase,
+            Duration backoffMax,
+            boolean hedge,
+            Duration hedgeMinDelay,
+            int hedgeMinSamples,
+            int breakerWindow,
+            double breakerFailureRate,
+            Duration breakerOpen
+    ) {}
+
+    public record Timeouts(
+            OpTimeouts stt,
+            OpTimeouts text,
+            OpTimeouts vision
+    ) {}
+
+    /**
+     * read — до заголовков ответа (для стрима — до первого байта), total — весь вызов целиком.
+     */
+    public record OpTimeouts(
+            Duration read,
+            Duration total
+    ) {}
+
+    public record Cache(
+            long hintMaxSize,
+            Duration hintTtl,
+            long screenshotMaxSize,
+            Duration screenshotTtl
+    ) {}
+
+    public record Idempotency(
+            Duration ttl,
+            Duration purgeInterval,
+            long cacheMaxSize
+    ) {}
+
+    public record Usage(
+            Duration flushInterval
+    ) {}
+
+    public record Routing(
+            String fastModel,
+            int fastMaxQuestionChars,
+            int longInputChars,
+            int fastTokens,
+            int textTokens,
+            int codeTokens,
+            int visionLowDetailTokens,
+            int visionTokens,
+            int maxContinuations
+    ) {}
+
+    public record Sessions(
+            Duration idleTtl,
+            long maxTotalTokens,
+            int historyTokens,
+            int turnAnswerChars
+    ) {}
+
+    /**
+     * Хранилище подсказок для /hint/expand; maxWords из запроса зажимается в [1, maxExpandWords].
+     */
+    public record Hints(
+            Duration ttl,
+            long maxStoredChars,
+            int defaultExpandWords,
+            int maxExpandWords
+    ) {}
+
+    public record Batch(
+            int maxItems
+    ) {}
+
+    /**
+     * Асинхронные hint-задачи: planHeadStart — фора плана в очереди (PRO: 30s значит "как будто пришёл на 30s раньше").
+     */
+    public record Jobs(
+            int maxConcurrent,
+            int maxQueued,
+            Duration resultTtl,
+            Duration maxWait,
+            Map<String, Duration> planHeadStart
+    ) {}
+
+    /**
+     * Аудит-лог подсказок (HintAuditLog): bufferSize — записей в кольце между запросами и писателем.
+     */
+    public record Audit(
+            boolean enabled,
+            String dir,
+            DataSize segmentSize,
+            int maxSegments,
+            int bufferSize,
+            Duration flushInterval
+    ) {}
+
+    /**
+     * Предобработка скриншотов: maxPixels — потолок width*height, проверяется по заголовку до декодирования.
+     */
+    public record Images(
+            long maxPixels
     ) {}
 }
@@ -0,0 +1,52 @@
+package org.example.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class AsyncConfig {
+
+    /**
+     * Пул для SSE-стримов: запрос к OpenAI читается здесь, а не на потоке Tomcat.
+     */
+    @Bean
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public AsyncTaskExecutor hintStreamExecutor() {
+        var ex = new ThreadPoolTaskExecutor();
+        ex.setThreadNamePrefix("hint-stream-");
+        ex.setCorePoolSize(8);
+        ex.setMaxPoolSize(64);
+        ex.setQueueCapacity(256);
+        ex.initialize();
+        return ex;
+    }
+
+    /**
+     * spring.threads.virtual.enabled=true: поток на задачу, без пула —
+     * ожидание upstream не держит платформенные потоки. Ограничение сверху даёт UpstreamBulkhead.
+     */
+    @Bean(name = "hintStreamExecutor")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public AsyncTaskExecutor virtualHintStreamExecutor() {
+        var ex = new SimpleAsyncTaskExecutor("hint-stream-");
+        ex.setVirtualThreads(true);
+        return ex;
+    }
+
+    /**
+     * Вопросы /hints:batch и их диспетчер — всегда на виртуальных потоках, отдельно от hintStreamExecutor:
+     * диспетчер ждёт permit, пока вопросы в том же пуле ждут свободного потока, — на пуле это взаимоблокировка.
+     * Параллелизм ограничивают permit'ы батча (batchParallelism плана) и UpstreamBulkhead.
+     */
+    @Bean
+    public AsyncTaskExecutor hintBatchExecutor() {
+        var ex = new SimpleAsyncTaskExecutor("hint-batch-");
+        ex.setVirtualThreads(true);
+        return ex;
+    }
+}
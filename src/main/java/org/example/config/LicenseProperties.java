@@ -4,9 +4,19 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
 @ConfigurationProperties(prefix = "licenses")
-public record LicenseProperties(List<LicenseEntry> keys) {
+public record LicenseProperties(List<LicenseEntry> keys, Map<String, PlanLimits> plans, String file) {
     public record LicenseEntry(String key, boolean enabled, Instant expiresAt, String plan) {}
+
+    public record PlanLimits(
+            int maxHintsPerDay,
+            int maxSnapshotsPerDay,
+            int maxAudioSecondsPerHint,
+            int burstHintsPerMinute,
+            int burstSnapshotsPerMinute,
+            int batchParallelism
+    ) {}
 }
 
@@ -1,18 +1,14 @@
 package org.example.config;
 
+import org.example.service.OpenAiTransport;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.client.JdkClientHttpRequestFactory;
-import org.springframework.web.client.RestClient;
-
-import java.net.http.HttpClient;
-import java.time.Duration;
 
 @Configuration
 public class OpenAiConfig {
 
-    @Bean
-    public RestClient openAiRestClient(AppProperties props) {
+    @Bean(destroyMethod = "close")
+    public OpenAiTransport openAiTransport(AppProperties props) {
         if (props == null || props.openai() == null) {
             throw new IllegalStateException("Missing config: app.openai.* in application.yml");
         }
@@ -25,9 +21,6 @@ public class OpenAiConfig {
             throw new IllegalStateException("Missing config: app.openai.apiKey");
         }
 
-        return RestClient.builder()
-                .baseUrl(p.baseUrl())
-                .defaultHeader("Authorization", "Bearer " + p.apiKey())
-                .build();
+        return new OpenAiTransport(p);
     }
 }
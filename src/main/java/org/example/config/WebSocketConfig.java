@@ -0,0 +1,38 @@
+package org.example.config;
+
+import org.example.api.LiveHintSocketHandler;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+
+@Configuration
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final LiveHintSocketHandler liveHintSocketHandler;
+
+    public WebSocketConfig(LiveHintSocketHandler liveHintSocketHandler) {
+        this.liveHintSocketHandler = liveHintSocketHandler;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(liveHintSocketHandler, "/api/v1/hint/live")
+                .addInterceptors(liveHintSocketHandler.licenseInterceptor())
+                .setAllowedOriginPatterns("*");
+    }
+
+    /**
+     * Аудио-чанки приходят бинарными сообщениями; дефолтных 8KB Tomcat мало.
+     */
+    @Bean
+    public ServletServerContainerFactoryBean webSocketContainer() {
+        var c = new ServletServerContainerFactoryBean();
+        c.setMaxBinaryMessageBufferSize(512 * 1024);
+        c.setMaxTextMessageBufferSize(64 * 1024);
+        return c;
+    }
+}
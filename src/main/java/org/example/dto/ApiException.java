@@ -42,6 +42,10 @@ public class ApiException extends RuntimeException {
         return new ApiException(HttpStatus.FORBIDDEN, code, message, Map.of());
     }
 
+    public static ApiException tooManyRequests(String code, String message, Map<String, Object> details) {
+        return new ApiException(HttpStatus.TOO_MANY_REQUESTS, code, message, details);
+    }
+
     public static ApiException badGateway(String code, String message, Map<String, Object> details) {
         return new ApiException(HttpStatus.BAD_GATEWAY, code, message, details);
     }
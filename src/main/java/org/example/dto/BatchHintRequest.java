@@ -0,0 +1,13 @@
+package org.example.dto;
+
+import java.util.List;
+
+public record BatchHintRequest(
+        String lang,
+        List<Item> items
+) {
+    /**
+     * image — имя multipart-части с картинкой (одна картинка может быть у нескольких вопросов).
+     */
+    public record Item(String id, String question, String image) {}
+}
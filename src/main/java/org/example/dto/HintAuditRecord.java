@@ -0,0 +1,37 @@
+package org.example.dto;
+
+/**
+ * Запись аудит-лога подсказок: вход, полный ответ модели (content целиком, со всеми продолжениями),
+ * маршрут, время и токены. license в файле — не ключ, а первые 12 hex SHA-256 от него.
+ * <p>
+ * kind: hint | vision | expand; input — транскрипт/вопрос (для expand — сохранённый контекст подсказки);
+ * картинка не хранится, только её размер и detail.
+ */
+public record HintAuditRecord(
+        long ts,
+        String kind,
+        boolean stream,
+        String route,
+        String model,
+        String license,
+        String plan,
+        String lang,
+        String input,
+        int sessionTurns,
+        Integer maxWords,
+        Long imageBytes,
+        String imageDetail,
+        String output,
+        String finishReason,
+        int continuations,
+        long latencyMs,
+        long promptTokens,
+        long completionTokens,
+        long cachedTokens
+) {
+    public HintAuditRecord withLicense(String license, String plan) {
+        return new HintAuditRecord(ts, kind, stream, route, model, license, plan, lang, input, sessionTurns, maxWords,
+                imageBytes, imageDetail, output, finishReason, continuations, latencyMs, promptTokens, completionTokens,
+                cachedTokens);
+    }
+}
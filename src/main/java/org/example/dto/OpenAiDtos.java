@@ -19,7 +19,9 @@ public class OpenAiDtos {
         @JsonIgnoreProperties(ignoreUnknown = true)
         public record Message(String content) {}
         @JsonIgnoreProperties(ignoreUnknown = true)
-        public record Usage(long total_tokens) {}
+        public record Usage(long prompt_tokens, long completion_tokens, long total_tokens, PromptTokensDetails prompt_tokens_details) {}
+        @JsonIgnoreProperties(ignoreUnknown = true)
+        public record PromptTokensDetails(long cached_tokens) {}
     }
 
     // то, что мы просим у модели вернуть (наш JSON)
@@ -27,6 +29,9 @@ public class OpenAiDtos {
             String hint,
             List<String> nextSteps
     ) {}
+    public record ExpandJson(
+            String details
+    ) {}
     public record SnapshotJson(
             String taskType,
             String output,
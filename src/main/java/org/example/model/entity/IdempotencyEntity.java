@@ -5,7 +5,7 @@ import jakarta.persistence.*;
 import java.time.Instant;
 
 @Entity
-@Table(name = "idempotency", indexes = @Index(name = "idx_idem_key", columnList = "idemKey", unique = true))
+@Table(name = "idempotency", indexes = @Index(name = "idx_idem_scope", columnList = "idemKey, endpoint", unique = true))
 public class IdempotencyEntity {
 
     @Id
@@ -15,9 +15,15 @@ public class IdempotencyEntity {
     @Column(nullable = false, length = 120)
     private String idemKey;
 
+    @Column(length = 40)
+    private String endpoint;
+
     @Column(nullable = false)
     private String licenseKey;
 
+    @Column(length = 64)
+    private String requestHash;
+
     @Column(nullable = false)
     private Instant createdAt;
 
@@ -30,16 +36,24 @@ public class IdempotencyEntity {
 
     protected IdempotencyEntity() {}
 
-    public static IdempotencyEntity of(String idemKey, String licenseKey, int status, String responseJson) {
+    public static IdempotencyEntity of(String idemKey, String endpoint, String licenseKey, String requestHash,
+                                       int status, String responseJson) {
         IdempotencyEntity e = new IdempotencyEntity();
         e.idemKey = idemKey;
+        e.endpoint = endpoint;
         e.licenseKey = licenseKey;
+        e.requestHash = requestHash;
         e.status = status;
         e.responseJson = responseJson;
         e.createdAt = Instant.now();
         return e;
     }
 
+    public String getIdemKey() { return idemKey; }
     public String getResponseJson() { return responseJson; }
+    public String getEndpoint() { return endpoint; }
     public String getLicenseKey() { return licenseKey; }
+    public String getRequestHash() { return requestHash; }
+    public Instant getCreatedAt() { return createdAt; }
+    public int getStatus() { return status; }
 }
@@ -0,0 +1,52 @@
+package org.example.model.entity;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDate;
+
+@Entity
+@Table(name = "usage_daily",
+        uniqueConstraints = @UniqueConstraint(name = "uq_usage_license_date", columnNames = {"licenseKey", "usageDate"}))
+public class UsageDailyEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String licenseKey;
+
+    @Column(nullable = false)
+    private LocalDate usageDate;
+
+    private long hints;
+    private long snapshots;
+    private long promptTokens;
+    private long completionTokens;
+    private long cachedTokens;
+
+    protected UsageDailyEntity() {}
+
+    public static UsageDailyEntity of(String licenseKey, LocalDate usageDate) {
+        UsageDailyEntity e = new UsageDailyEntity();
+        e.licenseKey = licenseKey;
+        e.usageDate = usageDate;
+        return e;
+    }
+
+    public void add(long hints, long snapshots, long promptTokens, long completionTokens, long cachedTokens) {
+        this.hints += hints;
+        this.snapshots += snapshots;
+        this.promptTokens += promptTokens;
+        this.completionTokens += completionTokens;
+        this.cachedTokens += cachedTokens;
+    }
+
+    public String getLicenseKey() { return licenseKey; }
+    public LocalDate getUsageDate() { return usageDate; }
+    public long getHints() { return hints; }
+    public long getSnapshots() { return snapshots; }
+    public long getPromptTokens() { return promptTokens; }
+    public long getCompletionTokens() { return completionTokens; }
+    public long getCachedTokens() { return cachedTokens; }
+}
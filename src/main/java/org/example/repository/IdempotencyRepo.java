@@ -2,9 +2,19 @@ package org.example.repository;
 
 import org.example.model.entity.IdempotencyEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.util.Optional;
 
 public interface IdempotencyRepo extends JpaRepository<IdempotencyEntity, Long> {
-    Optional<IdempotencyEntity> findByIdemKey(String idemKey);
+    Optional<IdempotencyEntity> findByIdemKeyAndEndpoint(String idemKey, String endpoint);
+
+    @Transactional
+    @Modifying
+    @Query("delete from IdempotencyEntity e where e.createdAt < :cutoff")
+    int deleteOlderThan(@Param("cutoff") Instant cutoff);
 }
@@ -0,0 +1,11 @@
+package org.example.repository;
+
+import org.example.model.entity.UsageDailyEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.time.LocalDate;
+import java.util.Optional;
+
+public interface UsageDailyRepo extends JpaRepository<UsageDailyEntity, Long> {
+    Optional<UsageDailyEntity> findByLicenseKeyAndUsageDate(String licenseKey, LocalDate usageDate);
+}
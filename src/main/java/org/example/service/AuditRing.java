@@ -0,0 +1,56 @@
+package org.example.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ограниченная lock-free очередь много писателей → один читатель (кольцо на массиве).
+ * <p>
+ * Писатель занимает номер CAS'ом по tail и публикует элемент в слот; читатель идёт по head и
+ * освобождает слот. Переполнение — offer возвращает false: поток запроса никогда не ждёт.
+ * Занятый, но ещё не опубликованный слот читатель видит как пустой и просто приходит позже.
+ */
+final class AuditRing<T> {
+
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    AuditRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    boolean offer(T item) {
+        long t;
+        do {
+            t = tail.get();
+            if (t - head.get() >= slots.length()) return false;
+        } while (!tail.compareAndSet(t, t + 1));
+        slots.lazySet((int) t & mask, item);
+        return true;
+    }
+
+    /**
+     * Только из одного потока-читателя; null — пусто.
+     */
+    T poll() {
+        long h = head.get();
+        int i = (int) h & mask;
+        T item = slots.get(i);
+        if (item == null) return null;
+        slots.lazySet(i, null);
+        head.lazySet(h + 1);
+        return item;
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+}
@@ -0,0 +1,141 @@
+package org.example.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.dto.OpenAiDtos;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Потоковый разбор ответов Chat Completions на JsonParser — без String всего тела и без JsonNode-дерева.
+ * <p>
+ * Из chat.completion берём только choices[0].message.content, finish_reason и usage; остальное пропускается
+ * skipChildren() прямо в потоке. Для SSE-чанков — то же по delta.content.
+ */
+final class ChatResponseParser {
+
+    /**
+     * content: строка; массив частей склеивается по "text"; "" при refusal; null, если текста нет вовсе.
+     */
+    record Reply(String content, String finishReason, OpenAiDtos.ChatCompletionResponse.Usage usage) {}
+
+    private final ObjectMapper om;
+
+    ChatResponseParser(ObjectMapper om) {
+        this.om = om;
+    }
+
+    Reply completion(InputStream in) throws IOException {
+        try (JsonParser p = om.createParser(in)) {
+            return read(p, "message");
+        }
+    }
+
+    Reply completion(byte[] body) throws IOException {
+        try (JsonParser p = om.createParser(body)) {
+            return read(p, "message");
+        }
+    }
+
+    /**
+     * Один chat.completion.chunk из SSE (строка после "data:").
+     */
+    Reply chunk(String data) throws IOException {
+        try (JsonParser p = om.createParser(data)) {
+            return read(p, "delta");
+        }
+    }
+
+    private Reply read(JsonParser p, String messageField) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected JSON object, got " + p.currentToken());
+        }
+        var r = new Choice();
+        OpenAiDtos.ChatCompletionResponse.Usage usage = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken t = p.nextToken();
+            if ("choices".equals(name) && t == JsonToken.START_ARRAY) {
+                readChoices(p, messageField, r);
+            } else if ("usage".equals(name) && t == JsonToken.START_OBJECT) {
+                usage = p.readValueAs(OpenAiDtos.ChatCompletionResponse.Usage.class);
+            } else {
+                p.skipChildren();
+            }
+        }
+        return new Reply(r.content(), r.finishReason, usage);
+    }
+
+    private static void readChoices(JsonParser p, String messageField, Choice r) throws IOException {
+        boolean first = true;
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            if (!first || p.currentToken() != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                continue;
+            }
+            first = false;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.currentName();
+                JsonToken t = p.nextToken();
+                if (messageField.equals(name) && t == JsonToken.START_OBJECT) {
+                    readMessage(p, r);
+                } else if ("finish_reason".equals(name) && t == JsonToken.VALUE_STRING) {
+                    r.finishReason = p.getText();
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+    }
+
+    private static void readMessage(JsonParser p, Choice r) throws IOException {
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken t = p.nextToken();
+            if ("content".equals(name) && t == JsonToken.VALUE_STRING) {
+                r.text = p.getText();
+            } else if ("content".equals(name) && t == JsonToken.START_ARRAY) {
+                r.parts = readParts(p);
+            } else if ("refusal".equals(name) && t == JsonToken.VALUE_STRING) {
+                r.refusal = true;
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    private static String readParts(JsonParser p) throws IOException {
+        var sb = new StringBuilder();
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            if (p.currentToken() != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                continue;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.currentName();
+                JsonToken t = p.nextToken();
+                if ("text".equals(name) && t == JsonToken.VALUE_STRING) {
+                    sb.append(p.getText());
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    private static final class Choice {
+        String text;
+        String parts;
+        boolean refusal;
+        String finishReason;
+
+        String content() {
+            if (text != null) return text;
+            if (parts != null && !parts.isBlank()) return parts;
+            return refusal ? "" : null;
+        }
+    }
+}
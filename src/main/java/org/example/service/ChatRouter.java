@@ -0,0 +1,177 @@
+package org.example.service;
+
+import org.example.config.AppProperties;
+import org.example.dto.OpenAiDtos;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Выбор модели и бюджета max_completion_tokens для chat-запроса.
+ * <p>
+ * Тип задачи определяется локально по тексту вопроса (те же taskType, что в схеме snapshot-ответа),
+ * размер входа — по длине текста и detail картинки. Короткая теория уходит на быструю дешёвую модель
+ * с маленьким бюджетом, код/отладка получают бюджет побольше. Если бюджета всё же не хватило —
+ * OpenAiClient продолжает ответ, а не падает (см. app.routing.maxContinuations).
+ * <p>
+ * Латентность пишется по маршрутам (/stats/routes), чтобы пороги подбирать по данным.
+ */
+@Component
+public class ChatRouter {
+
+    public record Route(String name, String taskType, String model, int maxTokens) {}
+
+    private static final Pattern CODE = Pattern.compile(
+            "```|;\\s*\\n|\\{\\s*\\n|=>|\\bdef\\s+\\w+\\(|\\bclass\\s+\\w+|\\bpublic\\s+\\w+|\\bfunction\\b|\\bselect\\b.+\\bfrom\\b",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern DEBUG = Pattern.compile(
+            "exception|stack ?trace|traceback|error|bug|crash|ошибк|исключени|пада[её]т|пада[юе]т|не работает|баг",
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    private static final Pattern REVIEW = Pattern.compile(
+            "review|ревью|что не так (с|в) код|улучши(ть)? код|refactor|рефактор",
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    private static final Pattern ARCHITECTURE = Pattern.compile(
+            "architect|system design|design a|scal(e|ing|ability)|microservice|архитектур|спроектир|масштаб|микросервис|высоконагруж",
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    private static final Pattern CODING = Pattern.compile(
+            "write a (function|program|method|class)|implement|leetcode|algorithm|напиши|реализуй|алгоритм|решите? задач",
+            Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+
+    private static final int TOKENS_PER_WORD = 2;
+
+    private final String chatModel;
+    private final String fastModel;
+    private final int fastMaxQuestionChars;
+    private final int longInputChars;
+    private final int fastTokens;
+    private final int textTokens;
+    private final int codeTokens;
+    private final int visionLowDetailTokens;
+    private final int visionTokens;
+    private final int maxContinuations;
+
+    private final Map<String, RouteStats> stats = new ConcurrentHashMap<>();
+
+    public ChatRouter(AppProperties props) {
+        var r = props.routing() != null ? props.routing()
+                : new AppProperties.Routing(null, 0, 0, 0, 0, 0, 0, 0, 0);
+        this.chatModel = props.openai().chatModel();
+        this.fastModel = r.fastModel() == null || r.fastModel().isBlank() ? chatModel : r.fastModel();
+        this.fastMaxQuestionChars = r.fastMaxQuestionChars() > 0 ? r.fastMaxQuestionChars() : 300;
+        this.longInputChars = r.longInputChars() > 0 ? r.longInputChars() : 2_000;
+        this.fastTokens = r.fastTokens() > 0 ? r.fastTokens() : 500;
+        this.textTokens = r.textTokens() > 0 ? r.textTokens() : 900;
+        this.codeTokens = r.codeTokens() > 0 ? r.codeTokens() : 1_400;
+        this.visionLowDetailTokens = r.visionLowDetailTokens() > 0 ? r.visionLowDetailTokens() : 1_200;
+        this.visionTokens = r.visionTokens() > 0 ? r.visionTokens() : 1_800;
+        this.maxContinuations = Math.max(0, r.maxContinuations());
+    }
+
+    public Route text(String transcript) {
+        String type = classify(transcript);
+        int chars = transcript == null ? 0 : transcript.length();
+        if ("THEORY".equals(type) && chars <= fastMaxQuestionChars) {
+            return new Route("text-fast", type, fastModel, fastTokens);
+        }
+        boolean code = isCode(type);
+        int budget = code ? codeTokens : textTokens;
+        // длинный транскрипт — обычно несколько вопросов подряд, ответ тоже длиннее
+        if (chars > longInputChars) budget += budget / 2;
+        return new Route(code ? "text-code" : "text", type, chatModel, budget);
+    }
+
+    public Route vision(String question, String detail) {
+        String type = classify(question);
+        if ("low".equals(detail) && !isCode(type)) {
+            return new Route("vision-low", type, chatModel, visionLowDetailTokens);
+        }
+        return new Route(isCode(type) ? "vision-code" : "vision", type, chatModel, visionTokens);
+    }
+
+    /**
+     * Расширение подсказки: бюджет считается от maxWords (~2 токена на слово для кириллицы + обёртка JSON),
+     * лишнее добирается продолжениями.
+     */
+    public Route expand(String taskType, int maxWords) {
+        String type = taskType == null ? "UNKNOWN" : taskType;
+        return new Route(isCode(type) ? "expand-code" : "expand", type, chatModel, maxWords * TOKENS_PER_WORD + 64);
+    }
+
+    public int maxContinuations() {
+        return maxContinuations;
+    }
+
+    /**
+     * Модели, которые могут выпасть маршрутам (для предсборки шаблонов запросов).
+     */
+    public List<String> models() {
+        return chatModel.equals(fastModel) ? List.of(chatModel) : List.of(chatModel, fastModel);
+    }
+
+    public void recordUsage(Route route, OpenAiDtos.ChatCompletionResponse.Usage usage) {
+        if (usage == null) return;
+        var s = stats.computeIfAbsent(route.name(), k -> new RouteStats());
+        s.promptTokens.add(usage.prompt_tokens());
+        s.completionTokens.add(usage.completion_tokens());
+        if (usage.prompt_tokens_details() != null) s.cachedTokens.add(usage.prompt_tokens_details().cached_tokens());
+    }
+
+    public void record(Route route, long ms, int continuations) {
+        var s = stats.computeIfAbsent(route.name(), k -> new RouteStats());
+        s.calls.increment();
+        s.continuations.add(continuations);
+        s.latency.add(ms);
+    }
+
+    public Map<String, Object> stats() {
+        var m = new LinkedHashMap<String, Object>();
+        stats.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(e -> {
+            var s = e.getValue();
+            var r = new LinkedHashMap<String, Object>();
+            r.put("calls", s.calls.sum());
+            r.put("continuations", s.continuations.sum());
+            r.put("p50Ms", s.latency.percentile(0.50, 1));
+            r.put("p95Ms", s.latency.percentile(0.95, 1));
+            long prompt = s.promptTokens.sum();
+            r.put("promptTokens", prompt);
+            r.put("completionTokens", s.completionTokens.sum());
+            r.put("cachedTokens", s.cachedTokens.sum());
+            r.put("cachedShare", prompt == 0 ? 0.0 : Math.round(1000.0 * s.cachedTokens.sum() / prompt) / 1000.0);
+            m.put(e.getKey(), r);
+        });
+        return m;
+    }
+
+    /**
+     * Грубая эвристика по ключевым словам и признакам кода; ошибка здесь стоит только бюджета/модели.
+     */
+    static String classify(String text) {
+        if (text == null || text.isBlank()) return "UNKNOWN";
+        String t = text.toLowerCase(Locale.ROOT);
+        boolean hasCode = CODE.matcher(text).find();
+        if (DEBUG.matcher(t).find()) return "DEBUG";
+        if (REVIEW.matcher(t).find()) return "CODE_REVIEW";
+        if (CODING.matcher(t).find() || hasCode) return "LIVE_CODING";
+        if (ARCHITECTURE.matcher(t).find()) return "ARCHITECTURE";
+        return "THEORY";
+    }
+
+    private static boolean isCode(String type) {
+        return "LIVE_CODING".equals(type) || "DEBUG".equals(type) || "CODE_REVIEW".equals(type);
+    }
+
+    private static final class RouteStats {
+        final LongAdder calls = new LongAdder();
+        final LongAdder continuations = new LongAdder();
+        final LatencyWindow latency = new LatencyWindow(512);
+        final LongAdder promptTokens = new LongAdder();
+        final LongAdder completionTokens = new LongAdder();
+        final LongAdder cachedTokens = new LongAdder();
+    }
+}
@@ -0,0 +1,256 @@
+package org.example.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Предсобранные тела запросов /chat/completions.
+ * <p>
+ * Статическая часть (model, response_format со схемой, system prompt) сериализуется один раз на модель
+ * и дальше копируется как есть; на каждый вызов кодируется только пользовательский текст, хвост продолжения
+ * и параметры в конце (max_completion_tokens, stream). Порядок полей выбран так, чтобы всё изменчивое шло
+ * после messages: префикс запроса байт-в-байт одинаковый, и prompt caching у OpenAI попадает
+ * (проверяется по usage.prompt_tokens_details.cached_tokens, см. /stats/routes).
+ */
+final class ChatTemplates {
+
+    static final String HINT_SYSTEM = """
+            Ты ассистент на собеседовании.
+            Дай максимально конкретный ответ по тексту вопроса.
+            
+            Верни строго JSON:
+            {"hint":"...","nextSteps":["...","..."]}
+            
+            Без markdown. Без лишних полей.
+            """;
+
+    static final String SNAPSHOT_SYSTEM = """
+            Ты ассистент на собеседовании. На входе: вопрос пользователя + один скриншот.
+            
+                                       Сначала определи taskType:
+                                       LIVE_CODING | CODE_REVIEW | ARCHITECTURE | DEBUG | THEORY | UNKNOWN.
+            
+                                       Правила:
+                                       - Если по скриншоту и вопросу НЕТ явной задачи (нет формулировки, нет кода/логов/диаграммы, или контекст обрывочный) — ставь UNKNOWN.
+                                       - Для НЕ-UNKNOWN: отвечай уверенно и конкретно, без "кажется/возможно", без вопросов к пользователю.
+                                       - Для UNKNOWN: НЕ придумывай детали. Дай:
+                                         1) кратко: что видно и чего не хватает,
+                                         2) 1–3 уточняющих вопроса (самые важные),
+                                         3) что можно сделать прямо сейчас (общий лучший совет по теме).
+            
+                                       Формат ответа: строго JSON по схеме.
+            """;
+
+    static final String EXPAND_SYSTEM = """
+            Ты ассистент на собеседовании. Кандидат уже видел краткий ответ и просит подробнее.
+            Раскрой тот же ответ глубже: почему так, детали, пограничные случаи, пример, если уместен.
+            Не повторяй краткий ответ дословно и не меняй его суть.
+            
+            Верни строго JSON:
+            {"details":"..."}
+            
+            Без markdown. Без лишних полей.
+            """;
+
+    /**
+     * Только упорядоченные карты: Map.of перемешивает ключи по-разному в каждой JVM, и байты префикса
+     * (а с ними prompt caching) менялись бы после рестарта. taskType и output — первыми, как в ответе.
+     */
+    private static final Map<String, Object> SNAPSHOT_RESPONSE_FORMAT = ordered(
+            "type", "json_schema",
+            "json_schema", ordered(
+                    "name", "universal_snapshot_response",
+                    "schema", ordered(
+                            "type", "object",
+                            "additionalProperties", false,
+                            "properties", ordered(
+                                    "taskType", ordered(
+                                            "type", "string",
+                                            "enum", List.of("LIVE_CODING", "CODE_REVIEW", "ARCHITECTURE", "DEBUG", "THEORY", "UNKNOWN")
+                                    ),
+                                    "output", ordered("type", "string"),
+                                    "code", ordered("type", "string"),
+                                    "checklist", ordered("type", "array", "items", ordered("type", "string")),
+                                    "questions", ordered("type", "array", "items", ordered("type", "string")),
+                                    "nextSteps", ordered("type", "array", "items", ordered("type", "string"))
+                            ),
+                            "required", List.of("taskType", "output", "code", "checklist", "questions", "nextSteps")
+                    )
+            )
+    );
+
+    private static final byte[] SYSTEM_MESSAGE = ascii("{\"role\":\"system\",\"content\":");
+    private static final byte[] USER_MESSAGE = ascii(",{\"role\":\"user\",\"content\":");
+    private static final byte[] USER_VISION_MESSAGE = ascii(",{\"role\":\"user\",\"content\":[{\"type\":\"text\",\"text\":");
+    private static final byte[] USER_TEXT_TO_IMAGE = ascii("},{\"type\":\"image_url\",\"image_url\":{\"url\":\"data:");
+    private static final byte[] BASE64_MARK = ascii(";base64,");
+    private static final byte[] IMAGE_TO_DETAIL = ascii("\",\"detail\":");
+    private static final byte[] END_USER_CONTENT = ascii("}}]}");
+    private static final byte[] END_MESSAGE = ascii("}");
+    private static final byte[] SUFFIX_HEAD = ascii("],\"reasoning_effort\":\"minimal\",\"max_completion_tokens\":");
+    private static final byte[] SUFFIX_STREAM = ascii(",\"stream\":true,\"stream_options\":{\"include_usage\":true}");
+    private static final byte[] END = ascii("}");
+
+    /**
+     * Тело vision-запроса, разрезанное в месте base64 картинки.
+     */
+    record VisionParts(byte[] head, byte[] tail) {}
+
+    private final ObjectMapper om;
+    private final Map<String, byte[]> prefixes = new ConcurrentHashMap<>();
+
+    ChatTemplates(ObjectMapper om, List<String> models) {
+        this.om = om;
+        // собрать заранее — первый запрос не платит за сериализацию схемы
+        for (String model : models) {
+            hintPrefix(model);
+            expandPrefix(model);
+            visionPrefix(model, true);
+        }
+    }
+
+    byte[] hint(String model, SessionService.Context session, String transcript, int maxTokens,
+                List<Map<String, Object>> continuation, boolean stream) {
+        var out = new ByteArrayOutputStream(4096);
+        if (session.isEmpty()) {
+            out.writeBytes(hintPrefix(model));
+        } else {
+            out.writeBytes(head(model, null));
+            writeSession(out, HINT_SYSTEM, session);
+            out.writeBytes(USER_MESSAGE);
+        }
+        out.writeBytes(json("Текст вопроса/контекст:\n" + transcript));
+        out.writeBytes(END_MESSAGE);
+        writeContinuation(out, continuation);
+        writeSuffix(out, maxTokens, stream);
+        return out.toByteArray();
+    }
+
+    /**
+     * Расширение сохранённой подсказки (см. {@link HintStore}): system prompt общий для всех, в user — контекст и лимит слов.
+     */
+    byte[] expand(String model, String context, String lang, int maxWords, int maxTokens,
+                  List<Map<String, Object>> continuation, boolean stream) {
+        var out = new ByteArrayOutputStream(2048);
+        out.writeBytes(expandPrefix(model));
+        out.writeBytes(json(context + "\n\nРаскрой подробнее, не больше " + maxWords + " слов. Язык ответа: " + lang + "."));
+        out.writeBytes(END_MESSAGE);
+        writeContinuation(out, continuation);
+        writeSuffix(out, maxTokens, stream);
+        return out.toByteArray();
+    }
+
+    /**
+     * Продолжение обрезанного ответа идёт без json_schema: это хвост уже начатого JSON,
+     * схема заставила бы модель начать объект заново.
+     */
+    VisionParts vision(String model, SessionService.Context session, String question, String mime, String detail,
+                       int maxTokens, List<Map<String, Object>> continuation, boolean stream) {
+        var head = new ByteArrayOutputStream(8192);
+        if (session.isEmpty()) {
+            head.writeBytes(visionPrefix(model, continuation.isEmpty()));
+        } else {
+            head.writeBytes(head(model, continuation.isEmpty() ? SNAPSHOT_RESPONSE_FORMAT : null));
+            writeSession(head, SNAPSHOT_SYSTEM, session);
+            head.writeBytes(USER_VISION_MESSAGE);
+        }
+        head.writeBytes(json("Вопрос:\n" + question + "\n\nДай ответ, используя скриншот как контекст."));
+        head.writeBytes(USER_TEXT_TO_IMAGE);
+        head.writeBytes(JsonStringEncoder.getInstance().quoteAsUTF8(mime));
+        head.writeBytes(BASE64_MARK);
+
+        var tail = new ByteArrayOutputStream(1024);
+        tail.writeBytes(IMAGE_TO_DETAIL);
+        tail.writeBytes(json(detail));
+        tail.writeBytes(END_USER_CONTENT);
+        writeContinuation(tail, continuation);
+        writeSuffix(tail, maxTokens, stream);
+        return new VisionParts(head.toByteArray(), tail.toByteArray());
+    }
+
+    private byte[] hintPrefix(String model) {
+        return prefixes.computeIfAbsent("hint:" + model, k -> concat(
+                head(model, null), SYSTEM_MESSAGE, json(HINT_SYSTEM), END_MESSAGE, USER_MESSAGE));
+    }
+
+    private byte[] expandPrefix(String model) {
+        return prefixes.computeIfAbsent("expand:" + model, k -> concat(
+                head(model, null), SYSTEM_MESSAGE, json(EXPAND_SYSTEM), END_MESSAGE, USER_MESSAGE));
+    }
+
+    private byte[] visionPrefix(String model, boolean schema) {
+        return prefixes.computeIfAbsent("vision:" + model + ":" + schema, k -> concat(
+                head(model, schema ? SNAPSHOT_RESPONSE_FORMAT : null), SYSTEM_MESSAGE, json(SNAPSHOT_SYSTEM), END_MESSAGE,
+                USER_VISION_MESSAGE));
+    }
+
+    /**
+     * {"model":...[,"response_format":...],"messages":[ — до первого сообщения.
+     */
+    private byte[] head(String model, Map<String, Object> responseFormat) {
+        return prefixes.computeIfAbsent("head:" + model + ":" + (responseFormat != null), k -> concat(
+                ascii("{\"model\":"), json(model),
+                responseFormat != null ? concat(ascii(",\"response_format\":"), json(responseFormat)) : new byte[0],
+                ascii(",\"messages\":[")));
+    }
+
+    /**
+     * System prompt + профиль сессии одним system-сообщением (стабильно на всю сессию), затем история.
+     */
+    private void writeSession(ByteArrayOutputStream out, String system, SessionService.Context session) {
+        out.writeBytes(SYSTEM_MESSAGE);
+        out.writeBytes(json(session.profile() == null ? system : system + "\n" + session.profile()));
+        out.writeBytes(END_MESSAGE);
+        for (byte[] message : session.history()) {
+            out.write(',');
+            out.writeBytes(message);
+        }
+    }
+
+    private void writeContinuation(ByteArrayOutputStream out, List<Map<String, Object>> continuation) {
+        for (var message : continuation) {
+            out.write(',');
+            out.writeBytes(json(message));
+        }
+    }
+
+    private static void writeSuffix(ByteArrayOutputStream out, int maxTokens, boolean stream) {
+        out.writeBytes(SUFFIX_HEAD);
+        out.writeBytes(ascii(Integer.toString(maxTokens)));
+        if (stream) out.writeBytes(SUFFIX_STREAM);
+        out.writeBytes(END);
+    }
+
+    private byte[] json(Object value) {
+        try {
+            return om.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize chat request part", e);
+        }
+    }
+
+    private static Map<String, Object> ordered(Object... keyValues) {
+        var m = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < keyValues.length; i += 2) m.put((String) keyValues[i], keyValues[i + 1]);
+        return Collections.unmodifiableMap(m);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        var out = new ByteArrayOutputStream();
+        for (byte[] p : parts) out.writeBytes(p);
+        return out.toByteArray();
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,254 @@
+package org.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.example.config.AppProperties;
+import org.example.dto.HintAuditRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Аудит-лог подсказок: полный вход и выход модели для офлайн-анализа и прогона новых промптов
+ * на реальном трафике (см. {@link HintAuditReader}).
+ * <p>
+ * Поток запроса только кладёт запись в {@link AuditRing} — без I/O, сериализации и блокировок; при переполнении
+ * запись теряется (счётчик dropped), запрос не ждёт. Единственный поток hint-audit-writer сериализует в JSON,
+ * сжимает Deflate и дописывает в memory-mapped сегмент app.audit.dir/hints-*.audit фиксированного размера;
+ * заполненный сегмент сменяется новым, старше app.audit.maxSegments — удаляются. force() — раз в flushInterval.
+ * <p>
+ * Формат сегмента: заголовок MAGIC, VERSION, createdAt (ms); затем записи
+ * [int длина сжатого][int длина JSON][int CRC32 сжатого][байты]. Длина пишется последней, поэтому
+ * недописанная при падении запись читается как 0 — конец сегмента.
+ */
+@Service
+public class HintAuditLog {
+
+    private static final Logger log = LoggerFactory.getLogger(HintAuditLog.class);
+
+    static final int MAGIC = 0x48415544; // "HAUD"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_HEADER_BYTES = 12;
+    static final String PREFIX = "hints-";
+    static final String SUFFIX = ".audit";
+
+    private static final DateTimeFormatter NAME_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private final ObjectMapper om;
+    private final LicenseRegistry licenses;
+    private final boolean enabled;
+    private final Path dir;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final long flushNanos;
+    private final AuditRing<HintAuditRecord> ring;
+
+    private final LongAdder offered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+
+    // дальше — только поток писателя
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final CRC32 crc = new CRC32();
+    private byte[] buf = new byte[16 * 1024];
+    private MappedByteBuffer segment;
+    private Path segmentPath;
+    private LocalDateTime lastSegmentTime = LocalDateTime.MIN;
+    private boolean dirty;
+    private long lastForce;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    public HintAuditLog(ObjectMapper om, LicenseRegistry licenses, AppProperties props) {
+        this.om = om;
+        this.licenses = licenses;
+        var a = props.audit();
+        this.enabled = a == null || a.enabled();
+        this.dir = Path.of(a != null && a.dir() != null ? a.dir() : "./data/audit").toAbsolutePath().normalize();
+        long size = a != null && a.segmentSize() != null ? a.segmentSize().toBytes() : 64L << 20;
+        this.segmentBytes = (int) Math.min(Math.max(size, 64L << 10), Integer.MAX_VALUE - 8);
+        this.maxSegments = a != null && a.maxSegments() > 0 ? a.maxSegments() : 32;
+        Duration flush = a != null && a.flushInterval() != null ? a.flushInterval() : Duration.ofSeconds(1);
+        this.flushNanos = flush.toNanos();
+        this.ring = new AuditRing<>(a != null && a.bufferSize() > 0 ? a.bufferSize() : 8192);
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        if (!enabled) return;
+        Files.createDirectories(dir);
+        running = true;
+        writer = new Thread(this::drainLoop, "hint-audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * С потока запроса: license — сам ключ, в файл он попадёт хэшем (считается в писателе).
+     */
+    public void append(HintAuditRecord record) {
+        if (!enabled) return;
+        offered.increment();
+        if (!ring.offer(record)) dropped.increment();
+    }
+
+    public Map<String, Object> stats() {
+        var m = new LinkedHashMap<String, Object>();
+        m.put("enabled", enabled);
+        m.put("dir", dir.toString());
+        m.put("offered", offered.sum());
+        m.put("written", written.sum());
+        m.put("dropped", dropped.sum());
+        m.put("failed", failed.sum());
+        m.put("queued", ring.size());
+        m.put("bufferSize", ring.capacity());
+        m.put("jsonBytes", rawBytes.sum());
+        m.put("storedBytes", storedBytes.sum());
+        m.put("segment", segmentPath == null ? null : segmentPath.getFileName().toString());
+        return m;
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (writer == null) return;
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(5_000);
+    }
+
+    private void drainLoop() {
+        lastForce = System.nanoTime();
+        while (running || ring.size() > 0) {
+            HintAuditRecord r = ring.poll();
+            if (r == null) {
+                if (dirty && System.nanoTime() - lastForce >= flushNanos) force();
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            try {
+                write(r);
+            } catch (Exception e) {
+                failed.increment();
+                log.warn("Audit record dropped: {}", e.toString());
+            }
+        }
+        if (dirty) force();
+    }
+
+    private void write(HintAuditRecord r) throws IOException {
+        var resolved = r.license() == null ? null : licenses.lookup(r.license());
+        byte[] json = om.writeValueAsBytes(r.withLicense(fingerprint(r.license()),
+                resolved == null ? null : resolved.entry().plan()));
+
+        deflater.reset();
+        deflater.setInput(json);
+        deflater.finish();
+        int len = 0;
+        while (!deflater.finished()) {
+            if (len == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            len += deflater.deflate(buf, len, buf.length - len);
+        }
+        crc.reset();
+        crc.update(buf, 0, len);
+
+        int need = RECORD_HEADER_BYTES + len;
+        if (need > segmentBytes - HEADER_BYTES) {
+            throw new IOException("record of " + need + " bytes exceeds segment size " + segmentBytes);
+        }
+        if (segment == null || segment.remaining() < need) roll();
+
+        int at = segment.position();
+        segment.position(at + 4);
+        segment.putInt(json.length);
+        segment.putInt((int) crc.getValue());
+        segment.put(buf, 0, len);
+        // длина — последней: до этого момента читатель видит здесь 0, то есть конец сегмента
+        segment.putInt(at, len);
+
+        dirty = true;
+        written.increment();
+        rawBytes.add(json.length);
+        storedBytes.add(need);
+        if (System.nanoTime() - lastForce >= flushNanos) force();
+    }
+
+    private void roll() throws IOException {
+        if (segment != null && dirty) force();
+        // имена сортируются по времени создания (на этом держатся retain и порядок чтения):
+        // при совпадении миллисекунды берём следующую, а не суффикс, который сортировался бы раньше
+        LocalDateTime created = LocalDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.MILLIS);
+        if (!created.isAfter(lastSegmentTime)) created = lastSegmentTime.plus(1, ChronoUnit.MILLIS);
+        Path path;
+        while (Files.exists(path = dir.resolve(PREFIX + created.format(NAME_TIME) + SUFFIX))) {
+            created = created.plus(1, ChronoUnit.MILLIS);
+        }
+        lastSegmentTime = created;
+        try (var ch = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // map расширяет файл до segmentBytes; незаписанный хвост — дырка в sparse-файле и читается нулями
+            segment = ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        segment.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+        segmentPath = path;
+        dirty = true;
+        retain();
+    }
+
+    private void force() {
+        segment.force();
+        dirty = false;
+        lastForce = System.nanoTime();
+    }
+
+    private void retain() {
+        List<Path> segments = HintAuditReader.segments(dir);
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            try {
+                Files.deleteIfExists(segments.get(i));
+            } catch (IOException e) {
+                log.warn("Cannot delete old audit segment {}: {}", segments.get(i), e.getMessage());
+            }
+        }
+    }
+
+    private static String fingerprint(String licenseKey) {
+        if (licenseKey == null) return null;
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-256").digest(licenseKey.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(h, 0, 6);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
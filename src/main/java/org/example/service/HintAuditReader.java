@@ -0,0 +1,109 @@
+package org.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.dto.HintAuditRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Чтение сегментов {@link HintAuditLog} — для офлайн-инструментов (dump, статистика, replay).
+ * Можно читать и активный сегмент: запись видна, как только писатель проставил её длину.
+ */
+public final class HintAuditReader {
+
+    /**
+     * records — прочитано; corrupt — сегментов, оборванных битой записью (CRC/заголовок).
+     */
+    public record Result(long records, int segments, int corrupt) {}
+
+    private HintAuditReader() {
+    }
+
+    /**
+     * Сегменты каталога по порядку записи (имя начинается с UTC-времени создания).
+     */
+    public static List<Path> segments(Path dir) {
+        if (!Files.isDirectory(dir)) return List.of();
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> {
+                        String n = p.getFileName().toString();
+                        return n.startsWith(HintAuditLog.PREFIX) && n.endsWith(HintAuditLog.SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot list audit dir " + dir, e);
+        }
+    }
+
+    public static Result read(Path dir, ObjectMapper om, Consumer<HintAuditRecord> sink) throws IOException {
+        long records = 0;
+        int corrupt = 0;
+        List<Path> segments = segments(dir);
+        for (Path p : segments) {
+            long n = readSegment(p, om, sink);
+            if (n < 0) {
+                corrupt++;
+                records += -n - 1;
+            } else {
+                records += n;
+            }
+        }
+        return new Result(records, segments.size(), corrupt);
+    }
+
+    /**
+     * Число записей; отрицательное (-(n+1)) — сегмент оборван битой записью после n целых.
+     */
+    private static long readSegment(Path path, ObjectMapper om, Consumer<HintAuditRecord> sink) throws IOException {
+        ByteBuffer b;
+        try (var ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (b.remaining() < HintAuditLog.HEADER_BYTES || b.getInt() != HintAuditLog.MAGIC) return -1;
+        if (b.getInt() != HintAuditLog.VERSION) return -1;
+        b.getLong();
+
+        var inflater = new Inflater(true);
+        var crc = new CRC32();
+        byte[] packed = new byte[0];
+        long n = 0;
+        try {
+            while (b.remaining() >= HintAuditLog.RECORD_HEADER_BYTES) {
+                int len = b.getInt();
+                if (len == 0) return n;
+                int jsonLen = b.getInt();
+                int sum = b.getInt();
+                if (len < 0 || len > b.remaining() || jsonLen < 0) return -(n + 1);
+                if (packed.length < len) packed = new byte[len];
+                b.get(packed, 0, len);
+                crc.reset();
+                crc.update(packed, 0, len);
+                if ((int) crc.getValue() != sum) return -(n + 1);
+
+                byte[] json = new byte[jsonLen];
+                inflater.reset();
+                inflater.setInput(packed, 0, len);
+                if (inflater.inflate(json) != jsonLen) return -(n + 1);
+                sink.accept(om.readValue(json, HintAuditRecord.class));
+                n++;
+            }
+            return n;
+        } catch (DataFormatException e) {
+            return -(n + 1);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.example.service;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.example.config.AppProperties;
+import org.example.dto.OpenAiDtos;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Кэш текстовых подсказок перед {@link OpenAiClient#hintFromTranscript}.
+ * <p>
+ * Ключ: нормализованный вопрос + lang + chatModel. Одинаковые запросы, пришедшие одновременно,
+ * схлопываются: в upstream идёт только первый, остальные ждут его future.
+ * Ошибки не кэшируются (AsyncCache сам выкидывает future, завершившийся исключением).
+ */
+@Service
+public class HintCache {
+
+    record Key(String question, String lang, String model) {}
+
+    private final OpenAiClient openAi;
+    private final AppProperties props;
+    private final AsyncCache<Key, OpenAiDtos.HintJson> cache;
+
+    public HintCache(OpenAiClient openAi, AppProperties props) {
+        this.openAi = openAi;
+        this.props = props;
+
+        var c = props.cache();
+        long maxSize = (c == null || c.hintMaxSize() <= 0) ? 10_000 : c.hintMaxSize();
+        Duration ttl = (c == null || c.hintTtl() == null) ? Duration.ofHours(1) : c.hintTtl();
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+    }
+
+    public OpenAiDtos.HintJson hint(String question, String lang) {
+        return hint(question, lang, () -> openAi.hintFromTranscript(question, lang), null);
+    }
+
+    /**
+     * Стриминговый вариант с тем же схлопыванием: первый запрос стримит из upstream и завершает общий future,
+     * остальные (и SSE, и обычные) ждут его и получают готовую подсказку одним куском в onDelta.
+     */
+    public OpenAiDtos.HintJson streamHint(String question, String lang, Consumer<String> onDelta) {
+        return hint(question, lang, () -> {
+            // отвалившийся клиент не обрывает upstream: результат ждут остальные и кэш; ошибку отдаём владельцу в конце
+            var gone = new RuntimeException[1];
+            var hj = openAi.streamHintFromTranscript(question, lang, d -> {
+                if (gone[0] != null) return;
+                try {
+                    onDelta.accept(d);
+                } catch (RuntimeException e) {
+                    gone[0] = e;
+                }
+            });
+            if (gone[0] == null) return hj;
+            throw new DeliveryFailed(hj, gone[0]);
+        }, onDelta);
+    }
+
+    private OpenAiDtos.HintJson hint(String question, String lang, Supplier<OpenAiDtos.HintJson> upstream,
+                                     Consumer<String> onDelta) {
+        Key key = key(question, lang);
+
+        var mine = new CompletableFuture<OpenAiDtos.HintJson>();
+        var fut = cache.get(key, (k, executor) -> mine);
+        if (fut != mine) {
+            var hj = await(fut);
+            if (onDelta != null) onDelta.accept(hj.hint());
+            return hj;
+        }
+
+        try {
+            var hj = upstream.get();
+            mine.complete(hj);
+            return hj;
+        } catch (DeliveryFailed e) {
+            mine.complete(e.hint);
+            throw e.failure;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        CacheStats s = cache.synchronous().stats();
+        var m = new LinkedHashMap<String, Object>();
+        m.put("size", cache.synchronous().estimatedSize());
+        m.put("hits", s.hitCount());
+        m.put("misses", s.missCount());
+        m.put("hitRate", s.hitRate());
+        m.put("evictions", s.evictionCount());
+        m.put("loadFailures", s.loadFailureCount());
+        return m;
+    }
+
+    /**
+     * Ответ получен, но владельцу стрима его не доставить: кэш и ждущие получают hint, владелец — исходную ошибку.
+     */
+    private static final class DeliveryFailed extends RuntimeException {
+        final OpenAiDtos.HintJson hint;
+        final RuntimeException failure;
+
+        DeliveryFailed(OpenAiDtos.HintJson hint, RuntimeException failure) {
+            super(failure.getMessage(), failure, false, false);
+            this.hint = hint;
+            this.failure = failure;
+        }
+    }
+
+    private Key key(String question, String lang) {
+        return new Key(normalize(question), lang == null ? "" : lang, props.openai().chatModel());
+    }
+
+    static String normalize(String q) {
+        if (q == null) return "";
+        String s = q.strip().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+        int end = s.length();
+        while (end > 0 && "?!.…".indexOf(s.charAt(end - 1)) >= 0) end--;
+        return s.substring(0, end).strip();
+    }
+
+    private static <T> T await(CompletableFuture<T> fut) {
+        try {
+            return fut.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+}
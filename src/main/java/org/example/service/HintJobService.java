@@ -0,0 +1,214 @@
+package org.example.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.example.config.AppProperties;
+import org.example.config.LicenseProperties;
+import org.example.dto.ApiException;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Асинхронные hint-задачи (/hint?async=true): клиент сразу получает jobId, результат забирает long-poll'ом или по SSE.
+ * <p>
+ * Очередь — приоритетная: порядок по "эффективному времени постановки" = время постановки минус фора плана
+ * (app.jobs.planHeadStart). PRO с форой 30s обгоняет DEMO, стоящий в очереди меньше 30s; DEMO, прождавший дольше,
+ * идёт раньше свежих PRO — голодания нет. Одновременно выполняется не больше app.jobs.maxConcurrent задач:
+ * следующая берётся из головы очереди в момент освобождения слота, поэтому при перегрузе первыми уходят платные.
+ * <p>
+ * Отдельного потока-диспетчера нет: очередь "прокачивается" при постановке и при завершении каждой задачи.
+ * Готовые задачи хранятся app.jobs.resultTtl (Caffeine), очередь ограничена app.jobs.maxQueued — дальше 503.
+ */
+@Service
+public class HintJobService {
+
+    public enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+    /**
+     * Состояние задачи для ответа клиенту; result — то, что вернул work, error — если упал.
+     */
+    public record View(String id, Status status, Instant createdAt, Instant finishedAt, Object result, ApiException error) {}
+
+    private static final class Job {
+        final String id = UUID.randomUUID().toString();
+        final String licenseKey;
+        final String plan;
+        final Instant createdAt = Instant.now();
+        final long rank;
+        final long seq;
+        final Supplier<Object> work;
+        final CompletableFuture<Object> done = new CompletableFuture<>();
+        volatile Status status = Status.QUEUED;
+        volatile Instant finishedAt;
+
+        Job(String licenseKey, String plan, long rank, long seq, Supplier<Object> work) {
+            this.licenseKey = licenseKey;
+            this.plan = plan;
+            this.rank = rank;
+            this.seq = seq;
+            this.work = work;
+        }
+    }
+
+    private final AsyncTaskExecutor executor;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final Map<String, Duration> planHeadStart;
+    private final Semaphore slots;
+    private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>(64,
+            Comparator.comparingLong((Job j) -> j.rank).thenComparingLong(j -> j.seq));
+    private final Cache<String, Job> jobs;
+    private final AtomicLong seq = new AtomicLong();
+    private final Map<String, PlanStats> stats = new ConcurrentHashMap<>();
+
+    public HintJobService(@Qualifier("hintStreamExecutor") AsyncTaskExecutor hintStreamExecutor, AppProperties props) {
+        this.executor = hintStreamExecutor;
+        var j = props.jobs();
+        this.maxConcurrent = j != null && j.maxConcurrent() > 0 ? j.maxConcurrent() : 64;
+        this.maxQueued = j != null && j.maxQueued() > 0 ? j.maxQueued() : 1_000;
+        this.planHeadStart = j != null && j.planHeadStart() != null ? j.planHeadStart() : Map.of();
+        Duration ttl = j != null && j.resultTtl() != null ? j.resultTtl() : Duration.ofMinutes(10);
+        this.slots = new Semaphore(maxConcurrent);
+        this.jobs = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    public View submit(LicenseProperties.LicenseEntry license, Supplier<Object> work) {
+        if (queue.size() >= maxQueued) {
+            throw new ApiException(HttpStatus.SERVICE_UNAVAILABLE, "JOBS_BUSY", "Too many queued hint jobs",
+                    Map.of("retryAfterSeconds", 5, "maxQueued", maxQueued));
+        }
+        String plan = license.plan() == null ? "" : license.plan();
+        Duration headStart = planHeadStart.getOrDefault(plan, Duration.ZERO);
+        var job = new Job(license.key(), plan, System.currentTimeMillis() - headStart.toMillis(), seq.incrementAndGet(), work);
+
+        jobs.put(job.id, job);
+        queue.add(job);
+        pump();
+        return view(job);
+    }
+
+    public View get(String jobId, String licenseKey) {
+        return view(require(jobId, licenseKey));
+    }
+
+    /**
+     * Future завершается (всегда нормально), когда задача готова — для long-poll и SSE.
+     */
+    public CompletableFuture<View> whenDone(String jobId, String licenseKey) {
+        Job job = require(jobId, licenseKey);
+        return job.done.handle((r, e) -> view(job));
+    }
+
+    public Map<String, Object> stats() {
+        var m = new LinkedHashMap<String, Object>();
+        m.put("queued", queue.size());
+        m.put("running", maxConcurrent - slots.availablePermits());
+        m.put("maxConcurrent", maxConcurrent);
+        var plans = new LinkedHashMap<String, Object>();
+        stats.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(e -> {
+            var s = e.getValue();
+            plans.put(e.getKey(), Map.of(
+                    "started", s.started.sum(),
+                    "queueWaitP50Ms", s.wait.percentile(0.50, 0),
+                    "queueWaitP95Ms", s.wait.percentile(0.95, 0)));
+        });
+        m.put("plans", plans);
+        return m;
+    }
+
+    /**
+     * Пока есть свободный слот и задачи — запускаем голову очереди.
+     * Повторная проверка очереди после release закрывает гонку с add() в другом потоке.
+     */
+    private void pump() {
+        while (slots.tryAcquire()) {
+            Job job = queue.poll();
+            if (job == null) {
+                slots.release();
+                if (queue.isEmpty()) return;
+                continue;
+            }
+            try {
+                executor.execute(() -> run(job));
+            } catch (RuntimeException e) {
+                slots.release();
+                finish(job, null, e);
+            }
+        }
+    }
+
+    private void run(Job job) {
+        long waitMs = Duration.between(job.createdAt, Instant.now()).toMillis();
+        var s = stats.computeIfAbsent(job.plan.isEmpty() ? "?" : job.plan, k -> new PlanStats());
+        s.started.increment();
+        s.wait.add(waitMs);
+
+        job.status = Status.RUNNING;
+        try {
+            finish(job, job.work.get(), null);
+        } catch (Throwable e) {
+            finish(job, null, e);
+        } finally {
+            slots.release();
+            pump();
+        }
+    }
+
+    private void finish(Job job, Object result, Throwable error) {
+        // TTL результата отсчитывается от готовности, а не от постановки в очередь
+        jobs.put(job.id, job);
+        job.finishedAt = Instant.now();
+        job.status = error == null ? Status.DONE : Status.FAILED;
+        if (error == null) job.done.complete(result);
+        else job.done.completeExceptionally(error);
+    }
+
+    private Job require(String jobId, String licenseKey) {
+        Job job = jobId == null ? null : jobs.getIfPresent(jobId);
+        // чужая задача неотличима от выселенной
+        if (job == null || !job.licenseKey.equals(licenseKey)) {
+            throw new ApiException(HttpStatus.NOT_FOUND, "JOB_NOT_FOUND", "Job not found or expired",
+                    Map.of("jobId", String.valueOf(jobId)));
+        }
+        return job;
+    }
+
+    private static View view(Job job) {
+        Object result = null;
+        ApiException error = null;
+        if (job.done.isDone()) {
+            try {
+                result = job.done.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                error = cause instanceof ApiException a ? a
+                        : new ApiException(HttpStatus.BAD_GATEWAY, "JOB_FAILED", String.valueOf((cause == null ? e : cause).getMessage()), Map.of());
+            }
+        }
+        return new View(job.id, job.status, job.createdAt, job.finishedAt, result, error);
+    }
+
+    private static final class PlanStats {
+        final LongAdder started = new LongAdder();
+        final LatencyWindow wait = new LatencyWindow(512);
+    }
+}
@@ -0,0 +1,129 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.example.dto.OpenAiDtos;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Метрики hint-пайплайна (Micrometer → /actuator/prometheus).
+ * <ul>
+ *   <li>hint.phase — таймер по фазам: license, multipart, image_encode, upstream_ttfb, upstream_total, parse;</li>
+ *   <li>hint.tokens — токены upstream по model/route/plan и type (prompt|completion|cached);</li>
+ *   <li>hint.errors — ApiException по code/endpoint/plan;</li>
+ *   <li>hint.payload — размеры картинок и тел в/из upstream; hint.request.size — входящие запросы по endpoint.</li>
+ * </ul>
+ * Гистограммы для перцентилей включаются в application.yml (management.metrics.distribution).
+ * <p>
+ * plan берётся по лицензии, привязанной к потоку через {@link UsageMeter#bind}, endpoint — шаблон пути
+ * текущего HTTP-запроса; вне запроса (стримы, батчи, задачи) — "background".
+ */
+@Component
+public class HintMetrics {
+
+    private static final String NONE = "none";
+
+    private final MeterRegistry registry;
+    private final LicenseRegistry licenses;
+
+    public HintMetrics(MeterRegistry registry, LicenseRegistry licenses) {
+        this.registry = registry;
+        this.licenses = licenses;
+    }
+
+    /**
+     * Фаза hint'а; op/route — null, если фаза не про конкретный вызов upstream.
+     * У всех hint.phase один набор тегов (phase, op, model, plan) — Prometheus требует одинаковые ключи.
+     */
+    public void phase(String phase, long nanos, OpenAiTransport.Op op, ChatRouter.Route route) {
+        Timer.builder("hint.phase")
+                .tags("phase", phase, "op", op == null ? NONE : op.name(),
+                        "model", route == null ? NONE : route.model(), "plan", plan())
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void tokens(ChatRouter.Route route, OpenAiDtos.ChatCompletionResponse.Usage usage) {
+        if (usage == null) return;
+        Tags tags = Tags.of("model", route.model(), "route", route.name(), "plan", plan());
+        Counter.builder("hint.tokens").tags(tags.and("type", "prompt")).register(registry).increment(usage.prompt_tokens());
+        Counter.builder("hint.tokens").tags(tags.and("type", "completion")).register(registry).increment(usage.completion_tokens());
+        if (usage.prompt_tokens_details() != null) {
+            Counter.builder("hint.tokens").tags(tags.and("type", "cached")).register(registry)
+                    .increment(usage.prompt_tokens_details().cached_tokens());
+        }
+    }
+
+    public void error(String code) {
+        errorTagged(code, endpoint(), plan());
+    }
+
+    /**
+     * Для ошибок вне HTTP-запроса (SSE, NDJSON, задачи, WebSocket), где их не видит ApiExceptionHandler.
+     */
+    public void error(String code, String endpoint, String licenseKey) {
+        errorTagged(code, endpoint, plan(licenseKey));
+    }
+
+    private void errorTagged(String code, String endpoint, String plan) {
+        Counter.builder("hint.errors")
+                .tags("code", code == null ? NONE : code, "endpoint", endpoint, "plan", plan)
+                .register(registry)
+                .increment();
+    }
+
+    public void payload(String kind, OpenAiTransport.Op op, long bytes) {
+        if (bytes < 0) return;
+        DistributionSummary.builder("hint.payload")
+                .baseUnit("bytes")
+                .tags("kind", kind, "op", op == null ? NONE : op.name())
+                .register(registry)
+                .record(bytes);
+    }
+
+    public void requestSize(String endpoint, long bytes) {
+        if (bytes < 0) return;
+        DistributionSummary.builder("hint.request.size")
+                .baseUnit("bytes")
+                .tags("endpoint", endpoint)
+                .register(registry)
+                .record(bytes);
+    }
+
+    /**
+     * Шаблон пути текущего запроса (/api/v1/hint/jobs/{jobId}), чтобы id не раздували кардинальность.
+     */
+    public String endpoint() {
+        RequestAttributes attrs = RequestContextHolder.getRequestAttributes();
+        if (attrs == null) return "background";
+        Object pattern = attrs.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        return pattern == null ? "unmapped" : pattern.toString();
+    }
+
+    /**
+     * План лицензии потока (UsageMeter.bind), а до bind — по заголовку X-License-Key текущего запроса.
+     */
+    public String plan() {
+        String key = UsageMeter.currentLicense();
+        if (key == null && RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attrs) {
+            key = attrs.getRequest().getHeader("X-License-Key");
+        }
+        return plan(key);
+    }
+
+    public String plan(String licenseKey) {
+        if (licenseKey == null) return NONE;
+        var resolved = licenses.lookup(licenseKey);
+        String plan = resolved == null ? null : resolved.entry().plan();
+        return plan == null ? NONE : plan;
+    }
+}
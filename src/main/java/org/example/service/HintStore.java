@@ -0,0 +1,107 @@
+package org.example.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.example.config.AppProperties;
+import org.example.dto.ApiException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Недавние подсказки по hintId — для "расскажи подробнее" (/hint/expand) без повторной загрузки скриншота.
+ * <p>
+ * Хранится не картинка и не сырой ответ модели, а компактный текстовый контекст: вопрос, тип задачи,
+ * главный ответ и код (обрезанные). Для vision-подсказки этого хватает — output уже описывает,
+ * что было на скриншоте, а повторный vision-вызов стоил бы в разы дороже.
+ * <p>
+ * Caffeine с весом в символах контекста и TTL с момента записи (app.hints).
+ */
+@Service
+public class HintStore {
+
+    private static final int MAX_QUESTION_CHARS = 2_000;
+    private static final int MAX_ANSWER_CHARS = 4_000;
+    private static final int MAX_CODE_CHARS = 4_000;
+
+    /**
+     * Контекст подсказки для расширения; context — готовый текст для user-сообщения.
+     */
+    public record Entry(String licenseKey, String lang, String taskType, String context) {}
+
+    private final Cache<String, Entry> hints;
+    private final int defaultExpandWords;
+    private final int maxExpandWords;
+
+    public HintStore(AppProperties props) {
+        var h = props.hints();
+        Duration ttl = h != null && h.ttl() != null ? h.ttl() : Duration.ofHours(1);
+        long maxChars = h != null && h.maxStoredChars() > 0 ? h.maxStoredChars() : 50_000_000;
+        this.defaultExpandWords = h != null && h.defaultExpandWords() > 0 ? h.defaultExpandWords() : 250;
+        this.maxExpandWords = h != null && h.maxExpandWords() > 0 ? h.maxExpandWords() : 1_000;
+
+        this.hints = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumWeight(maxChars)
+                .weigher((String id, Entry e) -> e.context().length())
+                .recordStats()
+                .build();
+    }
+
+    public void remember(String hintId, String licenseKey, String lang, String taskType,
+                         String question, String answer, String code, List<String> checklist) {
+        var sb = new StringBuilder(512);
+        sb.append("Вопрос:\n").append(clip(question, MAX_QUESTION_CHARS)).append("\n\n");
+        sb.append("Краткий ответ, который уже показан кандидату:\n").append(clip(answer, MAX_ANSWER_CHARS));
+        if (code != null && !code.isBlank()) {
+            sb.append("\n\nКод из ответа:\n").append(clip(code, MAX_CODE_CHARS));
+        }
+        if (checklist != null && !checklist.isEmpty()) {
+            sb.append("\n\nЧеклист:");
+            for (String item : checklist) sb.append("\n- ").append(item);
+        }
+        hints.put(hintId, new Entry(licenseKey, lang, taskType, sb.toString()));
+    }
+
+    public Entry require(String hintId, String licenseKey) {
+        Entry e = hintId == null ? null : hints.getIfPresent(hintId);
+        // чужая подсказка неотличима от выселенной
+        if (e == null || !e.licenseKey().equals(licenseKey)) {
+            throw new ApiException(HttpStatus.NOT_FOUND, "HINT_NOT_FOUND", "Hint not found or expired",
+                    Map.of("hintId", String.valueOf(hintId)));
+        }
+        return e;
+    }
+
+    /**
+     * maxWords из запроса: null — по умолчанию, больше лимита — зажимается, не больше нуля — ошибка.
+     */
+    public int expandWords(Integer requested) {
+        if (requested == null) return defaultExpandWords;
+        if (requested <= 0) {
+            throw new ApiException(HttpStatus.BAD_REQUEST, "BAD_MAX_WORDS", "maxWords must be positive",
+                    Map.of("maxWords", requested));
+        }
+        return Math.min(requested, maxExpandWords);
+    }
+
+    public Map<String, Object> stats() {
+        var st = hints.stats();
+        var m = new LinkedHashMap<String, Object>();
+        m.put("size", hints.estimatedSize());
+        m.put("weightChars", hints.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L));
+        m.put("hits", st.hitCount());
+        m.put("misses", st.missCount());
+        m.put("evictions", st.evictionCount());
+        return m;
+    }
+
+    private static String clip(String s, int max) {
+        if (s == null) return "";
+        return s.length() <= max ? s : s.substring(0, max) + "…";
+    }
+}
@@ -0,0 +1,205 @@
+package org.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.example.config.AppProperties;
+import org.example.dto.ApiException;
+import org.example.model.entity.IdempotencyEntity;
+import org.example.repository.IdempotencyRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Поддержка заголовка Idempotency-Key.
+ * <p>
+ * Два уровня: Caffeine (горячие ключи + in-flight future) перед таблицей idempotency в H2.
+ * Ключ действует в пределах endpoint; вместе с ответом хранится хэш запроса — тот же ключ с другими
+ * параметрами даёт 422, а не чужой ответ.
+ * Повтор, пришедший пока оригинал ещё считается, ждёт тот же future, а не делает второй вызов upstream.
+ * Сохраняются только успешные ответы — после ошибки повтор выполнится заново.
+ * Просроченные строки удаляются пачкой по расписанию.
+ */
+@Service
+public class IdempotencyService {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyService.class);
+
+    private static final int MAX_KEY_LENGTH = 120;
+
+    private record Scope(String endpoint, String idemKey) {}
+
+    private record Stored(String licenseKey, String requestHash, String responseJson) {}
+
+    private final IdempotencyRepo repo;
+    private final ObjectMapper om;
+    private final Duration ttl;
+    private final AsyncCache<Scope, Stored> cache;
+
+    public IdempotencyService(IdempotencyRepo repo, ObjectMapper om, AppProperties props) {
+        this.repo = repo;
+        this.om = om;
+
+        var c = props.idempotency();
+        this.ttl = (c == null || c.ttl() == null) ? Duration.ofHours(24) : c.ttl();
+        long maxSize = (c == null || c.cacheMaxSize() <= 0) ? 10_000 : c.cacheMaxSize();
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .buildAsync();
+    }
+
+    /**
+     * Выполняет action один раз на (endpoint, idemKey); без ключа — просто выполняет.
+     * request — параметры запроса для отпечатка: строки и/или {@link Resource} (читается потоком).
+     * Лимиты и учёт подсказок должны списываться внутри action: повтор готового ответа их не тратит.
+     */
+    public <T> T execute(String endpoint, String idemKey, String licenseKey, List<?> request,
+                         Class<T> type, Supplier<T> action) {
+        if (idemKey == null || idemKey.isBlank()) {
+            return action.get();
+        }
+        if (idemKey.length() > MAX_KEY_LENGTH) {
+            throw ApiException.badRequest("IDEMPOTENCY_KEY_INVALID", "Idempotency-Key is longer than " + MAX_KEY_LENGTH);
+        }
+
+        String requestHash = requestHash(request);
+        var scope = new Scope(endpoint, idemKey);
+        var mine = new CompletableFuture<Stored>();
+        var fut = cache.get(scope, (k, executor) -> mine);
+
+        Stored stored;
+        if (fut != mine) {
+            stored = await(fut);
+        } else {
+            try {
+                stored = loadOrRun(scope, licenseKey, requestHash, action);
+                mine.complete(stored);
+            } catch (RuntimeException e) {
+                mine.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        if (!stored.licenseKey().equals(licenseKey)) {
+            throw new ApiException(HttpStatus.CONFLICT, "IDEMPOTENCY_KEY_CONFLICT",
+                    "Idempotency-Key is already used by another license", Map.of());
+        }
+        if (stored.requestHash() != null && !stored.requestHash().equals(requestHash)) {
+            throw new ApiException(HttpStatus.UNPROCESSABLE_ENTITY, "IDEMPOTENCY_KEY_MISMATCH",
+                    "Idempotency-Key is already used with different request parameters", Map.of());
+        }
+        try {
+            return om.readValue(stored.responseJson(), type);
+        } catch (Exception e) {
+            throw new ApiException(HttpStatus.INTERNAL_SERVER_ERROR, "IDEMPOTENCY_BAD_RECORD",
+                    "Stored response cannot be read", Map.of("err", String.valueOf(e.getMessage())));
+        }
+    }
+
+    private <T> Stored loadOrRun(Scope scope, String licenseKey, String requestHash, Supplier<T> action) {
+        var existing = repo.findByIdemKeyAndEndpoint(scope.idemKey(), scope.endpoint()).orElse(null);
+        if (existing != null) {
+            if (existing.getCreatedAt().isAfter(Instant.now().minus(ttl))) {
+                return new Stored(existing.getLicenseKey(), existing.getRequestHash(), existing.getResponseJson());
+            }
+            repo.delete(existing);
+        }
+
+        T result = action.get();
+        String json;
+        try {
+            json = om.writeValueAsString(result);
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot serialize response for idempotency", e);
+        }
+
+        try {
+            repo.save(IdempotencyEntity.of(scope.idemKey(), scope.endpoint(), licenseKey, requestHash,
+                    HttpStatus.OK.value(), json));
+        } catch (DataIntegrityViolationException e) {
+            // ключ успел сохранить другой инстанс — ответ у нас всё равно есть
+            log.debug("Idempotency key {} already stored for {}", scope.idemKey(), scope.endpoint());
+        }
+        return new Stored(licenseKey, requestHash, json);
+    }
+
+    /**
+     * SHA-256 по частям запроса; у каждой части тег и длина, чтобы ("ab", "c") и ("a", "bc") не совпадали.
+     */
+    static String requestHash(List<?> parts) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buf = new byte[8192];
+            for (Object part : parts) {
+                if (part == null) {
+                    md.update((byte) 0);
+                } else if (part instanceof Resource r) {
+                    md.update((byte) 2);
+                    long len = 0;
+                    try (InputStream in = r.getInputStream()) {
+                        int n;
+                        while ((n = in.read(buf)) > 0) {
+                            md.update(buf, 0, n);
+                            len += n;
+                        }
+                    }
+                    md.update(longBytes(len));
+                } else {
+                    byte[] b = Objects.toString(part).getBytes(StandardCharsets.UTF_8);
+                    md.update((byte) 1);
+                    md.update(longBytes(b.length));
+                    md.update(b);
+                }
+            }
+            return HexFormat.of().formatHex(md.digest());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] longBytes(long v) {
+        byte[] b = new byte[8];
+        for (int i = 7; i >= 0; i--, v >>>= 8) b[i] = (byte) v;
+        return b;
+    }
+
+    @Scheduled(fixedDelayString = "${app.idempotency.purgeInterval:PT10M}")
+    public void purgeExpired() {
+        int removed = repo.deleteOlderThan(Instant.now().minus(ttl));
+        if (removed > 0) log.info("Idempotency purge: removed {} expired rows", removed);
+    }
+
+    private static <T> T await(CompletableFuture<T> fut) {
+        try {
+            return fut.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.example.service;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Хэши для дедупликации скриншотов: точный (SHA-256 по байтам) и перцептивный (dHash 64 бита).
+ */
+final class ImageHashes {
+
+    private ImageHashes() {}
+
+    static String sha256(InputStream in) throws IOException {
+        try (in) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0) md.update(buf, 0, n);
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * dHash: картинка усредняется в сетку 9x8 по яркости, бит = "левая ячейка ярче правой".
+     * Мелкие изменения (мигающий курсор, подсветка строки) почти не меняют биты.
+     */
+    static long dHash(BufferedImage img) {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        double[][] cells = new double[8][9];
+
+        for (int cy = 0; cy < 8; cy++) {
+            int y0 = cy * h / 8, y1 = Math.max(y0 + 1, (cy + 1) * h / 8);
+            int sy = Math.max(1, (y1 - y0) / 16);
+            for (int cx = 0; cx < 9; cx++) {
+                int x0 = cx * w / 9, x1 = Math.max(x0 + 1, (cx + 1) * w / 9);
+                int sx = Math.max(1, (x1 - x0) / 16);
+                long sum = 0;
+                int n = 0;
+                for (int y = y0; y < y1 && y < h; y += sy) {
+                    for (int x = x0; x < x1 && x < w; x += sx) {
+                        sum += luma(img.getRGB(x, y));
+                        n++;
+                    }
+                }
+                cells[cy][cx] = n == 0 ? 0 : (double) sum / n;
+            }
+        }
+
+        long hash = 0;
+        for (int cy = 0; cy < 8; cy++) {
+            for (int cx = 0; cx < 8; cx++) {
+                hash <<= 1;
+                if (cells[cy][cx] > cells[cy][cx + 1]) hash |= 1;
+            }
+        }
+        return hash;
+    }
+
+    static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static int luma(int rgb) {
+        int r = (rgb >> 16) & 0xff, g = (rgb >> 8) & 0xff, b = rgb & 0xff;
+        return (r * 299 + g * 587 + b * 114) / 1000;
+    }
+}
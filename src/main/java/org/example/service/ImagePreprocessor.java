@@ -0,0 +1,356 @@
+package org.example.service;
+
+import org.example.config.AppProperties;
+import org.example.dto.ApiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Подготовка скриншота перед vision-запросом:
+ * decode → обрезка однотонных полей → выбор detail (low/high) по плотности текста →
+ * downscale до размера, который модель всё равно использует → компактный re-encode.
+ * <p>
+ * Размеры и стоимость в токенах — по правилам OpenAI для gpt-4o-подобных моделей:
+ * high: вписать в 2048x2048, затем короткая сторона ≤ 768, 85 + 170 * (число плиток 512x512);
+ * low: 512x512, фиксированные 85 токенов.
+ */
+@Service
+public class ImagePreprocessor {
+
+    private static final Logger log = LoggerFactory.getLogger(ImagePreprocessor.class);
+
+    private static final int BORDER_TOLERANCE = 24;
+    private static final int EDGE_THRESHOLD = 48;
+    private static final double LOW_DETAIL_DENSITY = 0.02;
+    private static final int PNG_TRY_JPEG_BYTES = 256 * 1024;
+    private static final float JPEG_QUALITY = 0.85f;
+    private static final long DEFAULT_MAX_PIXELS = 40_000_000L;
+
+    public record Report(
+            long bytesBefore, long bytesAfter,
+            int widthBefore, int heightBefore,
+            int widthAfter, int heightAfter,
+            int tokensBefore, int tokensAfter
+    ) {}
+
+    /**
+     * Результат подготовки. body — что уходит в upstream: ужатые байты или (если формат не декодируется)
+     * исходный upload как есть. dHash — перцептивный хэш обработанной картинки для {@link ScreenshotCache}
+     * (null, если не удалось декодировать); сам растр не храним — он в разы больше body.
+     */
+    public record PreparedImage(Resource body, String contentType, String detail, Long dHash, Report report) {
+
+        /**
+         * Копия, не зависящая от multipart-запроса (нужна, если обработка уходит в другой поток).
+         */
+        public PreparedImage detached() throws IOException {
+            if (body instanceof ByteArrayResource) return this;
+            return new PreparedImage(new ByteArrayResource(body.getContentAsByteArray()), contentType, detail, dHash, report);
+        }
+    }
+
+    private final HintMetrics metrics;
+    private final long maxPixels;
+    private final LongAdder images = new LongAdder();
+    private final LongAdder bytesBefore = new LongAdder();
+    private final LongAdder bytesAfter = new LongAdder();
+    private final LongAdder tokensBefore = new LongAdder();
+    private final LongAdder tokensAfter = new LongAdder();
+
+    public ImagePreprocessor(HintMetrics metrics, AppProperties props) {
+        this.metrics = metrics;
+        this.maxPixels = props.images() != null && props.images().maxPixels() > 0
+                ? props.images().maxPixels() : DEFAULT_MAX_PIXELS;
+    }
+
+    /**
+     * source читается потоком (для multipart — с диска), целиком в heap исходник не копируется.
+     */
+    public PreparedImage prepare(Resource source, String contentType) throws IOException {
+        long t0 = System.nanoTime();
+        var prepared = doPrepare(source, contentType);
+        metrics.phase("image_encode", System.nanoTime() - t0, OpenAiTransport.Op.VISION, null);
+        metrics.payload("image_upload", OpenAiTransport.Op.VISION, prepared.report().bytesBefore());
+        metrics.payload("image_sent", OpenAiTransport.Op.VISION, prepared.report().bytesAfter());
+        return prepared;
+    }
+
+    private PreparedImage doPrepare(Resource source, String contentType) throws IOException {
+        long rawSize = source == null ? 0 : source.contentLength();
+        if (rawSize <= 0) {
+            throw new ApiException("BAD_IMAGE", "Image is empty");
+        }
+
+        BufferedImage src;
+        try (var in = source.getInputStream()) {
+            src = decode(in);
+        } catch (IOException e) {
+            src = null;
+        }
+
+        if (src == null) {
+            // формат, который ImageIO не знает (webp и т.п.) — шлём как есть, лимит проверит OpenAiClient
+            String mime = (contentType == null || contentType.isBlank()) ? "image/png" : contentType;
+            var report = new Report(rawSize, rawSize, 0, 0, 0, 0, 0, 0);
+            return new PreparedImage(source, mime, "high", null, report);
+        }
+
+        int w0 = src.getWidth(), h0 = src.getHeight();
+        BufferedImage img = cropUniformBorders(toRgb(src));
+
+        double density = textDensity(img);
+        boolean low = density < LOW_DETAIL_DENSITY || (img.getWidth() <= 512 && img.getHeight() <= 512);
+        String detail = low ? "low" : "high";
+
+        int[] target = low ? fit(img.getWidth(), img.getHeight(), 512, 512) : highDetailSize(img.getWidth(), img.getHeight());
+        img = scale(img, target[0], target[1]);
+
+        byte[] out;
+        String mime;
+        try {
+            out = encode(img, "png");
+            mime = "image/png";
+            if (out.length > PNG_TRY_JPEG_BYTES) {
+                byte[] jpg = encodeJpeg(img);
+                if (jpg.length < out.length) {
+                    out = jpg;
+                    mime = "image/jpeg";
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Image re-encode failed", e);
+        }
+
+        // геометрия не менялась, а исходник и так компактнее — отправим исходник
+        Resource body = new ByteArrayResource(out);
+        if (img.getWidth() == w0 && img.getHeight() == h0 && rawSize <= out.length) {
+            body = source;
+            mime = (contentType == null || contentType.isBlank()) ? "image/png" : contentType;
+        }
+        long outSize = body.contentLength();
+
+        var report = new Report(
+                rawSize, outSize,
+                w0, h0,
+                img.getWidth(), img.getHeight(),
+                tokens("high", w0, h0),
+                tokens(detail, img.getWidth(), img.getHeight())
+        );
+
+        images.increment();
+        bytesBefore.add(report.bytesBefore());
+        bytesAfter.add(report.bytesAfter());
+        tokensBefore.add(report.tokensBefore());
+        tokensAfter.add(report.tokensAfter());
+
+        log.info("Screenshot preprocessed: {}x{} {}B -> {}x{} {}B {} detail={} density={} tokens {} -> {}",
+                w0, h0, rawSize, img.getWidth(), img.getHeight(), outSize, mime, detail,
+                String.format("%.3f", density), report.tokensBefore(), report.tokensAfter());
+
+        return new PreparedImage(body, mime, detail, ImageHashes.dHash(img), report);
+    }
+
+    /**
+     * Как ImageIO.read, но размеры сначала читаются из заголовка: растр 30000x30000 из маленького PNG
+     * весит гигабайты, такие картинки отклоняются до декодирования. null — формат ImageIO не знает.
+     */
+    private BufferedImage decode(InputStream in) throws IOException {
+        try (var stream = ImageIO.createImageInputStream(in)) {
+            if (stream == null) return null;
+            var readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > maxPixels) {
+                    throw new ApiException("BAD_IMAGE", "Image is too large: "
+                            + reader.getWidth(0) + "x" + reader.getHeight(0) + " exceeds " + maxPixels + " pixels");
+                }
+                return reader.read(0, reader.getDefaultReadParam());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        var m = new LinkedHashMap<String, Object>();
+        m.put("images", images.sum());
+        m.put("bytesBefore", bytesBefore.sum());
+        m.put("bytesAfter", bytesAfter.sum());
+        m.put("estTokensBefore", tokensBefore.sum());
+        m.put("estTokensAfter", tokensAfter.sum());
+        return m;
+    }
+
+    /**
+     * Оценка стоимости картинки в токенах (без учёта текста запроса).
+     */
+    static int tokens(String detail, int w, int h) {
+        if ("low".equals(detail)) return 85;
+        int[] s = highDetailSize(w, h);
+        int tiles = ceilDiv(s[0], 512) * ceilDiv(s[1], 512);
+        return 85 + 170 * tiles;
+    }
+
+    static int[] highDetailSize(int w, int h) {
+        int[] s = fit(w, h, 2048, 2048);
+        int shortSide = Math.min(s[0], s[1]);
+        if (shortSide > 768) {
+            double k = 768.0 / shortSide;
+            s = new int[]{Math.max(1, (int) Math.round(s[0] * k)), Math.max(1, (int) Math.round(s[1] * k))};
+        }
+        return s;
+    }
+
+    private static int[] fit(int w, int h, int maxW, int maxH) {
+        if (w <= maxW && h <= maxH) return new int[]{w, h};
+        double k = Math.min((double) maxW / w, (double) maxH / h);
+        return new int[]{Math.max(1, (int) Math.round(w * k)), Math.max(1, (int) Math.round(h * k))};
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    private static BufferedImage toRgb(BufferedImage src) {
+        if (src.getType() == BufferedImage.TYPE_INT_RGB) return src;
+        var rgb = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, src.getWidth(), src.getHeight());
+        g.drawImage(src, 0, 0, null);
+        g.dispose();
+        return rgb;
+    }
+
+    /**
+     * Срезает по краям строки/столбцы, целиком совпадающие (с допуском) с цветом угла.
+     */
+    private static BufferedImage cropUniformBorders(BufferedImage img) {
+        int w = img.getWidth(), h = img.getHeight();
+        int bg = img.getRGB(0, 0);
+
+        int top = 0;
+        while (top < h - 1 && rowUniform(img, top, bg)) top++;
+        int bottom = h - 1;
+        while (bottom > top && rowUniform(img, bottom, bg)) bottom--;
+        int left = 0;
+        while (left < w - 1 && colUniform(img, left, top, bottom, bg)) left++;
+        int right = w - 1;
+        while (right > left && colUniform(img, right, top, bottom, bg)) right--;
+
+        int cw = right - left + 1, ch = bottom - top + 1;
+        if (cw == w && ch == h) return img;
+        if (cw < 16 || ch < 16) return img; // почти пустая картинка — не трогаем
+        return img.getSubimage(left, top, cw, ch);
+    }
+
+    private static boolean rowUniform(BufferedImage img, int y, int bg) {
+        for (int x = 0; x < img.getWidth(); x++) {
+            if (!near(img.getRGB(x, y), bg)) return false;
+        }
+        return true;
+    }
+
+    private static boolean colUniform(BufferedImage img, int x, int y0, int y1, int bg) {
+        for (int y = y0; y <= y1; y++) {
+            if (!near(img.getRGB(x, y), bg)) return false;
+        }
+        return true;
+    }
+
+    private static boolean near(int a, int b) {
+        int dr = Math.abs(((a >> 16) & 0xff) - ((b >> 16) & 0xff));
+        int dg = Math.abs(((a >> 8) & 0xff) - ((b >> 8) & 0xff));
+        int db = Math.abs((a & 0xff) - (b & 0xff));
+        return dr + dg + db <= BORDER_TOLERANCE;
+    }
+
+    /**
+     * Доля пикселей с резким горизонтальным перепадом яркости — грубая оценка "сколько тут текста".
+     */
+    private static double textDensity(BufferedImage img) {
+        int w = img.getWidth(), h = img.getHeight();
+        int step = Math.max(1, Math.max(w, h) / 1024);
+        long edges = 0, samples = 0;
+        for (int y = 0; y < h; y += step) {
+            int prev = luma(img.getRGB(0, y));
+            for (int x = step; x < w; x += step) {
+                int cur = luma(img.getRGB(x, y));
+                if (Math.abs(cur - prev) > EDGE_THRESHOLD) edges++;
+                prev = cur;
+                samples++;
+            }
+        }
+        return samples == 0 ? 0 : (double) edges / samples;
+    }
+
+    private static int luma(int rgb) {
+        int r = (rgb >> 16) & 0xff, g = (rgb >> 8) & 0xff, b = rgb & 0xff;
+        return (r * 299 + g * 587 + b * 114) / 1000;
+    }
+
+    /**
+     * Downscale с промежуточными уменьшениями в 2 раза — иначе bilinear на большом коэффициенте "рвёт" текст.
+     */
+    private static BufferedImage scale(BufferedImage img, int tw, int th) {
+        if (img.getWidth() == tw && img.getHeight() == th) return img;
+        BufferedImage cur = img;
+        int w = img.getWidth(), h = img.getHeight();
+        do {
+            w = Math.max(tw, w / 2);
+            h = Math.max(th, h / 2);
+            var next = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(cur, 0, 0, w, h, null);
+            g.dispose();
+            cur = next;
+        } while (w != tw || h != th);
+        return cur;
+    }
+
+    private static byte[] encode(BufferedImage img, String format) throws IOException {
+        var bos = new ByteArrayOutputStream();
+        ImageIO.write(img, format, bos);
+        return bos.toByteArray();
+    }
+
+    private static byte[] encodeJpeg(BufferedImage img) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        var bos = new ByteArrayOutputStream();
+        try (var ios = new MemoryCacheImageOutputStream(bos)) {
+            writer.setOutput(ios);
+            ImageWriteParam p = writer.getDefaultWriteParam();
+            p.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            p.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(img, null, null), p);
+        } finally {
+            writer.dispose();
+        }
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,96 @@
+package org.example.service;
+
+/**
+ * Инкрементально вытаскивает значение строкового поля из JSON, который приходит кусками
+ * (stream=true в Chat Completions). Полный контент копится тут же и доступен через {@link #content()}.
+ * <p>
+ * Парсер намеренно простой: ищет первое вхождение "field": "..." и декодирует escape-последовательности
+ * по мере поступления. Для наших схем (hint / output) этого достаточно.
+ */
+final class JsonStringFieldStream {
+
+    private final String needle;
+    private final StringBuilder buf = new StringBuilder();
+    private int pos = -1;      // позиция внутри значения поля, -1 пока поле не найдено
+    private boolean done;
+
+    JsonStringFieldStream(String field) {
+        this.needle = "\"" + field + "\"";
+    }
+
+    /**
+     * Добавляет очередной кусок контента и возвращает новый (ещё не отданный) текст поля.
+     */
+    String feed(String chunk) {
+        buf.append(chunk);
+        if (done) return "";
+        if (pos < 0) {
+            pos = locateValue();
+            if (pos < 0) return "";
+        }
+
+        StringBuilder out = new StringBuilder();
+        while (pos < buf.length()) {
+            char c = buf.charAt(pos);
+            if (c == '"') {
+                done = true;
+                pos++;
+                break;
+            }
+            if (c != '\\') {
+                out.append(c);
+                pos++;
+                continue;
+            }
+            // escape: ждём, пока последовательность придёт целиком
+            if (pos + 1 >= buf.length()) break;
+            char e = buf.charAt(pos + 1);
+            if (e == 'u') {
+                if (pos + 6 > buf.length()) break;
+                out.append((char) Integer.parseInt(buf.substring(pos + 2, pos + 6), 16));
+                pos += 6;
+                continue;
+            }
+            out.append(switch (e) {
+                case 'n' -> '\n';
+                case 't' -> '\t';
+                case 'r' -> '\r';
+                case 'b' -> '\b';
+                case 'f' -> '\f';
+                default -> e;
+            });
+            pos += 2;
+        }
+        return out.toString();
+    }
+
+    String content() {
+        return buf.toString();
+    }
+
+    private int locateValue() {
+        int from = 0;
+        while (true) {
+            int i = buf.indexOf(needle, from);
+            if (i < 0) return -1;
+            int j = skipWs(i + needle.length());
+            if (j >= buf.length()) return -1;
+            if (buf.charAt(j) != ':') {
+                from = i + 1;
+                continue;
+            }
+            j = skipWs(j + 1);
+            if (j >= buf.length()) return -1;
+            if (buf.charAt(j) != '"') {
+                from = i + 1;
+                continue;
+            }
+            return j + 1;
+        }
+    }
+
+    private int skipWs(int j) {
+        while (j < buf.length() && Character.isWhitespace(buf.charAt(j))) j++;
+        return j;
+    }
+}
@@ -0,0 +1,36 @@
+package org.example.service;
+
+import java.util.Arrays;
+
+/**
+ * Кольцо последних N латентностей (мс); перцентиль — сортировкой копии (N маленькое).
+ */
+final class LatencyWindow {
+
+    private final long[] ring;
+    private int next;
+    private int size;
+
+    LatencyWindow(int capacity) {
+        this.ring = new long[capacity];
+    }
+
+    synchronized void add(long ms) {
+        ring[next] = ms;
+        next = (next + 1) % ring.length;
+        if (size < ring.length) size++;
+    }
+
+    /**
+     * @return перцентиль q, либо -1, пока замеров меньше minSamples
+     */
+    long percentile(double q, int minSamples) {
+        long[] copy;
+        synchronized (this) {
+            if (size < minSamples || size == 0) return -1;
+            copy = Arrays.copyOf(ring, size);
+        }
+        Arrays.sort(copy);
+        return copy[Math.min(copy.length - 1, (int) Math.ceil(q * copy.length) - 1)];
+    }
+}
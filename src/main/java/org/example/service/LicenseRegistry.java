@@ -0,0 +1,163 @@
+package org.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.example.config.LicenseProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Реестр лицензий: неизменяемый хэш-индекс, который целиком подменяется атомарно.
+ * <p>
+ * Источник — файл licenses.file (YAML/JSON, тот же формат, что licenses.keys в application.yml),
+ * если он задан; иначе licenses.keys. Файл отслеживается через WatchService: после правки
+ * новый снапшот подменяет старый, запросы при этом не теряются; битый файл оставляет прежний снапшот.
+ * <p>
+ * Истечение срока пересчитывается заранее по расписанию, поэтому {@link #lookup} — это один get
+ * из хэш-таблицы, без Instant.now() и без аллокаций.
+ */
+@Service
+public class LicenseRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(LicenseRegistry.class);
+
+    public enum State { VALID, DISABLED, EXPIRED }
+
+    public record Resolved(LicenseProperties.LicenseEntry entry, State state) {}
+
+    private record Snapshot(Map<String, Resolved> byKey, List<LicenseProperties.LicenseEntry> entries, Instant nextExpiry) {}
+
+    private final LicenseProperties props;
+    private final ObjectMapper om;
+    private volatile Snapshot snapshot = new Snapshot(Map.of(), List.of(), Instant.MAX);
+    private WatchService watcher;
+    private Thread watchThread;
+
+    public LicenseRegistry(LicenseProperties props, ObjectMapper om) {
+        this.props = props;
+        this.om = om;
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        Path file = licenseFile();
+        if (file == null) {
+            install(props.keys() == null ? List.of() : props.keys());
+            return;
+        }
+        reload(file);
+        startWatching(file);
+    }
+
+    /**
+     * null — ключа нет.
+     */
+    public Resolved lookup(String licenseKey) {
+        return snapshot.byKey().get(licenseKey);
+    }
+
+    public int size() {
+        return snapshot.byKey().size();
+    }
+
+    /**
+     * Пересобирает снапшот, когда наступил ближайший срок истечения.
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void refreshExpiry() {
+        Snapshot s = snapshot;
+        if (!Instant.now().isBefore(s.nextExpiry())) {
+            install(s.entries());
+        }
+    }
+
+    void reload(Path file) {
+        try (Reader r = Files.newBufferedReader(file)) {
+            Object root = new Yaml().load(r);
+            Object keys = root instanceof Map<?, ?> m ? m.get("keys") : root;
+            var entries = om.convertValue(keys == null ? List.of() : keys,
+                    om.getTypeFactory().constructCollectionType(List.class, LicenseProperties.LicenseEntry.class));
+            @SuppressWarnings("unchecked")
+            var list = (List<LicenseProperties.LicenseEntry>) entries;
+            install(list);
+            log.info("Licenses reloaded from {}: {} keys", file, list.size());
+        } catch (Exception e) {
+            log.error("License file {} rejected, keeping previous {} keys: {}", file, size(), e.getMessage());
+        }
+    }
+
+    private synchronized void install(List<LicenseProperties.LicenseEntry> entries) {
+        Instant now = Instant.now();
+        Instant next = Instant.MAX;
+        var map = new HashMap<String, Resolved>(entries.size() * 2);
+
+        for (var e : entries) {
+            if (e == null || e.key() == null) continue;
+            State state;
+            if (!e.enabled()) {
+                state = State.DISABLED;
+            } else if (e.expiresAt() != null && !now.isBefore(e.expiresAt())) {
+                state = State.EXPIRED;
+            } else {
+                state = State.VALID;
+                if (e.expiresAt() != null && e.expiresAt().isBefore(next)) next = e.expiresAt();
+            }
+            map.put(e.key(), new Resolved(e, state));
+        }
+        snapshot = new Snapshot(Map.copyOf(map), List.copyOf(entries), next);
+    }
+
+    private Path licenseFile() {
+        String f = props.file();
+        return (f == null || f.isBlank()) ? null : Path.of(f).toAbsolutePath();
+    }
+
+    private void startWatching(Path file) throws IOException {
+        Path dir = file.getParent();
+        watcher = FileSystems.getDefault().newWatchService();
+        dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        watchThread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watcher.take();
+                    boolean touched = key.pollEvents().stream()
+                            .anyMatch(ev -> file.getFileName().equals(ev.context()));
+                    key.reset();
+                    if (touched) {
+                        Thread.sleep(200); // редактор может писать файл в несколько приёмов
+                        reload(file);
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // остановка
+            }
+        }, "license-watch");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    @PreDestroy
+    void stop() throws IOException {
+        if (watcher != null) watcher.close();
+        if (watchThread != null) watchThread.interrupt();
+    }
+}
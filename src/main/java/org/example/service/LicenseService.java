@@ -3,39 +3,47 @@ package org.example.service;
 
 import org.example.config.LicenseProperties;
 import org.example.dto.ApiException;
-import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
-import java.time.Instant;
-import java.util.List;
 import java.util.Map;
 @Service
 public class LicenseService {
-    private final LicenseProperties props;
+    private final LicenseRegistry registry;
+    private final HintMetrics metrics;
 
-    public LicenseService(LicenseProperties props) {
-        this.props = props;
+    public LicenseService(LicenseRegistry registry, HintMetrics metrics) {
+        this.registry = registry;
+        this.metrics = metrics;
     }
 
     public LicenseProperties.LicenseEntry requireValid(String licenseKey) {
+        long t0 = System.nanoTime();
+        try {
+            return check(licenseKey);
+        } finally {
+            metrics.phase("license", System.nanoTime() - t0, null, null);
+        }
+    }
+
+    private LicenseProperties.LicenseEntry check(String licenseKey) {
         if (licenseKey == null || licenseKey.isBlank()) {
             throw new ApiException(HttpStatus.FORBIDDEN, "LICENSE_MISSING",
                     "X-License-Key header is required", Map.of());
         }
 
-        var entry = props.keys() == null ? null :
-                props.keys().stream().filter(k -> licenseKey.equals(k.key())).findFirst().orElse(null);
+        var resolved = registry.lookup(licenseKey);
 
-        if (entry == null) {
+        if (resolved == null) {
             throw new ApiException(HttpStatus.FORBIDDEN, "LICENSE_INVALID",
                     "License key not found", Map.of());
         }
-        if (!entry.enabled()) {
+        var entry = resolved.entry();
+        if (resolved.state() == LicenseRegistry.State.DISABLED) {
             throw new ApiException(HttpStatus.FORBIDDEN, "LICENSE_DISABLED",
                     "License is disabled", Map.of());
         }
-        if (entry.expiresAt() != null && Instant.now().isAfter(entry.expiresAt())) {
+        if (resolved.state() == LicenseRegistry.State.EXPIRED) {
             throw new ApiException(HttpStatus.FORBIDDEN, "LICENSE_EXPIRED",
                     "License is expired", Map.of("expiresAt", entry.expiresAt().toString()));
         }
@@ -0,0 +1,338 @@
+package org.example.service;
+
+import org.example.dto.ApiException;
+import org.example.dto.OpenAiDtos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.HttpStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Живая транскрипция одного WebSocket-соединения.
+ * <p>
+ * На вход — PCM s16le mono кусками. Пока идёт речь, каждые {@link #PARTIAL_EVERY_MS} мс транскрибируем
+ * окно от точки фиксации (с перекрытием {@link #OVERLAP_MS}) до текущего момента; стабильная часть —
+ * общий префикс двух последних распознаваний. Длинные фразы фиксируются кусками по {@link #MAX_WINDOW_MS},
+ * перекрывающиеся слова на стыке склеиваются.
+ * <p>
+ * После паузы {@link #PAUSE_MS} вопрос считаем законченным и спекулятивно запускаем STT хвоста + hint.
+ * Если речь продолжилась — задача отменяется, и после следующей паузы запускается заново с дополненным текстом.
+ * <p>
+ * Listener вызывается вне блокировки: медленный клиент не держит приём аудио.
+ */
+public class LiveTranscriber {
+
+    private static final Logger log = LoggerFactory.getLogger(LiveTranscriber.class);
+
+    static final int PARTIAL_EVERY_MS = 1500;
+    static final int MAX_WINDOW_MS = 15_000;
+    static final int OVERLAP_MS = 2_000;
+    static final int PAUSE_MS = 600;
+    static final int MAX_UTTERANCE_MS = 120_000;
+    static final double SILENCE_RMS = 500;
+    public static final Set<Integer> SAMPLE_RATES = Set.of(8_000, 16_000, 24_000, 48_000);
+
+    public interface Listener {
+        /**
+         * Вызывается один раз на вопрос, до финального STT и hint; ApiException — вопрос в upstream не идёт.
+         */
+        void admitQuestion();
+
+        void onTranscript(String stable, String unstable);
+
+        void onHint(String question, OpenAiDtos.HintJson hint);
+
+        void onError(ApiException e);
+    }
+
+    private final OpenAiClient openAi;
+    private final HintCache hintCache;
+    private final AsyncTaskExecutor executor;
+    private final UsageMeter usageMeter;
+    private final Listener listener;
+    private final String licenseKey;
+    private final String lang;
+    private final int sampleRate;
+    private final long maxUtteranceMs;
+
+    // PCM от точки фиксации (минус перекрытие) до текущего момента
+    private ByteArrayOutputStream window = new ByteArrayOutputStream();
+    private String committed = "";
+    private String lastPartial = "";
+    private boolean speaking;
+    private long silentMs;
+    private long sinceLastPartial;
+    private long utteranceMs;
+    private long generation;
+    private boolean admitted;
+    private Future<?> partialTask;
+    private Future<?> finalTask;
+
+    public LiveTranscriber(OpenAiClient openAi, HintCache hintCache, AsyncTaskExecutor executor, UsageMeter usageMeter,
+                           String licenseKey, String lang, int sampleRate, int maxAudioSeconds, Listener listener) {
+        if (!SAMPLE_RATES.contains(sampleRate)) {
+            throw new IllegalArgumentException("Unsupported sample rate: " + sampleRate);
+        }
+        this.openAi = openAi;
+        this.hintCache = hintCache;
+        this.executor = executor;
+        this.usageMeter = usageMeter;
+        this.licenseKey = licenseKey;
+        this.lang = lang;
+        this.sampleRate = sampleRate;
+        // maxAudioSecondsPerHint плана, но не дольше общего потолка
+        this.maxUtteranceMs = maxAudioSeconds > 0 ? Math.min(MAX_UTTERANCE_MS, maxAudioSeconds * 1000L) : MAX_UTTERANCE_MS;
+        this.listener = listener;
+    }
+
+    public synchronized void accept(byte[] pcm) {
+        if (pcm.length < 2) return;
+        long chunkMs = bytesToMs(pcm.length);
+        boolean voiced = rms(pcm) >= SILENCE_RMS;
+
+        if (!speaking && !voiced) return; // тишина до начала вопроса не нужна
+        if (finalTask != null && !voiced) return; // вопрос уже отправлен, ждём hint
+        if (finalTask != null && utteranceMs >= maxUtteranceMs) return; // закрыт по лимиту длины — речь до hint не принимаем
+
+        window.writeBytes(pcm);
+        utteranceMs += chunkMs;
+        sinceLastPartial += chunkMs;
+
+        if (voiced) {
+            speaking = true;
+            silentMs = 0;
+            if (finalTask != null) {
+                // вопрос не закончился — спекулятивный hint выкидываем
+                finalTask.cancel(true);
+                finalTask = null;
+                generation++;
+            }
+        } else {
+            silentMs += chunkMs;
+        }
+
+        if (bytesToMs(window.size()) > MAX_WINDOW_MS) {
+            commitWindow();
+        }
+
+        if ((silentMs >= PAUSE_MS || utteranceMs >= maxUtteranceMs) && finalTask == null) {
+            // по паузе или по лимиту длины вопроса из плана
+            finish();
+        } else if (sinceLastPartial >= PARTIAL_EVERY_MS && finalTask == null
+                && (partialTask == null || partialTask.isDone())) {
+            partial();
+        }
+    }
+
+    /**
+     * Клиент явно сказал, что вопрос закончен.
+     */
+    public synchronized void flush() {
+        if (speaking && finalTask == null) finish();
+    }
+
+    public synchronized void close() {
+        generation++;
+        if (partialTask != null) partialTask.cancel(true);
+        if (finalTask != null) finalTask.cancel(true);
+    }
+
+    private void partial() {
+        sinceLastPartial = 0;
+        long gen = generation;
+        byte[] pcm = window.toByteArray();
+        partialTask = executor.submit(() -> {
+            String text = transcribe(pcm);
+            String stable, unstable;
+            synchronized (this) {
+                if (gen != generation || text == null) return;
+                String prefix = commonPrefixWords(lastPartial, text);
+                lastPartial = text;
+                stable = merge(committed, prefix);
+                unstable = text.substring(prefix.length()).strip();
+            }
+            listener.onTranscript(stable, unstable);
+        });
+    }
+
+    private void finish() {
+        long gen = generation;
+        byte[] pcm = window.toByteArray();
+        String base = committed;
+        finalTask = executor.submit(() -> {
+            try (var ignored = usageMeter.bind(licenseKey)) {
+                boolean admit;
+                synchronized (this) {
+                    if (gen != generation) return;
+                    // повторный спекулятивный запуск того же вопроса лимит второй раз не тратит
+                    admit = !admitted;
+                    admitted = true;
+                }
+                if (admit) listener.admitQuestion();
+
+                String tail = transcribe(pcm);
+                String question = merge(base, tail == null ? "" : tail);
+                synchronized (this) {
+                    if (gen != generation) return;
+                    if (question.isBlank()) reset();
+                }
+                listener.onTranscript(question, "");
+                if (question.isBlank()) return;
+
+                var hj = awaitHint(question);
+                synchronized (this) {
+                    if (gen != generation) return;
+                    usageMeter.recordHint(licenseKey, false);
+                    reset();
+                }
+                listener.onHint(question, hj);
+            } catch (InterruptedException e) {
+                // спекулятивный hint отменён; общий запрос досчитается и останется в кэше
+            } catch (ApiException e) {
+                synchronized (this) {
+                    if (gen != generation) return;
+                    reset();
+                }
+                listener.onError(e);
+            } catch (RuntimeException e) {
+                // отменённый спекулятивный запрос — норма
+                synchronized (this) {
+                    if (gen != generation) return;
+                    reset();
+                }
+                log.warn("Live hint failed: {}", e.toString());
+                listener.onError(new ApiException(HttpStatus.BAD_GATEWAY, "LIVE_HINT_ERROR",
+                        "Live hint failed", Map.of("err", String.valueOf(e.getMessage()))));
+            }
+        });
+    }
+
+    /**
+     * hint считается отдельной задачей: cancel(true) спекулятивного finalTask прерывает только ожидание,
+     * а не схлопнутый в HintCache запрос, которого могут ждать другие клиенты с тем же вопросом.
+     * Задача — на своём виртуальном потоке: ждать её из того же пула executor нельзя (на платформенном пуле
+     * все потоки могут оказаться заняты ожидающими).
+     */
+    private OpenAiDtos.HintJson awaitHint(String question) throws InterruptedException {
+        var shared = CompletableFuture.supplyAsync(() -> {
+            try (var ignored = usageMeter.bind(licenseKey)) {
+                return hintCache.hint(question, lang);
+            }
+        }, r -> Thread.ofVirtual().name("live-hint").start(r));
+        try {
+            return shared.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Окно выросло — фиксируем последнее распознавание и оставляем только хвост-перекрытие.
+     */
+    private void commitWindow() {
+        generation++; // незавершённые partial относятся к старому окну
+        committed = merge(committed, lastPartial);
+        lastPartial = "";
+        byte[] pcm = window.toByteArray();
+        int keep = msToBytes(OVERLAP_MS);
+        window = new ByteArrayOutputStream();
+        window.write(pcm, Math.max(0, pcm.length - keep), Math.min(keep, pcm.length));
+    }
+
+    private void reset() {
+        generation++;
+        window = new ByteArrayOutputStream();
+        committed = "";
+        lastPartial = "";
+        speaking = false;
+        silentMs = 0;
+        sinceLastPartial = 0;
+        utteranceMs = 0;
+        finalTask = null;
+        admitted = false;
+    }
+
+    private String transcribe(byte[] pcm) {
+        if (pcm.length == 0) return "";
+        var wav = new ByteArrayResource(Wav.wrapPcm16Mono(pcm, sampleRate));
+        return openAi.transcribe(wav, "live.wav", lang).strip();
+    }
+
+    private long bytesToMs(long bytes) {
+        return bytes * 1000 / (2L * sampleRate);
+    }
+
+    private int msToBytes(long ms) {
+        return (int) (ms * sampleRate / 1000) * 2;
+    }
+
+    private static double rms(byte[] pcm) {
+        var buf = ByteBuffer.wrap(pcm).order(ByteOrder.LITTLE_ENDIAN);
+        int n = pcm.length / 2;
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            int v = buf.getShort(i * 2);
+            sum += (double) v * v;
+        }
+        return Math.sqrt(sum / n);
+    }
+
+    /**
+     * Общий префикс двух распознаваний, по целым словам.
+     */
+    static String commonPrefixWords(String a, String b) {
+        String[] wa = words(a), wb = words(b);
+        int n = 0;
+        while (n < wa.length && n < wb.length && norm(wa[n]).equals(norm(wb[n]))) n++;
+        return String.join(" ", Arrays.copyOf(wb, n));
+    }
+
+    /**
+     * Склейка зафиксированного текста и распознавания следующего окна:
+     * окна перекрываются, поэтому хвост base может повториться в начале next.
+     */
+    static String merge(String base, String next) {
+        String[] wb = words(base), wn = words(next);
+        if (wb.length == 0) return String.join(" ", wn);
+        if (wn.length == 0) return String.join(" ", wb);
+
+        int maxK = Math.min(12, Math.min(wb.length, wn.length));
+        int overlap = 0;
+        for (int k = maxK; k > 0; k--) {
+            boolean eq = true;
+            for (int i = 0; i < k && eq; i++) {
+                eq = norm(wb[wb.length - k + i]).equals(norm(wn[i]));
+            }
+            if (eq) {
+                overlap = k;
+                break;
+            }
+        }
+        List<String> out = new ArrayList<>(Arrays.asList(wb));
+        out.addAll(Arrays.asList(wn).subList(overlap, wn.length));
+        return String.join(" ", out);
+    }
+
+    private static String[] words(String s) {
+        if (s == null || s.isBlank()) return new String[0];
+        return s.strip().split("\\s+");
+    }
+
+    private static String norm(String w) {
+        return w.toLowerCase().replaceAll("[\\p{Punct}«»…]", "");
+    }
+}
@@ -1,39 +1,74 @@
 package org.example.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.example.config.AppProperties;
 import org.example.dto.ApiException;
+import org.example.dto.HintAuditRecord;
 import org.example.dto.OpenAiDtos;
+import org.example.service.ChatRouter.Route;
+import org.example.service.OpenAiTransport.Op;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.AbstractResource;
 import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.StreamingHttpOutputMessage;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.StreamUtils;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClient;
 import org.springframework.web.client.RestClientResponseException;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 @Service
 public class OpenAiClient {
 
     private static final Logger log = LoggerFactory.getLogger(OpenAiClient.class);
 
-    private final RestClient rc;
+    private static final int MAX_IMAGE_BYTES = 20_000_000;
+
+    private final OpenAiTransport transport;
     private final AppProperties props;
     private final ObjectMapper om;
-
-    public OpenAiClient(RestClient openAiRestClient, AppProperties props, ObjectMapper om) {
-        this.rc = openAiRestClient;
+    private final UsageMeter usageMeter;
+    private final UpstreamBulkhead bulkhead;
+    private final UpstreamResilience resilience;
+    private final ChatRouter router;
+    private final ChatTemplates templates;
+    private final ChatResponseParser parser;
+    private final HintAuditLog audit;
+    private final HintMetrics metrics;
+
+    public OpenAiClient(OpenAiTransport transport, AppProperties props, ObjectMapper om, UsageMeter usageMeter,
+                        UpstreamBulkhead bulkhead, UpstreamResilience resilience, ChatRouter router,
+                        HintMetrics metrics, HintAuditLog audit) {
+        this.transport = transport;
         this.props = props;
         this.om = om;
+        this.usageMeter = usageMeter;
+        this.bulkhead = bulkhead;
+        this.resilience = resilience;
+        this.router = router;
+        this.templates = new ChatTemplates(om, router.models());
+        this.parser = new ChatResponseParser(om);
+        this.metrics = metrics;
+        this.audit = audit;
     }
 
     private void ensureApiKey() {
@@ -52,31 +87,60 @@ public class OpenAiClient {
      * Speech-to-text через /audio/transcriptions.
      */
     public String transcribe(MultipartFile audio, String lang) {
+        return transcribe(audio.getResource(), audio.getOriginalFilename(), lang);
+    }
+
+    /**
+     * Speech-to-text из произвольного Resource. Файл уходит в multipart потоком
+     * (для загруженного upload — прямо с диска), целиком в heap не читается.
+     */
+    public String transcribe(Resource audio, String originalFilename, String lang) {
         ensureApiKey();
 
         try {
-            byte[] bytes = audio.getBytes();
-            String filename = (audio.getOriginalFilename() == null || audio.getOriginalFilename().isBlank())
+            String filename = (originalFilename == null || originalFilename.isBlank())
                     ? "audio.wav"
-                    : audio.getOriginalFilename();
+                    : originalFilename;
 
             var body = new LinkedMultiValueMap<String, Object>();
             body.add("model", props.openai().sttModel());
             if (lang != null && !lang.isBlank()) body.add("language", lang);
 
-            body.add("file", new ByteArrayResource(bytes) {
+            body.add("file", new AbstractResource() {
                 @Override
                 public String getFilename() {
                     return filename;
                 }
+
+                @Override
+                public String getDescription() {
+                    return "audio [" + filename + "]";
+                }
+
+                @Override
+                public long contentLength() throws IOException {
+                    return audio.contentLength();
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return audio.getInputStream();
+                }
             });
 
-            var resp = rc.post()
-                    .uri("/audio/transcriptions")
-                    .contentType(MediaType.MULTIPART_FORM_DATA)
-                    .body(body)
-                    .retrieve()
-                    .body(OpenAiDtos.TranscriptionResponse.class);
+            metrics.payload("upstream_request", Op.STT, audio.contentLength());
+            long t0 = System.nanoTime();
+            OpenAiDtos.TranscriptionResponse resp;
+            try {
+                resp = bulkhead.call(() -> transport.call(Op.STT, () -> transport.client(Op.STT).post()
+                        .uri("/audio/transcriptions")
+                        .contentType(MediaType.MULTIPART_FORM_DATA)
+                        .body(body)
+                        .retrieve()
+                        .body(OpenAiDtos.TranscriptionResponse.class)));
+            } finally {
+                metrics.phase("upstream_total", System.nanoTime() - t0, Op.STT, null);
+            }
 
             if (resp == null || resp.text() == null) {
                 throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_STT_EMPTY", "Empty STT response", Map.of());
@@ -96,70 +160,32 @@ public class OpenAiClient {
      * Важно: здесь НЕ используем schema для snapshot, чтобы не мешать.
      */
     public OpenAiDtos.HintJson hintFromTranscript(String transcript, String lang) {
+        return hintFromTranscript(transcript, lang, SessionService.Context.NONE);
+    }
+
+    /**
+     * То же в рамках сессии: профиль и история из {@link SessionService} идут перед вопросом.
+     */
+    public OpenAiDtos.HintJson hintFromTranscript(String transcript, String lang, SessionService.Context session) {
         ensureApiKey();
 
-        String system = """
-                Ты ассистент на собеседовании.
-                Дай максимально конкретный ответ по тексту вопроса.
-                
-                Верни строго JSON:
-                {"hint":"...","nextSteps":["...","..."]}
-                
-                Без markdown. Без лишних полей.
-                """;
-
-        var req = Map.of(
-                "model", props.openai().chatModel(),
-                "reasoning_effort", "minimal",
-                "max_completion_tokens", 900,
-                "messages", List.of(
-                        Map.of("role", "system", "content", system),
-                        Map.of("role", "user", "content", "Текст вопроса/контекст:\n" + transcript)
-                )
-        );
+        Route route = router.text(transcript);
 
         try {
-            String raw = rc.post()
-                    .uri("/chat/completions")
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .body(req)
-                    .retrieve()
-                    .body(String.class);
-
-            if (raw == null || raw.isBlank()) {
-                throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_RAW_EMPTY", "Empty raw response from OpenAI", Map.of());
-            }
-
-            log.info("OpenAI hint raw response: {}", trunc(raw, 2000));
-
-            JsonNode root = om.readTree(raw);
-            String finish = root.path("choices").path(0).path("finish_reason").asText(null);
-            String content = extractAssistantContent(root);
-
-            if ("length".equals(finish) && (content == null || content.isBlank())) {
-                throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_TRUNCATED",
-                        "Model hit token limit before producing visible output. Increase max_completion_tokens and/or reduce reasoning_effort.",
-                        Map.of("finish_reason", finish));
-            }
+            long t0 = System.nanoTime();
+            Completion c = complete(Op.TEXT, route,
+                    (maxTokens, continuation) -> hintRequest(transcript, session, route.model(), maxTokens, continuation, false));
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+            router.record(route, ms, c.continuations());
+            audit("hint", false, route, lang, transcript, session, null, null, null, c, ms);
 
-            if (content == null || content.isBlank()) {
-                throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_EMPTY", "Empty chat response", Map.of("raw", trunc(raw, 2000)));
-            }
-
-            // content должен быть JSON
-            JsonNode node = om.readTree(content);
-            if (!node.hasNonNull("hint")) {
-                throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_BAD_JSON",
-                        "Model returned JSON without expected fields", Map.of("content", trunc(content, 1200)));
-            }
-
-            return om.treeToValue(node, OpenAiDtos.HintJson.class);
+            return toHintJson(c.content(), c.finishReason());
 
         } catch (RestClientResponseException e) {
             String body = e.getResponseBodyAsString();
-            log.error("OpenAI hint HTTP error status={} body={}", e.getRawStatusCode(), trunc(body, 2000));
+            log.error("OpenAI hint HTTP error status={} body={}", e.getStatusCode().value(), trunc(body, 2000));
             throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_HTTP",
-                    "HTTP " + e.getRawStatusCode() + " from OpenAI", Map.of("body", trunc(body, 2000)));
+                    "HTTP " + e.getStatusCode().value() + " from OpenAI", Map.of("body", trunc(body, 2000)));
 
         } catch (ResourceAccessException e) {
             log.error("OpenAI hint network/timeout error: {}", e.getMessage());
@@ -182,126 +208,132 @@ public class OpenAiClient {
      * - max_completion_tokens с запасом
      */
     public OpenAiDtos.SnapshotJson analyzeScreenshot(byte[] imageBytes, String contentType, String lang, String question) {
+        return analyzeScreenshot(imageBytes == null ? null : new ByteArrayResource(imageBytes), contentType, "high", lang, question);
+    }
+
+    /**
+     * То же с явным detail (low/high) — его выбирает {@link ImagePreprocessor}.
+     * Картинка читается из image потоком прямо в тело HTTP-запроса (см. {@link VisionBody}).
+     */
+    public OpenAiDtos.SnapshotJson analyzeScreenshot(Resource image, String contentType, String detail, String lang, String question) {
+        return analyzeScreenshot(image, contentType, detail, lang, question, SessionService.Context.NONE);
+    }
+
+    public OpenAiDtos.SnapshotJson analyzeScreenshot(Resource image, String contentType, String detail, String lang, String question,
+                                                     SessionService.Context session) {
         ensureApiKey();
+        long size = checkImage(image);
 
-        if (imageBytes == null || imageBytes.length == 0) {
-            throw new ApiException("BAD_IMAGE", "Image is empty");
-        }
-        // На время отладки: чтобы точно не упереться в лимиты payload
-        if (imageBytes.length > 3_000_000) {
-            throw new ApiException("IMAGE_TOO_LARGE", "Image too large for debug (max 3MB). bytes=" + imageBytes.length);
+        Route route = router.vision(question, detail);
+
+        try {
+            long t0 = System.nanoTime();
+            Completion c = complete(Op.VISION, route, (maxTokens, continuation) ->
+                    snapshotRequest(image, size, contentType, detail, question, session, route.model(), maxTokens, continuation, false));
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+            router.record(route, ms, c.continuations());
+            audit("vision", false, route, lang, question, session, null, size, detail, c, ms);
+
+            return toSnapshotJson(c.content(), c.finishReason());
+
+        } catch (RestClientResponseException e) {
+            String body = e.getResponseBodyAsString();
+            log.error("OpenAI vision HTTP error status={} body={}", e.getStatusCode().value(), trunc(body, 2000));
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_VISION_HTTP",
+                    "HTTP " + e.getStatusCode().value() + " from OpenAI", Map.of("body", trunc(body, 2000)));
+
+        } catch (ResourceAccessException e) {
+            log.error("OpenAI vision network/timeout error: {}", e.getMessage());
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_VISION_NETWORK",
+                    "Network/timeout: " + e.getMessage(), Map.of());
+
+        } catch (ApiException e) {
+            throw e;
+
+        } catch (Exception e) {
+            log.error("OpenAI vision unexpected error", e);
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_VISION_ERROR",
+                    "Unexpected: " + e.getMessage(), Map.of("err", e.getMessage()));
         }
+    }
 
-        String mime = (contentType == null || contentType.isBlank()) ? "image/png" : contentType;
-        String b64 = Base64.getEncoder().encodeToString(imageBytes);
-        String dataUrl = "data:" + mime + ";base64," + b64;
-
-        String system = """
-                Ты ассистент на собеседовании. На входе: вопрос пользователя + один скриншот.
-                
-                                           Сначала определи taskType:
-                                           LIVE_CODING | CODE_REVIEW | ARCHITECTURE | DEBUG | THEORY | UNKNOWN.
-                
-                                           Правила:
-                                           - Если по скриншоту и вопросу НЕТ явной задачи (нет формулировки, нет кода/логов/диаграммы, или контекст обрывочный) — ставь UNKNOWN.
-                                           - Для НЕ-UNKNOWN: отвечай уверенно и конкретно, без "кажется/возможно", без вопросов к пользователю.
-                                           - Для UNKNOWN: НЕ придумывай детали. Дай:
-                                             1) кратко: что видно и чего не хватает,
-                                             2) 1–3 уточняющих вопроса (самые важные),
-                                             3) что можно сделать прямо сейчас (общий лучший совет по теме).
-                
-                                           Формат ответа: строго JSON по схеме.
-                """;
-
-        var userContent = List.of(
-                Map.of("type", "text", "text", "Вопрос:\n" + question + "\n\nДай ответ, используя скриншот как контекст."),
-                Map.of("type", "image_url", "image_url", Map.of("url", dataUrl, "detail", "high"))
-        );
+    /**
+     * Streaming-вариант {@link #hintFromTranscript}: запрос с stream=true,
+     * куски поля "hint" отдаются в onDelta по мере прихода, в конце — полный HintJson.
+     */
+    public OpenAiDtos.HintJson streamHintFromTranscript(String transcript, String lang, Consumer<String> onDelta) {
+        return streamHintFromTranscript(transcript, lang, SessionService.Context.NONE, onDelta);
+    }
 
-        var schema = Map.of(
-                "name", "universal_snapshot_response",
-                "schema", Map.of(
-                        "type", "object",
-                        "additionalProperties", false,
-                        "properties", Map.of(
-                                "taskType", Map.of(
-                                        "type", "string",
-                                        "enum", List.of("LIVE_CODING", "CODE_REVIEW", "ARCHITECTURE", "DEBUG", "THEORY", "UNKNOWN")
-                                ),
-                                "output", Map.of("type", "string"),
-                                "code", Map.of("type", "string"),
-                                "checklist", Map.of("type", "array", "items", Map.of("type", "string")),
-                                "questions", Map.of("type", "array", "items", Map.of("type", "string")),
-                                "nextSteps", Map.of("type", "array", "items", Map.of("type", "string"))
-                        ),
-                        "required", List.of("taskType", "output", "code", "checklist", "questions", "nextSteps")
-                )
-        );
+    public OpenAiDtos.HintJson streamHintFromTranscript(String transcript, String lang, SessionService.Context session,
+                                                        Consumer<String> onDelta) {
+        ensureApiKey();
 
-        var req = Map.of(
-                "model", props.openai().chatModel(),
-                "reasoning_effort", "minimal",
-                "max_completion_tokens", 1800,
-                "response_format", Map.of(
-                        "type", "json_schema",
-                        "json_schema", schema
-                ),
-                "messages", List.of(
-                        Map.of("role", "system", "content", system),
-                        Map.of("role", "user", "content", userContent)
-                )
-        );
+        Route route = router.text(transcript);
 
         try {
-            String raw = rc.post()
-                    .uri("/chat/completions")
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .body(req)
-                    .retrieve()
-                    .body(String.class);
-
-            if (raw == null || raw.isBlank()) {
-                throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_RAW_EMPTY", "Empty raw response from OpenAI", Map.of());
-            }
+            long t0 = System.nanoTime();
+            Completion c = streamComplete(Op.TEXT, route, "hint", onDelta,
+                    (maxTokens, continuation) -> hintRequest(transcript, session, route.model(), maxTokens, continuation, true));
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+            router.record(route, ms, c.continuations());
+            audit("hint", true, route, lang, transcript, session, null, null, null, c, ms);
+            return toHintJson(c.content(), c.finishReason());
 
-            log.info("OpenAI raw response: {}", trunc(raw, 2000));
+        } catch (RestClientResponseException e) {
+            String body = e.getResponseBodyAsString();
+            log.error("OpenAI hint stream HTTP error status={} body={}", e.getStatusCode().value(), trunc(body, 2000));
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_HTTP",
+                    "HTTP " + e.getStatusCode().value() + " from OpenAI", Map.of("body", trunc(body, 2000)));
 
-            JsonNode root = om.readTree(raw);
-            String finish = root.path("choices").path(0).path("finish_reason").asText(null);
-            String content = extractAssistantContent(root);
+        } catch (ResourceAccessException e) {
+            log.error("OpenAI hint stream network/timeout error: {}", e.getMessage());
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_NETWORK",
+                    "Network/timeout: " + e.getMessage(), Map.of());
 
-            if ("length".equals(finish) && (content == null || content.isBlank())) {
-                throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_VISION_TRUNCATED",
-                        "Model hit token limit before producing visible output. Increase max_completion_tokens and/or reduce reasoning_effort.",
-                        Map.of("finish_reason", finish));
-            }
+        } catch (ApiException e) {
+            throw e;
 
-            if (content == null || content.isBlank()) {
-                throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_VISION_EMPTY",
-                        "Empty content from OpenAI (parsed)", Map.of("raw", trunc(raw, 2000)));
-            }
+        } catch (Exception e) {
+            log.error("OpenAI hint stream unexpected error", e);
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_ERROR", "Chat call failed", Map.of("err", String.valueOf(e.getMessage())));
+        }
+    }
 
-            log.info("OpenAI vision content: {}", trunc(content, 1200));
+    /**
+     * Streaming-вариант {@link #analyzeScreenshot}: куски поля "output" отдаются в onDelta,
+     * в конце — полный SnapshotJson.
+     */
+    public OpenAiDtos.SnapshotJson streamAnalyzeScreenshot(Resource image, String contentType, String detail, String lang,
+                                                           String question, Consumer<String> onDelta) {
+        return streamAnalyzeScreenshot(image, contentType, detail, lang, question, SessionService.Context.NONE, onDelta);
+    }
 
-            // content должен быть JSON (мы же просим json_schema)
-            JsonNode node = om.readTree(content);
+    public OpenAiDtos.SnapshotJson streamAnalyzeScreenshot(Resource image, String contentType, String detail, String lang,
+                                                           String question, SessionService.Context session,
+                                                           Consumer<String> onDelta) {
+        ensureApiKey();
+        long size = checkImage(image);
 
-            if (!node.hasNonNull("taskType") || !node.hasNonNull("output") || !node.has("nextSteps")) {
-                throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_VISION_BAD_JSON",
-                        "Model returned JSON without expected fields",
-                        Map.of("content", trunc(content, 1200)));
-            }
+        Route route = router.vision(question, detail);
 
-            return om.treeToValue(node, OpenAiDtos.SnapshotJson.class);
+        try {
+            long t0 = System.nanoTime();
+            Completion c = streamComplete(Op.VISION, route, "output", onDelta, (maxTokens, continuation) ->
+                    snapshotRequest(image, size, contentType, detail, question, session, route.model(), maxTokens, continuation, true));
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+            router.record(route, ms, c.continuations());
+            audit("vision", true, route, lang, question, session, null, size, detail, c, ms);
+            return toSnapshotJson(c.content(), c.finishReason());
 
         } catch (RestClientResponseException e) {
             String body = e.getResponseBodyAsString();
-            log.error("OpenAI vision HTTP error status={} body={}", e.getRawStatusCode(), trunc(body, 2000));
+            log.error("OpenAI vision stream HTTP error status={} body={}", e.getStatusCode().value(), trunc(body, 2000));
             throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_VISION_HTTP",
-                    "HTTP " + e.getRawStatusCode() + " from OpenAI", Map.of("body", trunc(body, 2000)));
+                    "HTTP " + e.getStatusCode().value() + " from OpenAI", Map.of("body", trunc(body, 2000)));
 
         } catch (ResourceAccessException e) {
-            log.error("OpenAI vision network/timeout error: {}", e.getMessage());
+            log.error("OpenAI vision stream network/timeout error: {}", e.getMessage());
             throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_VISION_NETWORK",
                     "Network/timeout: " + e.getMessage(), Map.of());
 
@@ -309,41 +341,424 @@ public class OpenAiClient {
             throw e;
 
         } catch (Exception e) {
-            log.error("OpenAI vision unexpected error", e);
+            log.error("OpenAI vision stream unexpected error", e);
             throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_VISION_ERROR",
-                    "Unexpected: " + e.getMessage(), Map.of("err", e.getMessage()));
+                    "Unexpected: " + e.getMessage(), Map.of("err", String.valueOf(e.getMessage())));
+        }
+    }
+
+    /**
+     * Подробнее по уже выданной подсказке: только текст сохранённого контекста, без картинки.
+     * Если onDelta не null — запрос идёт стримом, куски поля "details" отдаются по мере прихода.
+     */
+    public OpenAiDtos.ExpandJson expandHint(HintStore.Entry hint, int maxWords, Consumer<String> onDelta) {
+        ensureApiKey();
+
+        Route route = router.expand(hint.taskType(), maxWords);
+
+        try {
+            long t0 = System.nanoTime();
+            ChatRequest request = (maxTokens, continuation) -> templates.expand(
+                    route.model(), hint.context(), hint.lang(), maxWords, maxTokens, continuation, onDelta != null);
+            Completion c = onDelta == null
+                    ? complete(Op.TEXT, route, request)
+                    : streamComplete(Op.TEXT, route, "details", onDelta, request);
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+            router.record(route, ms, c.continuations());
+            audit("expand", onDelta != null, route, hint.lang(), hint.context(), SessionService.Context.NONE, maxWords, null, null, c, ms);
+
+            return toExpandJson(c.content(), c.finishReason());
+
+        } catch (RestClientResponseException e) {
+            String body = e.getResponseBodyAsString();
+            log.error("OpenAI expand HTTP error status={} body={}", e.getStatusCode().value(), trunc(body, 2000));
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_HTTP",
+                    "HTTP " + e.getStatusCode().value() + " from OpenAI", Map.of("body", trunc(body, 2000)));
+
+        } catch (ResourceAccessException e) {
+            log.error("OpenAI expand network/timeout error: {}", e.getMessage());
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_NETWORK",
+                    "Network/timeout: " + e.getMessage(), Map.of());
+
+        } catch (ApiException e) {
+            throw e;
+
+        } catch (Exception e) {
+            log.error("OpenAI expand unexpected error", e);
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_ERROR", "Chat call failed", Map.of("err", String.valueOf(e.getMessage())));
         }
     }
 
+    private record StreamResult(String content, String finishReason, OpenAiDtos.ChatCompletionResponse.Usage usage) {}
+
+    /**
+     * Итог вызова с продолжениями: content склеен из всех кусков.
+     */
+    private record Completion(String content, String finishReason, int continuations,
+                              OpenAiDtos.ChatCompletionResponse.Usage usage) {}
+
     /**
-     * Достаёт текст ассистента из chat.completion ответа.
-     * Поддерживает:
-     * - content как строка
-     * - content как массив частей [{text:"..."}, ...]
+     * Собирает тело запроса под бюджет и (если ответ продолжается) хвост диалога с уже полученным куском.
      */
-    private String extractAssistantContent(JsonNode root) {
-        JsonNode msg = root.path("choices").path(0).path("message");
-        JsonNode content = msg.path("content");
+    @FunctionalInterface
+    private interface ChatRequest {
+        Object build(int maxTokens, List<Map<String, Object>> continuation);
+    }
+
+    private static final String CONTINUE_PROMPT =
+            "Ответ оборвался по лимиту токенов. Продолжи ровно с того символа, где остановился: " +
+            "без повторов, без пояснений, только продолжение того же JSON.";
 
-        if (content.isTextual()) {
-            return content.asText();
+    private static List<Map<String, Object>> continuation(CharSequence partial) {
+        if (partial.isEmpty()) return List.of();
+        return List.of(
+                Map.of("role", "assistant", "content", partial.toString()),
+                Map.of("role", "user", "content", CONTINUE_PROMPT)
+        );
+    }
+
+    /**
+     * Вызов с автопродолжением по finish_reason=length (до app.routing.maxContinuations раз).
+     * Если модель не успела выдать ни символа (весь бюджет ушёл в reasoning) — повтор с удвоенным бюджетом.
+     */
+    private Completion complete(Op op, Route route, ChatRequest request) throws IOException {
+        var content = new StringBuilder();
+        OpenAiDtos.ChatCompletionResponse.Usage usage = null;
+        int maxTokens = route.maxTokens();
+        for (int i = 0; ; i++) {
+            var reply = postChat(op, route, request.build(maxTokens, continuation(content)));
+            router.recordUsage(route, recordUsage(reply.usage()));
+            metrics.tokens(route, reply.usage());
+            usage = plus(usage, reply.usage());
+            String finish = reply.finishReason();
+            if (reply.content() != null) content.append(reply.content());
+
+            if (!"length".equals(finish) || i >= router.maxContinuations()) {
+                return new Completion(content.toString(), finish, i, usage);
+            }
+            if (content.isEmpty()) maxTokens *= 2;
+            log.info("OpenAI {} hit token limit, continuing with budget {} ({} chars so far)", route.name(), maxTokens, content.length());
         }
+    }
 
-        if (content.isArray()) {
-            StringBuilder sb = new StringBuilder();
-            for (JsonNode part : content) {
-                JsonNode t = part.get("text");
-                if (t != null && t.isTextual()) sb.append(t.asText());
+    /**
+     * То же для стрима: все продолжения кормят один JsonStringFieldStream, клиент видит непрерывный текст.
+     */
+    private Completion streamComplete(Op op, Route route, String field, Consumer<String> onDelta, ChatRequest request) {
+        var fieldStream = new JsonStringFieldStream(field);
+        OpenAiDtos.ChatCompletionResponse.Usage usage = null;
+        int maxTokens = route.maxTokens();
+        for (int i = 0; ; i++) {
+            StreamResult r = streamChat(route, request.build(maxTokens, continuation(fieldStream.content())), fieldStream, onDelta);
+            router.recordUsage(route, r.usage());
+            metrics.tokens(route, r.usage());
+            usage = plus(usage, r.usage());
+            String content = fieldStream.content();
+
+            if (!"length".equals(r.finishReason()) || i >= router.maxContinuations()) {
+                return new Completion(content, r.finishReason(), i, usage);
             }
-            String joined = sb.toString().trim();
-            if (!joined.isBlank()) return joined;
+            if (content.isEmpty()) maxTokens *= 2;
+            log.info("OpenAI {} stream hit token limit, continuing with budget {} ({} chars so far)", route.name(), maxTokens, content.length());
+        }
+    }
+
+    /**
+     * Читает SSE-поток chat.completion.chunk: склеивает delta.content и отдаёт наружу
+     * только текст указанного поля нашего JSON (чтобы клиент не видел сырой JSON).
+     */
+    private StreamResult streamChat(Route route, Object req, JsonStringFieldStream fieldStream, Consumer<String> onDelta) {
+        // слот bulkhead держится весь стрим: соединение с upstream занято до последнего чанка
+        Op op = req instanceof VisionBody ? Op.VISION : Op.TEXT;
+        var started = new AtomicBoolean();
+        metrics.payload("upstream_request", op, bodyLength(req));
+        long t0 = System.nanoTime();
+        try {
+            return resilience.callStream(op, started::get, budget -> bulkhead.call(() -> transport.call(op, budget, () -> streamAttempt(
+                    op, route, req, fieldStream, onDelta, started))));
+        } finally {
+            metrics.phase("upstream_total", System.nanoTime() - t0, op, route);
         }
+    }
+
+    private StreamResult streamAttempt(Op op, Route route, Object req, JsonStringFieldStream fieldStream,
+                                       Consumer<String> onDelta, AtomicBoolean started) {
+        long sent = System.nanoTime();
+        return chatPost(req)
+                .exchange((request, response) -> {
+                    metrics.phase("upstream_ttfb", System.nanoTime() - sent, op, route);
+                    if (response.getStatusCode().isError()) {
+                        // как у retrieve(): статус и заголовки (Retry-After) нужны UpstreamResilience
+                        throw new RestClientResponseException("HTTP " + response.getStatusCode().value() + " from OpenAI",
+                                response.getStatusCode(), response.getStatusText(), response.getHeaders(),
+                                response.getBody().readAllBytes(), StandardCharsets.UTF_8);
+                    }
+
+                    var content = new StringBuilder();
+                    String finish = null;
+                    OpenAiDtos.ChatCompletionResponse.Usage usage = null;
+                    long parseNanos = 0;
+                    long bytes = 0;
+
+                    try (var reader = new BufferedReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8))) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            bytes += line.length() + 1;
+                            if (!line.startsWith("data:")) continue;
+                            String data = line.substring(5).trim();
+                            if (data.isEmpty()) continue;
+                            if ("[DONE]".equals(data)) break;
+
+                            long p0 = System.nanoTime();
+                            var chunk = parser.chunk(data);
+                            parseNanos += System.nanoTime() - p0;
+                            // при stream_options.include_usage последний chunk несёт usage (choices пустой)
+                            if (chunk.usage() != null) usage = recordUsage(chunk.usage());
+                            String delta = chunk.content();
+                            if (delta != null && !delta.isEmpty()) {
+                                // префикс JSON уже в общем fieldStream: повтор допишет второй ответ следом, поэтому дальше не ретраим
+                                started.set(true);
+                                content.append(delta);
+                                String text = fieldStream.feed(delta);
+                                if (!text.isEmpty()) onDelta.accept(text);
+                            }
+                            if (chunk.finishReason() != null) finish = chunk.finishReason();
+                        }
+                    }
+                    metrics.phase("parse", parseNanos, op, route);
+                    metrics.payload("upstream_response", op, bytes);
+                    return new StreamResult(content.toString(), finish, usage);
+                });
+    }
+
+    private byte[] hintRequest(String transcript, SessionService.Context session, String model, int maxTokens,
+                               List<Map<String, Object>> continuation, boolean stream) {
+        return templates.hint(model, session, transcript, maxTokens, continuation, stream);
+    }
+
+    private static OpenAiDtos.ChatCompletionResponse.Usage plus(OpenAiDtos.ChatCompletionResponse.Usage a,
+                                                               OpenAiDtos.ChatCompletionResponse.Usage b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        long cached = cached(a) + cached(b);
+        return new OpenAiDtos.ChatCompletionResponse.Usage(a.prompt_tokens() + b.prompt_tokens(),
+                a.completion_tokens() + b.completion_tokens(), a.total_tokens() + b.total_tokens(),
+                new OpenAiDtos.ChatCompletionResponse.PromptTokensDetails(cached));
+    }
+
+    private static long cached(OpenAiDtos.ChatCompletionResponse.Usage u) {
+        return u == null || u.prompt_tokens_details() == null ? 0 : u.prompt_tokens_details().cached_tokens();
+    }
 
-        JsonNode refusal = msg.get("refusal");
-        if (refusal != null && refusal.isTextual()) {
-            return ""; // считаем пустым, можно прокинуть отдельно при желании
+    /**
+     * Полный ответ модели — в аудит-лог (асинхронно, {@link HintAuditLog}); пишется до разбора JSON,
+     * чтобы в лог попадали и ответы, которые потом не распарсились.
+     */
+    private void audit(String kind, boolean stream, Route route, String lang, String input, SessionService.Context session,
+                       Integer maxWords, Long imageBytes, String detail, Completion c, long latencyMs) {
+        var u = c.usage();
+        audit.append(new HintAuditRecord(System.currentTimeMillis(), kind, stream, route.name(), route.model(),
+                UsageMeter.currentLicense(), null, lang, input, session.history().size() / 2, maxWords, imageBytes, detail,
+                c.content(), c.finishReason(), c.continuations(), latencyMs,
+                u == null ? 0 : u.prompt_tokens(), u == null ? 0 : u.completion_tokens(), cached(u)));
+    }
+
+    private OpenAiDtos.ChatCompletionResponse.Usage recordUsage(OpenAiDtos.ChatCompletionResponse.Usage usage) {
+        if (usage != null) usageMeter.recordTokens(usage);
+        return usage;
+    }
+
+    private static long checkImage(Resource image) {
+        long size;
+        try {
+            size = image == null ? 0 : image.contentLength();
+        } catch (IOException e) {
+            throw new ApiException("BAD_IMAGE", "Image is not readable");
         }
+        if (size <= 0) {
+            throw new ApiException("BAD_IMAGE", "Image is empty");
+        }
+        // лимит OpenAI на одну картинку; обычно сюда приходит уже ужатое ImagePreprocessor'ом
+        if (size > MAX_IMAGE_BYTES) {
+            throw new ApiException("IMAGE_TOO_LARGE", "Image too large (max 20MB). bytes=" + size);
+        }
+        return size;
+    }
 
-        return null;
+    /**
+     * Не стриминговый /chat/completions: hedging и повторы ({@link UpstreamResilience}),
+     * каждая попытка — со своим слотом bulkhead и остатком общего дедлайна.
+     */
+    private ChatResponseParser.Reply postChat(Op op, Route route, Object req) {
+        metrics.payload("upstream_request", op, bodyLength(req));
+        long t0 = System.nanoTime();
+        try {
+            return resilience.call(op, budget -> bulkhead.call(() -> transport.call(op, budget, () -> postAttempt(op, route, req))));
+        } finally {
+            metrics.phase("upstream_total", System.nanoTime() - t0, op, route);
+        }
+    }
+
+    private ChatResponseParser.Reply postAttempt(Op op, Route route, Object req) {
+        long sent = System.nanoTime();
+        return chatPost(req)
+                .exchange((request, response) -> {
+                    metrics.phase("upstream_ttfb", System.nanoTime() - sent, op, route);
+                    metrics.payload("upstream_response", op, response.getHeaders().getContentLength());
+                    if (response.getStatusCode().isError()) {
+                        throw new RestClientResponseException("HTTP " + response.getStatusCode().value() + " from OpenAI",
+                                response.getStatusCode(), response.getStatusText(), response.getHeaders(),
+                                response.getBody().readAllBytes(), StandardCharsets.UTF_8);
+                    }
+                    return parseReply(op, route, () -> parser.completion(response.getBody()));
+                });
+    }
+
+    @FunctionalInterface
+    private interface ReplyReader {
+        ChatResponseParser.Reply read() throws IOException;
+    }
+
+    private ChatResponseParser.Reply parseReply(Op op, Route route, ReplyReader reader) {
+        long t0 = System.nanoTime();
+        try {
+            return reader.read();
+        } catch (IOException e) {
+            // тело не копится, поэтому в ошибке — позиция парсера, а не raw
+            log.error("OpenAI {} response is not valid chat.completion JSON: {}", op, e.getMessage());
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_RAW_INVALID", "Malformed response from OpenAI",
+                    Map.of("err", String.valueOf(e.getMessage())));
+        } finally {
+            metrics.phase("parse", System.nanoTime() - t0, op, route);
+        }
+    }
+
+    private static long bodyLength(Object req) {
+        if (req instanceof VisionBody vb) return vb.length();
+        if (req instanceof byte[] json) return json.length;
+        return -1;
+    }
+
+    private RestClient.RequestBodySpec chatPost(Object req) {
+        var spec = transport.client(req instanceof VisionBody ? Op.VISION : Op.TEXT).post()
+                .uri("/chat/completions")
+                .contentType(MediaType.APPLICATION_JSON);
+        if (req instanceof VisionBody vb) {
+            spec.contentLength(vb.length());
+            spec.body(vb);
+        } else if (req instanceof byte[] json) {
+            spec.contentLength(json.length);
+            spec.body(json);
+        } else {
+            spec.body(req);
+        }
+        return spec;
+    }
+
+    /**
+     * Тело vision-запроса без копий картинки в heap: JSON-конверт собирается из {@link ChatTemplates}
+     * и режется на месте base64, а картинка кодируется в base64 на лету
+     * прямо из image в выходной поток HTTP-клиента. Пик памяти — буфер transferTo, а не ~5x размера картинки.
+     */
+    record VisionBody(byte[] head, Resource image, byte[] tail, long length) implements StreamingHttpOutputMessage.Body {
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(head);
+            try (var b64 = Base64.getEncoder().wrap(StreamUtils.nonClosing(out));
+                 var in = image.getInputStream()) {
+                in.transferTo(b64);
+            }
+            out.write(tail);
+        }
+
+        @Override
+        public boolean repeatable() {
+            return true;
+        }
+    }
+
+    private VisionBody snapshotRequest(Resource image, long size, String contentType, String detail, String question,
+                                       SessionService.Context session, String model, int maxTokens, List<Map<String, Object>> continuation, boolean stream) {
+        String mime = (contentType == null || contentType.isBlank()) ? "image/png" : contentType;
+        var parts = templates.vision(model, session, question, mime, detail == null ? "high" : detail, maxTokens, continuation, stream);
+        long b64Len = 4 * ((size + 2) / 3);
+        return new VisionBody(parts.head(), image, parts.tail(), parts.head().length + b64Len + parts.tail().length);
+    }
+
+    private OpenAiDtos.HintJson toHintJson(String content, String finish) throws Exception {
+        // сюда length доходит, только если продолжения не помогли
+        if ("length".equals(finish)) {
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_TRUNCATED",
+                    "Model hit token limit even after continuations. Increase app.routing budgets or maxContinuations.",
+                    Map.of("finish_reason", finish));
+        }
+
+        if (content == null || content.isBlank()) {
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_EMPTY", "Empty chat response",
+                    Map.of("finish_reason", String.valueOf(finish)));
+        }
+
+        // content должен быть JSON — сразу в record, без промежуточного дерева
+        OpenAiDtos.HintJson hj = readContent(content, OpenAiDtos.HintJson.class, "OPENAI_CHAT_BAD_JSON");
+        if (hj == null || hj.hint() == null) {
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_BAD_JSON",
+                    "Model returned JSON without expected fields", Map.of("content", trunc(content, 1200)));
+        }
+        return hj;
+    }
+
+    private OpenAiDtos.ExpandJson toExpandJson(String content, String finish) {
+        if ("length".equals(finish)) {
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_TRUNCATED",
+                    "Model hit token limit even after continuations. Lower maxWords or raise app.routing.maxContinuations.",
+                    Map.of("finish_reason", finish));
+        }
+
+        if (content == null || content.isBlank()) {
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_EMPTY", "Empty chat response",
+                    Map.of("finish_reason", String.valueOf(finish)));
+        }
+
+        OpenAiDtos.ExpandJson ej = readContent(content, OpenAiDtos.ExpandJson.class, "OPENAI_CHAT_BAD_JSON");
+        if (ej == null || ej.details() == null) {
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_CHAT_BAD_JSON",
+                    "Model returned JSON without expected fields", Map.of("content", trunc(content, 1200)));
+        }
+        return ej;
+    }
+
+    private OpenAiDtos.SnapshotJson toSnapshotJson(String content, String finish) throws Exception {
+        if ("length".equals(finish)) {
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_VISION_TRUNCATED",
+                    "Model hit token limit even after continuations. Increase app.routing budgets or maxContinuations.",
+                    Map.of("finish_reason", finish));
+        }
+
+        if (content == null || content.isBlank()) {
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_VISION_EMPTY",
+                    "Empty content from OpenAI (parsed)", Map.of("finish_reason", String.valueOf(finish)));
+        }
+
+        // content должен быть JSON (мы же просим json_schema)
+        OpenAiDtos.SnapshotJson sj = readContent(content, OpenAiDtos.SnapshotJson.class, "OPENAI_VISION_BAD_JSON");
+        if (sj == null || sj.taskType() == null || sj.output() == null || sj.nextSteps() == null) {
+            throw new ApiException(HttpStatus.BAD_GATEWAY, "OPENAI_VISION_BAD_JSON",
+                    "Model returned JSON without expected fields",
+                    Map.of("content", trunc(content, 1200)));
+        }
+        return sj;
+    }
+
+    private <T> T readContent(String content, Class<T> type, String errorCode) {
+        long t0 = System.nanoTime();
+        try {
+            return om.readValue(content, type);
+        } catch (JsonProcessingException e) {
+            throw new ApiException(HttpStatus.BAD_GATEWAY, errorCode, "Model returned invalid JSON",
+                    Map.of("content", trunc(content, 1200), "err", String.valueOf(e.getOriginalMessage())));
+        } finally {
+            metrics.phase("parse", System.nanoTime() - t0, type == OpenAiDtos.SnapshotJson.class ? Op.VISION : Op.TEXT, null);
+        }
     }
 }
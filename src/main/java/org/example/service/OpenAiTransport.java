@@ -0,0 +1,262 @@
+package org.example.service;
+
+import org.example.config.AppProperties;
+import org.example.dto.ApiException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * HTTP-транспорт до OpenAI.
+ * <p>
+ * Один общий JDK HttpClient (HTTP/2: все запросы мультиплексируются в одно TLS-соединение) со своим executor'ом.
+ * Поверх него — по RestClient на операцию ({@link Op}) со своим read-таймаутом (до заголовков ответа)
+ * и общий дедлайн на весь вызов ({@link #call}), включая чтение стрима.
+ * <p>
+ * На старте и потом раз в keepWarmInterval дёргаем GET /models, чтобы первый пользовательский запрос
+ * не платил за DNS + TCP + TLS, а соединение не закрывалось по простою.
+ */
+public class OpenAiTransport implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(OpenAiTransport.class);
+
+    public enum Op { STT, TEXT, VISION }
+
+    public record Timeouts(Duration read, Duration total) {}
+
+    /**
+     * Последний успешный и последний неудачный контакт с upstream (ping или реальный вызов); null — не было.
+     */
+    public record Contact(Instant lastOk, Instant lastFailure, String lastError) {}
+
+    private final HttpClient http;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService deadlines;
+    private final Map<Op, RestClient> clients = new EnumMap<>(Op.class);
+    private final Map<Op, Timeouts> timeouts = new EnumMap<>(Op.class);
+    private final URI warmupUri;
+    private final String authorization;
+    private final int warmupConnections;
+    private volatile Instant lastOk;
+    private volatile Instant lastFailure;
+    private volatile String lastError;
+
+    public OpenAiTransport(AppProperties.OpenAi p) {
+        var t = p.transport();
+        Duration connect = t != null && t.connectTimeout() != null ? t.connectTimeout() : Duration.ofSeconds(5);
+        this.warmupConnections = t != null ? t.warmupConnections() : 1;
+
+        // виртуальные потоки: executor пишет стриминговые тела запросов (VisionBody) и блокируется на сокете,
+        // пул фиксированного размера упёрся бы в число одновременных vision-загрузок
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("openai-http-", 0).factory());
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connect)
+                .executor(executor)
+                .build();
+
+        var sched = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread th = new Thread(r, "openai-deadline");
+            th.setDaemon(true);
+            return th;
+        });
+        sched.setRemoveOnCancelPolicy(true);
+        this.deadlines = sched;
+
+        this.authorization = "Bearer " + p.apiKey();
+        String base = p.baseUrl().endsWith("/") ? p.baseUrl().substring(0, p.baseUrl().length() - 1) : p.baseUrl();
+        this.warmupUri = URI.create(base + "/models");
+
+        var ops = p.timeouts();
+        Duration fallback = Duration.ofMillis(p.timeoutMs() > 0 ? p.timeoutMs() : 20_000);
+        timeouts.put(Op.STT, resolve(ops == null ? null : ops.stt(), fallback));
+        timeouts.put(Op.TEXT, resolve(ops == null ? null : ops.text(), fallback));
+        timeouts.put(Op.VISION, resolve(ops == null ? null : ops.vision(), fallback));
+
+        for (Op op : Op.values()) {
+            var factory = new JdkClientHttpRequestFactory(http, executor);
+            factory.setReadTimeout(timeouts.get(op).read());
+            clients.put(op, RestClient.builder()
+                    .requestFactory(factory)
+                    .baseUrl(p.baseUrl())
+                    .defaultHeader("Authorization", authorization)
+                    .build());
+        }
+        log.info("OpenAI transport: connect={} timeouts={}", connect, timeouts);
+    }
+
+    /**
+     * read не задан — app.openai.timeoutMs; total не задан — 3 x read.
+     */
+    private static Timeouts resolve(AppProperties.OpTimeouts t, Duration fallback) {
+        Duration read = t != null && t.read() != null ? t.read() : fallback;
+        Duration total = t != null && t.total() != null ? t.total() : read.multipliedBy(3);
+        return new Timeouts(read, total);
+    }
+
+    public RestClient client(Op op) {
+        return clients.get(op);
+    }
+
+    public Timeouts timeouts(Op op) {
+        return timeouts.get(op);
+    }
+
+    /**
+     * Выполняет вызов с дедлайном total для операции. По истечении текущий поток прерывается —
+     * JDK HttpClient отменяет обмен, а чтение тела ответа падает с IOException; наружу уходит 504 OPENAI_TIMEOUT.
+     */
+    public <T> T call(Op op, Supplier<T> action) {
+        return call(op, timeouts.get(op).total(), action);
+    }
+
+    /**
+     * То же с остатком общего бюджета (для повторов {@link UpstreamResilience}), но не дольше total операции.
+     */
+    public <T> T call(Op op, Duration budget, Supplier<T> action) {
+        Duration total = budget.compareTo(timeouts.get(op).total()) < 0 ? budget : timeouts.get(op).total();
+        var deadline = new Deadline(Thread.currentThread());
+        ScheduledFuture<?> timer = deadlines.schedule(deadline::fire, total.toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            T result = action.get();
+            lastOk = Instant.now();
+            return result;
+        } catch (RuntimeException e) {
+            if (upstreamFault(e)) failed(e.getMessage());
+            if (deadline.finish()) {
+                failed("timeout " + op);
+                throw new ApiException(HttpStatus.GATEWAY_TIMEOUT, "OPENAI_TIMEOUT",
+                        "OpenAI " + op + " call exceeded " + total.toMillis() + "ms",
+                        Map.of("op", op.name(), "totalMs", total.toMillis()));
+            }
+            throw e;
+        } finally {
+            timer.cancel(false);
+            deadline.finish();
+        }
+    }
+
+    private static final class Deadline {
+        private final Thread thread;
+        private boolean done;
+        private boolean fired;
+
+        Deadline(Thread thread) {
+            this.thread = thread;
+        }
+
+        synchronized void fire() {
+            if (!done) {
+                fired = true;
+                thread.interrupt();
+            }
+        }
+
+        /**
+         * @return сработал ли дедлайн; флаг прерывания снимается, чтобы не протечь в следующую задачу потока
+         */
+        synchronized boolean finish() {
+            done = true;
+            if (fired) Thread.interrupted();
+            return fired;
+        }
+    }
+
+    public Contact contact() {
+        return new Contact(lastOk, lastFailure, lastError);
+    }
+
+    /**
+     * Внеочередная проверка GET /models (для health, когда данных о контакте давно не было).
+     */
+    public CompletableFuture<Boolean> probe() {
+        return ping().handle((r, e) -> e == null && r.statusCode() < 300);
+    }
+
+    /**
+     * Сеть, таймаут или 5xx/429 — проблема upstream; прочие 4xx — это наш запрос, на готовность не влияют.
+     */
+    private static boolean upstreamFault(RuntimeException e) {
+        if (e instanceof RestClientResponseException r) {
+            int code = r.getStatusCode().value();
+            return code >= 500 || code == 429 || code == 401;
+        }
+        return !(e instanceof ApiException);
+    }
+
+    private void failed(String error) {
+        lastFailure = Instant.now();
+        lastError = error;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (warmupConnections <= 0) return;
+        long t0 = System.nanoTime();
+        var calls = new CompletableFuture<?>[warmupConnections];
+        for (int i = 0; i < warmupConnections; i++) {
+            calls[i] = ping();
+        }
+        CompletableFuture.allOf(calls).whenComplete((r, e) -> {
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+            if (e != null) {
+                log.warn("OpenAI warm-up failed in {}ms: {}", ms, e.getMessage());
+            } else {
+                log.info("OpenAI warm-up: {} connection(s) in {}ms", warmupConnections, ms);
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${app.openai.transport.keepWarmInterval:PT4M}",
+            initialDelayString = "${app.openai.transport.keepWarmInterval:PT4M}")
+    public void keepWarm() {
+        if (warmupConnections <= 0) return;
+        ping().exceptionally(e -> {
+            log.debug("OpenAI keep-warm ping failed: {}", e.getMessage());
+            return null;
+        });
+    }
+
+    private CompletableFuture<HttpResponse<Void>> ping() {
+        var req = HttpRequest.newBuilder(warmupUri)
+                .timeout(timeouts.get(Op.TEXT).read())
+                .header("Authorization", authorization)
+                .GET()
+                .build();
+        return http.sendAsync(req, HttpResponse.BodyHandlers.discarding()).whenComplete((r, e) -> {
+            if (e != null) failed(String.valueOf(e.getMessage()));
+            else if (r.statusCode() < 300) lastOk = Instant.now();
+            else failed("GET /models -> HTTP " + r.statusCode());
+        });
+    }
+
+    @Override
+    public void close() {
+        deadlines.shutdownNow();
+        http.close();
+        executor.shutdownNow();
+    }
+}
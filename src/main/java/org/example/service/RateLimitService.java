@@ -0,0 +1,113 @@
+package org.example.service;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.ConsumptionProbe;
+import org.example.config.LicenseProperties;
+import org.example.dto.ApiException;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Лимиты по лицензии: in-memory token bucket'ы Bucket4j (lock-free, CAS).
+ * <p>
+ * На каждую тройку (лицензия, план, вид запроса) — один bucket с двумя полосами:
+ * burst в минуту и дневная квота (сбрасывается в полночь UTC). Лимиты берутся из licenses.plans по plan лицензии;
+ * план в ключе — чтобы смена плана при горячей перезагрузке лицензий действовала сразу, без рестарта.
+ * Проверка делается до любой работы с upstream; отказ — 429 с Retry-After.
+ * <p>
+ * Плюс параллелизм батчей: семафор на лицензию (batchParallelism плана), общий для всех её /hints:batch.
+ */
+@Service
+public class RateLimitService {
+
+    public enum Kind { TEXT, VISION }
+
+    private static final LicenseProperties.PlanLimits FALLBACK = new LicenseProperties.PlanLimits(50, 10, 30, 5, 2, 2);
+
+    private record BucketKey(String licenseKey, String plan, Kind kind) {}
+
+    private record PermitsKey(String licenseKey, String plan) {}
+
+    private final LicenseProperties props;
+    private final Map<BucketKey, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Map<PermitsKey, Semaphore> batchPermits = new ConcurrentHashMap<>();
+
+    public RateLimitService(LicenseProperties props) {
+        this.props = props;
+    }
+
+    public void consume(LicenseProperties.LicenseEntry license, Kind kind) {
+        var key = new BucketKey(license.key(), license.plan(), kind);
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            // bucket'ы прежнего плана этой лицензии больше не нужны
+            buckets.keySet().removeIf(k -> k.licenseKey().equals(key.licenseKey()) && !Objects.equals(k.plan(), key.plan()));
+            bucket = buckets.computeIfAbsent(key, k -> newBucket(limits(k.plan()), kind));
+        }
+
+        ConsumptionProbe probe = bucket.tryConsumeAndReturnRemaining(1);
+        if (!probe.isConsumed()) {
+            long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(probe.getNanosToWaitForRefill()) + 1);
+            throw ApiException.tooManyRequests("RATE_LIMITED",
+                    "Rate limit exceeded for " + kind + " requests",
+                    Map.of("retryAfterSeconds", retryAfter, "kind", kind.name()));
+        }
+    }
+
+    /**
+     * Возврат списанного {@link #consume}, если запрос так и не был принят в работу (очередь/пул заняты).
+     */
+    public void refund(LicenseProperties.LicenseEntry license, Kind kind) {
+        Bucket bucket = buckets.get(new BucketKey(license.key(), license.plan(), kind));
+        if (bucket != null) bucket.addTokens(1);
+    }
+
+    /**
+     * Вызывающий отпускает permit'ы в тот же семафор, что получил: после смены плана идущие батчи
+     * дорабатывают на старом, новые берут семафор нового плана.
+     */
+    public Semaphore batchPermits(LicenseProperties.LicenseEntry license) {
+        var key = new PermitsKey(license.key(), license.plan());
+        Semaphore permits = batchPermits.get(key);
+        if (permits == null) {
+            batchPermits.keySet().removeIf(k -> k.licenseKey().equals(key.licenseKey()) && !Objects.equals(k.plan(), key.plan()));
+            permits = batchPermits.computeIfAbsent(key, k -> new Semaphore(Math.max(1, limits(k.plan()).batchParallelism())));
+        }
+        return permits;
+    }
+
+    public LicenseProperties.PlanLimits limits(String plan) {
+        var plans = props.plans();
+        if (plans == null || plan == null) return FALLBACK;
+        var l = plans.get(plan);
+        return l == null ? FALLBACK : l;
+    }
+
+    private static Bucket newBucket(LicenseProperties.PlanLimits limits, Kind kind) {
+        int perMinute = kind == Kind.VISION ? limits.burstSnapshotsPerMinute() : limits.burstHintsPerMinute();
+        int perDay = kind == Kind.VISION ? limits.maxSnapshotsPerDay() : limits.maxHintsPerDay();
+
+        Instant nextMidnight = LocalDate.now(ZoneOffset.UTC).plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+
+        return Bucket.builder()
+                .addLimit(Bandwidth.builder()
+                        .capacity(Math.max(1, perMinute))
+                        .refillGreedy(Math.max(1, perMinute), Duration.ofMinutes(1))
+                        .build())
+                .addLimit(Bandwidth.builder()
+                        .capacity(Math.max(1, perDay))
+                        .refillIntervallyAligned(Math.max(1, perDay), Duration.ofDays(1), nextMidnight)
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,136 @@
+package org.example.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.example.config.AppProperties;
+import org.example.dto.OpenAiDtos;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Дедупликация vision-запросов перед {@link OpenAiClient#analyzeScreenshot}.
+ * <p>
+ * Для каждого (вопрос, lang, chatModel) держим несколько последних кадров с их SHA-256 и dHash.
+ * Точное совпадение байт или dHash на расстоянии не больше порога — отвечаем из кэша без upstream.
+ * Порог задаётся как app.openai.screenshotSimilarity (0..1, доля совпавших бит из 64).
+ */
+@Service
+public class ScreenshotCache {
+
+    private static final int FRAMES_PER_QUESTION = 8;
+
+    record Fingerprint(String sha256, Long dHash) {}
+
+    private record Frame(Fingerprint fp, OpenAiDtos.SnapshotJson answer) {}
+
+    private final OpenAiClient openAi;
+    private final AppProperties props;
+    private final int maxDistance;
+    private final Cache<HintCache.Key, List<Frame>> cache;
+    private final LongAdder exactHits = new LongAdder();
+    private final LongAdder nearHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ScreenshotCache(OpenAiClient openAi, AppProperties props) {
+        this.openAi = openAi;
+        this.props = props;
+
+        double similarity = props.openai().screenshotSimilarity() <= 0 ? 0.95 : props.openai().screenshotSimilarity();
+        this.maxDistance = (int) Math.floor((1.0 - Math.min(1.0, similarity)) * 64);
+
+        var c = props.cache();
+        long maxSize = (c == null || c.screenshotMaxSize() <= 0) ? 2_000 : c.screenshotMaxSize();
+        Duration ttl = (c == null || c.screenshotTtl() == null) ? Duration.ofMinutes(30) : c.screenshotTtl();
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    public OpenAiDtos.SnapshotJson analyze(ImagePreprocessor.PreparedImage image, String lang, String question) throws IOException {
+        Fingerprint fp = fingerprint(image);
+        var cached = lookup(fp, question, lang);
+        if (cached != null) return cached;
+
+        var sj = openAi.analyzeScreenshot(image.body(), image.contentType(), image.detail(), lang, question);
+        put(fp, question, lang, sj);
+        return sj;
+    }
+
+    /**
+     * Отпечаток уже подготовленной картинки: dHash посчитан препроцессором по декодированному кадру,
+     * повторно не декодируем. Если препроцессор картинку не понял — только точный хэш.
+     */
+    public Fingerprint fingerprint(ImagePreprocessor.PreparedImage image) throws IOException {
+        String sha = ImageHashes.sha256(image.body().getInputStream());
+        return new Fingerprint(sha, image.dHash());
+    }
+
+    public OpenAiDtos.SnapshotJson lookup(Fingerprint fp, String question, String lang) {
+        List<Frame> frames = cache.getIfPresent(key(question, lang));
+        if (frames == null) {
+            misses.increment();
+            return null;
+        }
+
+        Frame best = null;
+        int bestDist = Integer.MAX_VALUE;
+        for (Frame f : frames) {
+            if (f.fp().sha256().equals(fp.sha256())) {
+                exactHits.increment();
+                return f.answer();
+            }
+            if (fp.dHash() != null && f.fp().dHash() != null) {
+                int d = ImageHashes.distance(fp.dHash(), f.fp().dHash());
+                if (d <= maxDistance && d < bestDist) {
+                    best = f;
+                    bestDist = d;
+                }
+            }
+        }
+        if (best != null) {
+            nearHits.increment();
+            return best.answer();
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(Fingerprint fp, String question, String lang, OpenAiDtos.SnapshotJson sj) {
+        cache.asMap().compute(key(question, lang), (k, old) -> {
+            var frames = new ArrayList<Frame>(FRAMES_PER_QUESTION);
+            frames.add(new Frame(fp, sj));
+            if (old != null) {
+                for (Frame f : old) {
+                    if (frames.size() >= FRAMES_PER_QUESTION) break;
+                    if (!f.fp().sha256().equals(fp.sha256())) frames.add(f);
+                }
+            }
+            return List.copyOf(frames);
+        });
+    }
+
+    public Map<String, Object> stats() {
+        var m = new LinkedHashMap<String, Object>();
+        m.put("questions", cache.estimatedSize());
+        m.put("exactHits", exactHits.sum());
+        m.put("nearHits", nearHits.sum());
+        m.put("misses", misses.sum());
+        m.put("evictions", cache.stats().evictionCount());
+        m.put("maxDistance", maxDistance);
+        return m;
+    }
+
+    private HintCache.Key key(String question, String lang) {
+        return new HintCache.Key(HintCache.normalize(question), lang == null ? "" : lang, props.openai().chatModel());
+    }
+}
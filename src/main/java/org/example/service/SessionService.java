@@ -0,0 +1,194 @@
+package org.example.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.example.config.AppProperties;
+import org.example.dto.ApiException;
+import org.example.dto.CreateSessionRequest;
+import org.example.dto.CreateSessionResponse;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Сессии собеседования: профиль кандидата + скользящая история вопросов и ответов.
+ * <p>
+ * Профиль (стек, уровень, инструкции, язык) превращается в постоянный блок system prompt — он одинаков
+ * на все запросы сессии, и prompt caching upstream его переиспользует. История добавляется только в хвост,
+ * поэтому у следующего вопроса префикс совпадает с предыдущим запросом целиком.
+ * <p>
+ * История ограничена бюджетом токенов: при переполнении старые ходы выкидываются пачкой до половины бюджета
+ * (реже ломаем кэшируемый префикс). Сессии живут в Caffeine: вес — оценка токенов, выселение по простою
+ * и по суммарному весу (app.sessions).
+ */
+@Service
+public class SessionService {
+
+    private static final int MAX_PROFILE_FIELD = 200;
+    private static final int MAX_INSTRUCTIONS = 2_000;
+
+    /**
+     * Что нужно OpenAiClient для запроса в рамках сессии: блок профиля и уже сериализованные сообщения истории.
+     */
+    public record Context(String profile, List<byte[]> history) {
+        public static final Context NONE = new Context(null, List.of());
+
+        public boolean isEmpty() {
+            return profile == null && history.isEmpty();
+        }
+    }
+
+    private record Turn(byte[] user, byte[] assistant, int tokens) {}
+
+    private static final class Session {
+        final String licenseKey;
+        final String profile;
+        final int profileTokens;
+        final ArrayDeque<Turn> turns = new ArrayDeque<>();
+        int historyTokens;
+
+        Session(String licenseKey, String profile) {
+            this.licenseKey = licenseKey;
+            this.profile = profile;
+            this.profileTokens = estimateTokens(profile);
+        }
+
+        synchronized Context context() {
+            var history = new ArrayList<byte[]>(turns.size() * 2);
+            for (Turn t : turns) {
+                history.add(t.user());
+                history.add(t.assistant());
+            }
+            return new Context(profile, history);
+        }
+
+        synchronized int weight() {
+            return profileTokens + historyTokens;
+        }
+    }
+
+    private final ObjectMapper om;
+    private final Cache<String, Session> sessions;
+    private final int historyTokens;
+    private final int turnAnswerChars;
+
+    public SessionService(ObjectMapper om, AppProperties props) {
+        this.om = om;
+        var s = props.sessions();
+        Duration idle = s != null && s.idleTtl() != null ? s.idleTtl() : Duration.ofHours(2);
+        long maxTokens = s != null && s.maxTotalTokens() > 0 ? s.maxTotalTokens() : 5_000_000;
+        this.historyTokens = s != null && s.historyTokens() > 0 ? s.historyTokens() : 2_000;
+        this.turnAnswerChars = s != null && s.turnAnswerChars() > 0 ? s.turnAnswerChars() : 800;
+
+        this.sessions = Caffeine.newBuilder()
+                .expireAfterAccess(idle)
+                .maximumWeight(maxTokens)
+                .weigher((String id, Session session) -> session.weight())
+                .recordStats()
+                .build();
+    }
+
+    public CreateSessionResponse create(String licenseKey, CreateSessionRequest req) {
+        var profile = req == null ? null : req.profile();
+        String stack = field(profile == null ? null : profile.stack(), "profile.stack", MAX_PROFILE_FIELD);
+        String level = field(profile == null ? null : profile.level(), "profile.level", MAX_PROFILE_FIELD);
+        String instructions = field(req == null ? null : req.instructions(), "instructions", MAX_INSTRUCTIONS);
+        String lang = field(req == null ? null : req.lang(), "lang", 16);
+
+        var sb = new StringBuilder("Контекст сессии (одинаковый для всех вопросов):\n");
+        if (stack != null) sb.append("- стек кандидата: ").append(stack).append('\n');
+        if (level != null) sb.append("- уровень: ").append(level).append('\n');
+        sb.append("- язык ответа: ").append(lang == null ? "ru" : lang).append('\n');
+        if (instructions != null) sb.append("Инструкции кандидата:\n").append(instructions).append('\n');
+        sb.append("Ниже — предыдущие вопросы этой сессии; отвечай с их учётом, не повторяя уже сказанное.");
+
+        String id = UUID.randomUUID().toString();
+        sessions.put(id, new Session(licenseKey, sb.toString()));
+        return new CreateSessionResponse(id, Instant.now());
+    }
+
+    public Context context(String sessionId, String licenseKey) {
+        return require(sessionId, licenseKey).context();
+    }
+
+    /**
+     * Добавляет ход в историю (ответ — в сжатом виде) и при переполнении бюджета выкидывает старые ходы.
+     */
+    public void append(String sessionId, String licenseKey, String question, String answer) {
+        Session s = require(sessionId, licenseKey);
+        String clipped = answer == null ? "" : answer.length() <= turnAnswerChars
+                ? answer
+                : answer.substring(0, turnAnswerChars) + "…";
+        var turn = new Turn(
+                message("user", question),
+                message("assistant", clipped),
+                estimateTokens(question) + estimateTokens(clipped) + 8);
+
+        synchronized (s) {
+            s.turns.addLast(turn);
+            s.historyTokens += turn.tokens();
+            if (s.historyTokens > historyTokens) {
+                while (s.turns.size() > 1 && s.historyTokens > historyTokens / 2) {
+                    s.historyTokens -= s.turns.removeFirst().tokens();
+                }
+            }
+        }
+        // повторный put пересчитывает вес в Caffeine
+        sessions.asMap().replace(sessionId, s, s);
+    }
+
+    public Map<String, Object> stats() {
+        var st = sessions.stats();
+        var m = new LinkedHashMap<String, Object>();
+        m.put("sessions", sessions.estimatedSize());
+        m.put("weightTokens", sessions.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L));
+        m.put("hits", st.hitCount());
+        m.put("misses", st.missCount());
+        m.put("evictions", st.evictionCount());
+        return m;
+    }
+
+    private Session require(String sessionId, String licenseKey) {
+        Session s = sessionId == null ? null : sessions.getIfPresent(sessionId);
+        // чужая сессия неотличима от несуществующей
+        if (s == null || !s.licenseKey.equals(licenseKey)) {
+            throw new ApiException(HttpStatus.NOT_FOUND, "SESSION_NOT_FOUND", "Session not found or expired",
+                    Map.of("sessionId", String.valueOf(sessionId)));
+        }
+        return s;
+    }
+
+    private byte[] message(String role, String content) {
+        try {
+            return om.writeValueAsBytes(Map.of("role", role, "content", content == null ? "" : content));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize session message", e);
+        }
+    }
+
+    private static String field(String value, String name, int max) {
+        if (value == null || value.isBlank()) return null;
+        String v = value.strip();
+        if (v.length() > max) {
+            throw new ApiException(HttpStatus.BAD_REQUEST, "BAD_SESSION", name + " is too long (max " + max + ")", Map.of());
+        }
+        return v;
+    }
+
+    /**
+     * Грубая оценка без токенизатора: ~3 символа на токен (для кириллицы честнее, чем 4).
+     */
+    static int estimateTokens(String s) {
+        return s == null ? 0 : (s.length() + 2) / 3;
+    }
+}
@@ -0,0 +1,55 @@
+package org.example.service;
+
+import org.example.config.AppProperties;
+import org.example.dto.ApiException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Ограничение одновременных вызовов OpenAI.
+ * <p>
+ * С виртуальными потоками входящих запросов может быть сколько угодно, а upstream (и наш rate limit у OpenAI) — нет.
+ * Кто не получил слот за app.openai.bulkheadWaitMs — получает 503 с Retry-After, а не висит до таймаута.
+ */
+@Component
+public class UpstreamBulkhead {
+
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    private final long waitMs;
+
+    public UpstreamBulkhead(AppProperties props) {
+        var p = props.openai();
+        this.maxConcurrent = p.maxConcurrentCalls() > 0 ? p.maxConcurrentCalls() : 256;
+        this.waitMs = p.bulkheadWaitMs() > 0 ? p.bulkheadWaitMs() : 2_000;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    public <T> T call(Supplier<T> action) {
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(waitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(HttpStatus.SERVICE_UNAVAILABLE, "UPSTREAM_BUSY", "Interrupted while waiting for upstream slot", Map.of());
+        }
+        if (!acquired) {
+            throw new ApiException(HttpStatus.SERVICE_UNAVAILABLE, "UPSTREAM_BUSY",
+                    "Too many concurrent upstream calls", Map.of("retryAfterSeconds", 1, "maxConcurrent", maxConcurrent));
+        }
+        try {
+            return action.get();
+        } finally {
+            permits.release();
+        }
+    }
+
+    public int inUse() {
+        return maxConcurrent - permits.availablePermits();
+    }
+}
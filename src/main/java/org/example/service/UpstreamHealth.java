@@ -0,0 +1,75 @@
+package org.example.service;
+
+import org.example.config.AppProperties;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Готовность upstream (OpenAI) для /health и /actuator/health.
+ * <p>
+ * DOWN — нет API-ключа, открыт circuit breaker или последний контакт с upstream (ping или реальный вызов) неудачный.
+ * Данные о контакте берутся из {@link OpenAiTransport}; если они старше STALE_AFTER, в фоне уходит GET /models —
+ * сам health-запрос на upstream не ждёт. До первого контакта — UNKNOWN.
+ */
+@Component("upstream")
+public class UpstreamHealth implements HealthIndicator {
+
+    private static final Duration STALE_AFTER = Duration.ofSeconds(60);
+
+    private final OpenAiTransport transport;
+    private final UpstreamResilience resilience;
+    private final UpstreamBulkhead bulkhead;
+    private final boolean hasApiKey;
+    private final AtomicBoolean probing = new AtomicBoolean();
+
+    public UpstreamHealth(OpenAiTransport transport, UpstreamResilience resilience, UpstreamBulkhead bulkhead,
+                          AppProperties props) {
+        this.transport = transport;
+        this.resilience = resilience;
+        this.bulkhead = bulkhead;
+        String key = props.openai().apiKey();
+        this.hasApiKey = key != null && !key.isBlank();
+    }
+
+    @Override
+    public Health health() {
+        var c = transport.contact();
+        String breaker = resilience.breakerState();
+        Instant last = latest(c.lastOk(), c.lastFailure());
+        if (last == null || last.isBefore(Instant.now().minus(STALE_AFTER))) refresh();
+
+        Health.Builder h;
+        if (!hasApiKey) {
+            h = Health.down().withDetail("reason", "OPENAI_API_KEY is not set");
+        } else if ("OPEN".equals(breaker)) {
+            h = Health.down().withDetail("reason", "circuit breaker is open");
+        } else if (last == null) {
+            h = Health.unknown();
+        } else if (last == c.lastFailure()) {
+            h = Health.down().withDetail("reason", String.valueOf(c.lastError()));
+        } else {
+            h = Health.up();
+        }
+        if (c.lastOk() != null) h.withDetail("lastOk", c.lastOk().toString());
+        if (c.lastFailure() != null) h.withDetail("lastFailure", c.lastFailure().toString());
+        return h.withDetail("breaker", breaker)
+                .withDetail("bulkheadInUse", bulkhead.inUse())
+                .build();
+    }
+
+    private void refresh() {
+        if (!hasApiKey || !probing.compareAndSet(false, true)) return;
+        transport.probe().whenComplete((ok, e) -> probing.set(false));
+    }
+
+    private static Instant latest(Instant a, Instant b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return a.isAfter(b) ? a : b;
+    }
+}
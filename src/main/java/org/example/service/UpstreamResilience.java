@@ -0,0 +1,363 @@
+package org.example.service;
+
+import org.example.config.AppProperties;
+import org.example.dto.ApiException;
+import org.example.service.OpenAiTransport.Op;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Устойчивость вызовов /chat/completions: hedging, повторы с джиттером и circuit breaker.
+ * <p>
+ * Hedging: если ответ не пришёл за скользящий p95 латентности этой операции, параллельно уходит
+ * второй такой же запрос; берём первый успешный, проигравший отменяется (interrupt → JDK HttpClient рвёт обмен).
+ * Платим лишними токенами примерно за 5% запросов, зато хвост p99 не определяется одним медленным ответом.
+ * <p>
+ * Повторы: 429/5xx и сетевые ошибки, экспоненциальная задержка с full jitter, Retry-After от upstream важнее.
+ * Все попытки и паузы между ними укладываются в один дедлайн total операции: попытка получает остаток
+ * бюджета, а повтора нет, если после паузы не останется хотя бы read timeout.
+ * Стримы повторяются, только пока клиенту ещё ничего не отдано, и не хеджируются.
+ * <p>
+ * Breaker общий на upstream: при доле отказов выше порога в окне последних вызовов — сразу 503 на openDuration,
+ * потом один пробный вызов.
+ */
+@Component
+public class UpstreamResilience {
+
+    private static final Logger log = LoggerFactory.getLogger(UpstreamResilience.class);
+
+    private final OpenAiTransport transport;
+    private final int maxAttempts;
+    private final long backoffBaseMs;
+    private final long backoffMaxMs;
+    private final boolean hedgeEnabled;
+    private final long hedgeMinDelayMs;
+    private final int hedgeMinSamples;
+
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("openai-hedge-", 0).factory());
+    private final Map<Op, LatencyWindow> latencies = new EnumMap<>(Op.class);
+    private final Breaker breaker;
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public UpstreamResilience(AppProperties props, OpenAiTransport transport) {
+        this.transport = transport;
+        var r = props.openai().resilience() != null ? props.openai().resilience()
+                : new AppProperties.Resilience(3, null, null, true, null, 20, 20, 0.5, null);
+        this.maxAttempts = Math.max(1, r.maxAttempts());
+        this.backoffBaseMs = ms(r.backoffBase(), 200);
+        this.backoffMaxMs = ms(r.backoffMax(), 4_000);
+        this.hedgeEnabled = r.hedge();
+        this.hedgeMinDelayMs = ms(r.hedgeMinDelay(), 300);
+        this.hedgeMinSamples = r.hedgeMinSamples() > 0 ? r.hedgeMinSamples() : 20;
+        this.breaker = new Breaker(
+                r.breakerWindow() > 0 ? r.breakerWindow() : 20,
+                r.breakerFailureRate() > 0 ? r.breakerFailureRate() : 0.5,
+                ms(r.breakerOpen(), 30_000));
+        for (Op op : Op.values()) latencies.put(op, new LatencyWindow(256));
+    }
+
+    private static long ms(Duration d, long def) {
+        return d != null && !d.isNegative() && !d.isZero() ? d.toMillis() : def;
+    }
+
+    /**
+     * Обычный (не стриминговый) вызов: breaker + повторы + hedging. attempt получает остаток общего бюджета.
+     */
+    public <T> T call(Op op, Function<Duration, T> attempt) {
+        return execute(op, attempt, true, () -> false);
+    }
+
+    /**
+     * Стриминговый вызов: без hedging, повтор только пока started() == false.
+     */
+    public <T> T callStream(Op op, BooleanSupplier started, Function<Duration, T> attempt) {
+        return execute(op, attempt, false, started);
+    }
+
+    private <T> T execute(Op op, Function<Duration, T> attempt, boolean hedge, BooleanSupplier started) {
+        calls.increment();
+        var timeouts = transport.timeouts(op);
+        long deadline = System.nanoTime() + timeouts.total().toNanos();
+        for (int n = 1; ; n++) {
+            breaker.acquire();
+            long t0 = System.nanoTime();
+            try {
+                T result = hedge && hedgeEnabled ? hedged(op, attempt, deadline) : attempt.apply(remaining(deadline));
+                breaker.record(false);
+                if (hedge) latencies.get(op).add((System.nanoTime() - t0) / 1_000_000);
+                return result;
+            } catch (RuntimeException e) {
+                if (isUpstreamOutcome(e)) breaker.record(isFailure(e));
+                else breaker.release();
+                if (n >= maxAttempts || !isRetryable(e) || started.getAsBoolean()) throw e;
+
+                long delay = backoff(n, e);
+                if (delay < 0) throw e;
+                if (TimeUnit.MILLISECONDS.toNanos(delay) + timeouts.read().toNanos() > deadline - System.nanoTime()) {
+                    log.warn("OpenAI {} attempt {} failed ({}), no budget left for a retry", op, n, e.getMessage());
+                    throw e;
+                }
+                retries.increment();
+                log.warn("OpenAI {} attempt {} failed ({}), retry in {}ms", op, n, e.getMessage(), delay);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Основной запрос + (если не уложился в p95) один дублирующий. Ошибка первого до срабатывания hedge
+     * не ждёт дубль — сразу уходит в цикл повторов.
+     */
+    private <T> T hedged(Op op, Function<Duration, T> attempt, long budgetDeadline) {
+        long delay = hedgeDelayMs(op);
+        if (delay < 0) return attempt.apply(remaining(budgetDeadline));
+
+        // попытки идут на hedge-потоках: лицензию (метрики по plan, учёт токенов) переносим с вызывающего
+        String license = UsageMeter.currentLicense();
+        Callable<T> task = () -> {
+            try (var ignored = UsageMeter.rebind(license)) {
+                return attempt.apply(remaining(budgetDeadline));
+            }
+        };
+        var cs = new ExecutorCompletionService<T>(executor);
+        List<Future<T>> futures = new ArrayList<>(2);
+        futures.add(cs.submit(task));
+        boolean hedged = false;
+        int pending = 1;
+        RuntimeException last = null;
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            while (pending > 0) {
+                Future<T> done = hedged
+                        ? cs.take()
+                        : cs.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    hedged = true;
+                    hedges.increment();
+                    futures.add(cs.submit(task));
+                    pending++;
+                    continue;
+                }
+                pending--;
+                try {
+                    T result = done.get();
+                    if (futures.size() > 1 && done == futures.get(1)) hedgeWins.increment();
+                    return result;
+                } catch (ExecutionException e) {
+                    last = e.getCause() instanceof RuntimeException re ? re
+                            : new ResourceAccessException(String.valueOf(e.getCause()));
+                }
+            }
+            throw last;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(HttpStatus.SERVICE_UNAVAILABLE, "OPENAI_INTERRUPTED", "Interrupted while waiting for OpenAI", Map.of());
+        } finally {
+            for (Future<T> f : futures) f.cancel(true);
+        }
+    }
+
+    private static Duration remaining(long deadline) {
+        return Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
+    }
+
+    /**
+     * @return задержка перед hedge, либо -1, пока выборка латентностей мала
+     */
+    private long hedgeDelayMs(Op op) {
+        long p95 = latencies.get(op).percentile(0.95, hedgeMinSamples);
+        return p95 < 0 ? -1 : Math.max(hedgeMinDelayMs, p95);
+    }
+
+    private static boolean isRetryable(RuntimeException e) {
+        if (e instanceof RestClientResponseException r) {
+            int s = r.getStatusCode().value();
+            return s == 429 || s >= 500;
+        }
+        // сетевые ошибки и read timeout; общий дедлайн (OPENAI_TIMEOUT) — ApiException, бюджет уже исчерпан
+        return e instanceof ResourceAccessException;
+    }
+
+    /**
+     * Ответил ли upstream вообще: наши отказы (bulkhead UPSTREAM_BUSY и т.п.) и обрыв клиентского SSE
+     * ({@link java.io.UncheckedIOException} из onDelta) о здоровье OpenAI ничего не говорят.
+     */
+    private static boolean isUpstreamOutcome(RuntimeException e) {
+        if (e instanceof ApiException a) return "OPENAI_TIMEOUT".equals(a.getCode());
+        return e instanceof RestClientResponseException || e instanceof ResourceAccessException;
+    }
+
+    /**
+     * Для breaker'а отказ — то, что говорит о здоровье upstream: 5xx, сеть, дедлайн. 429 и 4xx — нет.
+     */
+    private static boolean isFailure(RuntimeException e) {
+        if (e instanceof RestClientResponseException r) return r.getStatusCode().is5xxServerError();
+        if (e instanceof ApiException a) return "OPENAI_TIMEOUT".equals(a.getCode());
+        return e instanceof ResourceAccessException;
+    }
+
+    /**
+     * Full jitter: random(0, min(max, base * 2^(n-1))). Retry-After берём как нижнюю границу;
+     * если upstream просит ждать дольше backoffMax — не ждём, отдаём ошибку сразу (-1).
+     */
+    private long backoff(int attempt, RuntimeException e) {
+        long cap = Math.min(backoffMaxMs, backoffBaseMs << Math.min(attempt - 1, 20));
+        long jitter = ThreadLocalRandom.current().nextLong(cap + 1);
+        long retryAfter = retryAfterMs(e);
+        if (retryAfter > backoffMaxMs) return -1;
+        return Math.max(jitter, retryAfter);
+    }
+
+    private static long retryAfterMs(RuntimeException e) {
+        if (!(e instanceof RestClientResponseException r)) return 0;
+        HttpHeaders h = r.getResponseHeaders();
+        if (h == null) return 0;
+        try {
+            String ms = h.getFirst("retry-after-ms");
+            if (ms != null) return (long) Double.parseDouble(ms.trim());
+            String s = h.getFirst(HttpHeaders.RETRY_AFTER);
+            if (s != null) return (long) (Double.parseDouble(s.trim()) * 1000);
+        } catch (NumberFormatException ignored) {
+            // HTTP-date в Retry-After OpenAI не шлёт
+        }
+        return 0;
+    }
+
+    public String breakerState() {
+        return breaker.state();
+    }
+
+    public Map<String, Object> stats() {
+        var m = new LinkedHashMap<String, Object>();
+        m.put("calls", calls.sum());
+        m.put("retries", retries.sum());
+        m.put("hedges", hedges.sum());
+        m.put("hedgeWins", hedgeWins.sum());
+        m.put("rejectedByBreaker", rejected.sum());
+        m.put("breaker", breaker.state());
+        var p95 = new LinkedHashMap<String, Object>();
+        for (var e : latencies.entrySet()) p95.put(e.getKey().name(), e.getValue().percentile(0.95, 1));
+        m.put("p95Ms", p95);
+        return m;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final class Breaker {
+        private final boolean[] outcomes;
+        private final double failureRate;
+        private final long openMs;
+        private int next;
+        private int size;
+        private int failures;
+        private State state = State.CLOSED;
+        private long openedAt;
+        private boolean probeInFlight;
+
+        Breaker(int window, double failureRate, long openMs) {
+            this.outcomes = new boolean[window];
+            this.failureRate = failureRate;
+            this.openMs = openMs;
+        }
+
+        synchronized void acquire() {
+            if (state == State.CLOSED) return;
+            long left = openedAt + openMs - System.currentTimeMillis();
+            if (state == State.OPEN && left <= 0) {
+                state = State.HALF_OPEN;
+                probeInFlight = false;
+            }
+            if (state == State.HALF_OPEN && !probeInFlight) {
+                probeInFlight = true;
+                return;
+            }
+            rejected.increment();
+            long retryAfter = Math.max(1, (left + 999) / 1000);
+            throw new ApiException(HttpStatus.SERVICE_UNAVAILABLE, "OPENAI_CIRCUIT_OPEN",
+                    "OpenAI is failing, requests are paused", Map.of("retryAfterSeconds", retryAfter));
+        }
+
+        synchronized void record(boolean failure) {
+            if (state == State.HALF_OPEN) {
+                if (failure) {
+                    open();
+                } else {
+                    state = State.CLOSED;
+                    Arrays.fill(outcomes, false);
+                    next = size = failures = 0;
+                    log.info("OpenAI circuit closed");
+                }
+                return;
+            }
+            if (state == State.OPEN) return;
+
+            if (size == outcomes.length && outcomes[next]) failures--;
+            outcomes[next] = failure;
+            if (failure) failures++;
+            next = (next + 1) % outcomes.length;
+            if (size < outcomes.length) size++;
+
+            // окно должно заполниться хотя бы наполовину, чтобы пара ошибок на старте не открывала breaker
+            if (size >= outcomes.length / 2 && failures >= failureRate * size) open();
+        }
+
+        /**
+         * Попытка завершилась без ответа upstream: исход не пишем, но слот пробы в HALF_OPEN освобождаем.
+         */
+        synchronized void release() {
+            if (state == State.HALF_OPEN) probeInFlight = false;
+        }
+
+        private void open() {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            probeInFlight = false;
+            log.warn("OpenAI circuit opened for {}ms", openMs);
+        }
+
+        synchronized String state() {
+            return state.name();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.example.service;
+
+import jakarta.annotation.PreDestroy;
+import org.example.dto.OpenAiDtos;
+import org.example.model.entity.UsageDailyEntity;
+import org.example.repository.UsageDailyRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Учёт использования по лицензиям за день (UTC).
+ * <p>
+ * Горячий путь — только инкременты LongAdder в памяти. Раз в app.usage.flushInterval накопленные дельты
+ * одной транзакцией добавляются в usage_daily. Чтение = строка из БД + ещё не сброшенное.
+ * <p>
+ * Токены считаются там, где реально был вызов upstream (OpenAiClient), лицензия берётся
+ * из {@link #bind} текущего потока — ответы из кэшей токенов не тратят.
+ */
+@Service
+public class UsageMeter {
+
+    private static final Logger log = LoggerFactory.getLogger(UsageMeter.class);
+
+    private static final ThreadLocal<String> CURRENT_LICENSE = new ThreadLocal<>();
+    private static final String UNKNOWN_LICENSE = "UNKNOWN";
+
+    record DayKey(String licenseKey, LocalDate date) {}
+
+    static final class Counters {
+        final LongAdder hints = new LongAdder();
+        final LongAdder snapshots = new LongAdder();
+        final LongAdder promptTokens = new LongAdder();
+        final LongAdder completionTokens = new LongAdder();
+        final LongAdder cachedTokens = new LongAdder();
+    }
+
+    public record Totals(long hints, long snapshots, long promptTokens, long completionTokens, long cachedTokens) {
+        static final Totals ZERO = new Totals(0, 0, 0, 0, 0);
+
+        public long llmTokens() {
+            return promptTokens + completionTokens;
+        }
+
+        Totals plus(Totals o) {
+            return new Totals(hints + o.hints, snapshots + o.snapshots, promptTokens + o.promptTokens,
+                    completionTokens + o.completionTokens, cachedTokens + o.cachedTokens);
+        }
+    }
+
+    private final UsageDailyRepo repo;
+    private final TransactionTemplate tx;
+    private final Map<DayKey, Counters> counters = new ConcurrentHashMap<>();
+    // дельты, которые уже сняты со счётчиков, но ещё не закоммичены
+    private volatile Map<DayKey, Totals> inFlight = Map.of();
+
+    public UsageMeter(UsageDailyRepo repo, TransactionTemplate tx) {
+        this.repo = repo;
+        this.tx = tx;
+    }
+
+    /**
+     * Привязывает лицензию к текущему потоку: try (var ignored = usageMeter.bind(key)) { ... }.
+     */
+    public Scope bind(String licenseKey) {
+        return rebind(licenseKey);
+    }
+
+    /**
+     * То же без бина — для служебных потоков (hedge в {@link UpstreamResilience}), куда лицензию переносят
+     * с вызывающего потока через {@link #currentLicense()}.
+     */
+    static Scope rebind(String licenseKey) {
+        String prev = CURRENT_LICENSE.get();
+        if (licenseKey == null) CURRENT_LICENSE.remove();
+        else CURRENT_LICENSE.set(licenseKey);
+        return new Scope(prev);
+    }
+
+    public record Scope(String previous) implements AutoCloseable {
+        @Override
+        public void close() {
+            if (previous == null) CURRENT_LICENSE.remove();
+            else CURRENT_LICENSE.set(previous);
+        }
+    }
+
+    /**
+     * Лицензия, привязанная к текущему потоку через {@link #bind} (null — не привязана).
+     */
+    static String currentLicense() {
+        return CURRENT_LICENSE.get();
+    }
+
+    public void recordHint(String licenseKey, boolean vision) {
+        var c = counters(licenseKey);
+        (vision ? c.snapshots : c.hints).increment();
+    }
+
+    public void recordTokens(OpenAiDtos.ChatCompletionResponse.Usage usage) {
+        if (usage == null) return;
+        String license = CURRENT_LICENSE.get();
+        var c = counters(license == null ? UNKNOWN_LICENSE : license);
+        c.promptTokens.add(usage.prompt_tokens());
+        c.completionTokens.add(usage.completion_tokens());
+        if (usage.prompt_tokens_details() != null) c.cachedTokens.add(usage.prompt_tokens_details().cached_tokens());
+    }
+
+    public Totals today(String licenseKey) {
+        var key = new DayKey(licenseKey, today());
+        Totals db = repo.findByLicenseKeyAndUsageDate(key.licenseKey(), key.date())
+                .map(e -> new Totals(e.getHints(), e.getSnapshots(), e.getPromptTokens(), e.getCompletionTokens(), e.getCachedTokens()))
+                .orElse(Totals.ZERO);
+        Totals pending = inFlight.getOrDefault(key, Totals.ZERO);
+        var c = counters.get(key);
+        Totals mem = c == null ? Totals.ZERO : new Totals(c.hints.sum(), c.snapshots.sum(), c.promptTokens.sum(),
+                c.completionTokens.sum(), c.cachedTokens.sum());
+        return db.plus(pending).plus(mem);
+    }
+
+    @Scheduled(fixedDelayString = "${app.usage.flushInterval:PT30S}")
+    public synchronized void flush() {
+        var deltas = new HashMap<DayKey, Totals>();
+        LocalDate today = today();
+        for (var it = counters.entrySet().iterator(); it.hasNext(); ) {
+            var e = it.next();
+            var c = e.getValue();
+            var t = new Totals(c.hints.sumThenReset(), c.snapshots.sumThenReset(), c.promptTokens.sumThenReset(),
+                    c.completionTokens.sumThenReset(), c.cachedTokens.sumThenReset());
+            if (!t.equals(Totals.ZERO)) deltas.put(e.getKey(), t);
+            // прошедшие дни больше не пишутся — убираем из памяти
+            if (e.getKey().date().isBefore(today)) it.remove();
+        }
+        if (deltas.isEmpty()) return;
+
+        inFlight = Map.copyOf(deltas);
+        try {
+            tx.executeWithoutResult(status -> {
+                List<UsageDailyEntity> rows = new ArrayList<>(deltas.size());
+                deltas.forEach((k, t) -> {
+                    var row = repo.findByLicenseKeyAndUsageDate(k.licenseKey(), k.date())
+                            .orElseGet(() -> UsageDailyEntity.of(k.licenseKey(), k.date()));
+                    row.add(t.hints(), t.snapshots(), t.promptTokens(), t.completionTokens(), t.cachedTokens());
+                    rows.add(row);
+                });
+                repo.saveAll(rows);
+            });
+        } catch (RuntimeException e) {
+            // не теряем дельты: вернём в счётчики, допишутся в следующий раз
+            log.warn("Usage flush failed, will retry: {}", e.toString());
+            deltas.forEach((k, t) -> {
+                var c = counters(k);
+                c.hints.add(t.hints());
+                c.snapshots.add(t.snapshots());
+                c.promptTokens.add(t.promptTokens());
+                c.completionTokens.add(t.completionTokens());
+                c.cachedTokens.add(t.cachedTokens());
+            });
+        } finally {
+            inFlight = Map.of();
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    private Counters counters(String licenseKey) {
+        return counters(new DayKey(licenseKey, today()));
+    }
+
+    private Counters counters(DayKey key) {
+        return counters.computeIfAbsent(key, k -> new Counters());
+    }
+
+    private static LocalDate today() {
+        return LocalDate.now(ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,97 @@
+package org.example.service;
+
+import org.springframework.core.io.Resource;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Минимальный WAV-контейнер для PCM s16le mono — чтобы отдать кусок потока в /audio/transcriptions.
+ */
+public final class Wav {
+
+    /**
+     * Для сжатых форматов длительность по заголовку не достать — считаем по размеру с битрейтом
+     * 128 kbit/s (потолок MediaRecorder по умолчанию): честная запись не оценится длиннее, чем есть.
+     */
+    static final long COMPRESSED_BYTES_PER_SECOND = 16_000;
+
+    private static final int MAX_CHUNKS = 32;
+
+    private Wav() {}
+
+    static byte[] wrapPcm16Mono(byte[] pcm, int sampleRate) {
+        var buf = ByteBuffer.allocate(44 + pcm.length).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put("RIFF".getBytes()).putInt(36 + pcm.length).put("WAVE".getBytes());
+        buf.put("fmt ".getBytes()).putInt(16)
+                .putShort((short) 1)              // PCM
+                .putShort((short) 1)              // mono
+                .putInt(sampleRate)
+                .putInt(sampleRate * 2)           // byte rate
+                .putShort((short) 2)              // block align
+                .putShort((short) 16);            // bits per sample
+        buf.put("data".getBytes()).putInt(pcm.length).put(pcm);
+        return buf.array();
+    }
+
+    /**
+     * Оценка длительности загруженного аудио до отправки в STT: для WAV — по byte rate и размеру data,
+     * для остального — по размеру файла (см. {@link #COMPRESSED_BYTES_PER_SECOND}).
+     */
+    public static long estimateMs(Resource audio) throws IOException {
+        long size = audio.contentLength();
+        try (var in = audio.getInputStream()) {
+            long wav = wavMs(in, size);
+            if (wav >= 0) return wav;
+        }
+        return size * 1000 / COMPRESSED_BYTES_PER_SECOND;
+    }
+
+    /**
+     * @return длительность по заголовку RIFF/WAVE, либо -1, если это не WAV или заголовок битый
+     */
+    static long wavMs(InputStream raw, long size) throws IOException {
+        var in = new DataInputStream(raw);
+        try {
+            if (!"RIFF".equals(tag(in))) return -1;
+            in.skipNBytes(4);
+            if (!"WAVE".equals(tag(in))) return -1;
+
+            long pos = 12;
+            long byteRate = 0;
+            for (int i = 0; i < MAX_CHUNKS; i++) {
+                String id = tag(in);
+                long len = Integer.toUnsignedLong(Integer.reverseBytes(in.readInt()));
+                pos += 8;
+                if ("fmt ".equals(id)) {
+                    if (len < 16) return -1;
+                    in.skipNBytes(8);
+                    byteRate = Integer.toUnsignedLong(Integer.reverseBytes(in.readInt()));
+                    in.skipNBytes(len - 12 + (len & 1));
+                } else if ("data".equals(id)) {
+                    if (byteRate == 0) return -1;
+                    // потоковые писатели оставляют 0 или 0xFFFFFFFF — тогда data до конца файла
+                    long data = len == 0 || len == 0xFFFFFFFFL || pos + len > size ? size - pos : len;
+                    return Math.max(0, data) * 1000 / byteRate;
+                } else {
+                    in.skipNBytes(len + (len & 1));
+                }
+                pos += len + (len & 1);
+            }
+            return -1;
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    private static String tag(DataInputStream in) throws IOException {
+        byte[] b = new byte[4];
+        in.readFully(b);
+        return new String(b, StandardCharsets.US_ASCII);
+    }
+}
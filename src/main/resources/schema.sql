@@ -0,0 +1,3 @@
+-- ddl-auto: update не удаляет ограничения. Старый уникальный ключ только по idemKey мешает
+-- одному Idempotency-Key на разных endpoint'ах (теперь уникальна пара idemKey + endpoint, idx_idem_scope).
+ALTER TABLE IF EXISTS idempotency DROP CONSTRAINT IF EXISTS idx_idem_key;
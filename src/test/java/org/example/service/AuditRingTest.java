@@ -0,0 +1,94 @@
+package org.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AuditRingTest {
+
+    @Test
+    void capacityIsRoundedUpToPowerOfTwo() {
+        assertThat(new AuditRing<>(8).capacity()).isEqualTo(8);
+        assertThat(new AuditRing<>(9).capacity()).isEqualTo(16);
+        assertThat(new AuditRing<>(1).capacity()).isEqualTo(2);
+        assertThat(new AuditRing<>(2).capacity()).isEqualTo(2);
+    }
+
+    @Test
+    void overflowRejectsWithoutBlockingAndRecoversAfterPoll() {
+        var ring = new AuditRing<Integer>(8);
+        for (int i = 0; i < 8; i++) assertThat(ring.offer(i)).isTrue();
+
+        assertThat(ring.offer(8)).isFalse();
+        assertThat(ring.size()).isEqualTo(8);
+
+        assertThat(ring.poll()).isEqualTo(0);
+        assertThat(ring.offer(8)).isTrue();
+
+        var drained = new ArrayList<Integer>();
+        for (Integer v; (v = ring.poll()) != null; ) drained.add(v);
+        assertThat(drained).containsExactly(1, 2, 3, 4, 5, 6, 7, 8);
+        assertThat(ring.size()).isZero();
+    }
+
+    @Test
+    void pollOnEmptyReturnsNull() {
+        var ring = new AuditRing<String>(4);
+        assertThat(ring.poll()).isNull();
+        ring.offer("a");
+        assertThat(ring.poll()).isEqualTo("a");
+        assertThat(ring.poll()).isNull();
+    }
+
+    /**
+     * Несколько писателей через маленькое кольцо: ничего не теряется и не дублируется,
+     * порядок каждого писателя сохраняется.
+     */
+    @Test
+    void keepsPerProducerOrderUnderContention() throws Exception {
+        int producers = 4;
+        int perProducer = 20_000;
+        var ring = new AuditRing<long[]>(64);
+        var start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            long id = p;
+            var t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long seq = 0; seq < perProducer; seq++) {
+                    long[] item = {id, seq};
+                    while (!ring.offer(item)) Thread.yield();
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+
+        long[] next = new long[producers];
+        long total = 0;
+        start.countDown();
+        while (total < (long) producers * perProducer) {
+            long[] item = ring.poll();
+            if (item == null) {
+                Thread.yield();
+                continue;
+            }
+            assertThat(item[1]).as("producer %d", item[0]).isEqualTo(next[(int) item[0]]);
+            next[(int) item[0]]++;
+            total++;
+        }
+        for (Thread t : threads) t.join();
+
+        assertThat(ring.poll()).isNull();
+        for (long n : next) assertThat(n).isEqualTo(perProducer);
+    }
+}
@@ -0,0 +1,128 @@
+package org.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Разбор chat.completion и chat.completion.chunk без дерева JsonNode.
+ */
+class ChatResponseParserTest {
+
+    private final ChatResponseParser parser = new ChatResponseParser(new ObjectMapper());
+
+    @Test
+    void completionWithStringContentAndUsage() throws IOException {
+        String body = """
+                {"id":"chatcmpl-1","object":"chat.completion","model":"gpt-test",
+                 "choices":[{"index":0,"message":{"role":"assistant","content":"{\\"hint\\":\\"x\\"}","annotations":[]},
+                             "logprobs":null,"finish_reason":"stop"}],
+                 "usage":{"prompt_tokens":100,"completion_tokens":20,"total_tokens":120,
+                          "prompt_tokens_details":{"cached_tokens":64,"audio_tokens":0}},
+                 "system_fingerprint":"fp"}
+                """;
+
+        var r = parser.completion(body.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(r.content()).isEqualTo("{\"hint\":\"x\"}");
+        assertThat(r.finishReason()).isEqualTo("stop");
+        assertThat(r.usage().prompt_tokens()).isEqualTo(100);
+        assertThat(r.usage().completion_tokens()).isEqualTo(20);
+        assertThat(r.usage().prompt_tokens_details().cached_tokens()).isEqualTo(64);
+    }
+
+    @Test
+    void streamAndByteInputsAgree() throws IOException {
+        byte[] body = "{\"choices\":[{\"message\":{\"content\":\"ok\"},\"finish_reason\":\"length\"}]}"
+                .getBytes(StandardCharsets.UTF_8);
+
+        assertThat(parser.completion(new ByteArrayInputStream(body))).isEqualTo(parser.completion(body));
+    }
+
+    @Test
+    void partsArrayIsJoinedByText() throws IOException {
+        String body = """
+                {"choices":[{"message":{"content":[
+                    {"type":"text","text":" {\\"output\\":"},
+                    {"type":"image_url","image_url":{"url":"data:..."}},
+                    {"type":"text","text":"\\"a\\"} "},
+                    "stray"
+                 ]},"finish_reason":"stop"}]}
+                """;
+
+        var r = parser.completion(body.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(r.content()).isEqualTo("{\"output\":\"a\"}");
+    }
+
+    @Test
+    void refusalIsEmptyContentAndMissingContentIsNull() throws IOException {
+        var refused = parser.completion(("{\"choices\":[{\"message\":{\"content\":null,\"refusal\":\"I can't help\"},"
+                + "\"finish_reason\":\"stop\"}]}").getBytes(StandardCharsets.UTF_8));
+        assertThat(refused.content()).isEmpty();
+
+        var empty = parser.completion("{\"choices\":[{\"message\":{\"role\":\"assistant\"},\"finish_reason\":\"content_filter\"}]}"
+                .getBytes(StandardCharsets.UTF_8));
+        assertThat(empty.content()).isNull();
+        assertThat(empty.finishReason()).isEqualTo("content_filter");
+    }
+
+    @Test
+    void onlyTheFirstChoiceCounts() throws IOException {
+        var r = parser.completion(("{\"choices\":[{\"message\":{\"content\":\"first\"},\"finish_reason\":\"stop\"},"
+                + "{\"message\":{\"content\":\"second\"},\"finish_reason\":\"length\"}]}").getBytes(StandardCharsets.UTF_8));
+
+        assertThat(r.content()).isEqualTo("first");
+        assertThat(r.finishReason()).isEqualTo("stop");
+    }
+
+    @Test
+    void chunkWithDelta() throws IOException {
+        var r = parser.chunk("{\"id\":\"c\",\"object\":\"chat.completion.chunk\","
+                + "\"choices\":[{\"index\":0,\"delta\":{\"content\":\"Hel\\\"lo\"},\"finish_reason\":null}]}");
+
+        assertThat(r.content()).isEqualTo("Hel\"lo");
+        assertThat(r.finishReason()).isNull();
+        assertThat(r.usage()).isNull();
+    }
+
+    @Test
+    void firstChunkWithRoleOnlyAndLastChunkWithFinish() throws IOException {
+        var first = parser.chunk("{\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"\"}}]}");
+        assertThat(first.content()).isEmpty();
+
+        var last = parser.chunk("{\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"length\"}]}");
+        assertThat(last.content()).isNull();
+        assertThat(last.finishReason()).isEqualTo("length");
+    }
+
+    /**
+     * stream_options.include_usage: последний чанк — пустой choices и usage.
+     */
+    @Test
+    void usageOnlyChunk() throws IOException {
+        var r = parser.chunk("{\"choices\":[],\"usage\":{\"prompt_tokens\":7,\"completion_tokens\":3,\"total_tokens\":10}}");
+
+        assertThat(r.content()).isNull();
+        assertThat(r.finishReason()).isNull();
+        assertThat(r.usage().total_tokens()).isEqualTo(10);
+        assertThat(r.usage().prompt_tokens_details()).isNull();
+    }
+
+    @Test
+    void refusalDeltaIsEmptyContent() throws IOException {
+        var r = parser.chunk("{\"choices\":[{\"delta\":{\"refusal\":\"no\"}}]}");
+        assertThat(r.content()).isEmpty();
+    }
+
+    @Test
+    void nonObjectIsRejected() {
+        assertThatThrownBy(() -> parser.chunk("[1,2]")).isInstanceOf(IOException.class);
+    }
+}
@@ -0,0 +1,170 @@
+package org.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.config.AppProperties;
+import org.example.config.LicenseProperties;
+import org.example.dto.HintAuditRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Запись через {@link HintAuditLog} и чтение через {@link HintAuditReader} на реальных файлах.
+ */
+class HintAuditLogTest {
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writesAndReadsBackInOrder() throws Exception {
+        write(32, 5, 100);
+
+        var read = readAll();
+        assertThat(read.result().corrupt()).isZero();
+        assertThat(read.result().segments()).isEqualTo(1);
+        assertThat(read.records()).extracting(HintAuditRecord::ts).containsExactly(0L, 1L, 2L, 3L, 4L);
+        assertThat(read.records().get(0).license()).isNotEqualTo("ABC-123").hasSize(12);
+    }
+
+    /**
+     * Несжимаемые ответы по ~20KB: в сегмент 64KB влезает 2-3 записи, значит за прогон будет много
+     * сменяющихся сегментов; остаются только последние maxSegments, порядок чтения — порядок записи.
+     */
+    @Test
+    void rollsSegmentsAndKeepsOnlyTheNewest() throws Exception {
+        int maxSegments = 3;
+        write(maxSegments, 40, 20_000);
+
+        var segments = HintAuditReader.segments(dir);
+        assertThat(segments).hasSize(maxSegments);
+
+        var read = readAll();
+        assertThat(read.result().corrupt()).isZero();
+        List<Long> ts = read.records().stream().map(HintAuditRecord::ts).toList();
+        assertThat(ts).isNotEmpty().isSorted();
+        // удаляются только самые старые: последняя запись на месте, пропусков внутри нет
+        assertThat(ts.get(ts.size() - 1)).isEqualTo(39L);
+        assertThat(ts).containsExactlyElementsOf(
+                LongStream.rangeClosed(ts.get(0), 39).boxed().toList());
+    }
+
+    /**
+     * Писатель упал, не успев проставить длину: запись читается как конец сегмента, а не как порча.
+     */
+    @Test
+    void tornRecordWithZeroLengthIsEndOfSegment() throws Exception {
+        write(32, 3, 100);
+        Path segment = HintAuditReader.segments(dir).get(0);
+
+        int second = recordOffset(segment, 1);
+        patch(segment, second, b -> b.putInt(second, 0));
+
+        var read = readAll();
+        assertThat(read.result().corrupt()).isZero();
+        assertThat(read.records()).extracting(HintAuditRecord::ts).containsExactly(0L);
+    }
+
+    @Test
+    void crcMismatchStopsSegmentAndIsReportedAsCorrupt() throws Exception {
+        write(32, 3, 100);
+        Path segment = HintAuditReader.segments(dir).get(0);
+
+        int second = recordOffset(segment, 1);
+        int payload = second + HintAuditLog.RECORD_HEADER_BYTES;
+        patch(segment, payload, b -> b.put(payload, (byte) (b.get(payload) ^ 0x5a)));
+
+        var read = readAll();
+        assertThat(read.result().corrupt()).isEqualTo(1);
+        assertThat(read.result().records()).isEqualTo(1);
+        assertThat(read.records()).extracting(HintAuditRecord::ts).containsExactly(0L);
+    }
+
+    @Test
+    void badMagicIsCorrupt() throws Exception {
+        write(32, 1, 100);
+        Path segment = HintAuditReader.segments(dir).get(0);
+        patch(segment, 0, b -> b.putInt(0, 0xdeadbeef));
+
+        var read = readAll();
+        assertThat(read.result().corrupt()).isEqualTo(1);
+        assertThat(read.records()).isEmpty();
+    }
+
+    private void write(int maxSegments, int records, int outputChars) throws Exception {
+        var audit = new AppProperties.Audit(true, dir.toString(), DataSize.ofKilobytes(64), maxSegments, 1024,
+                Duration.ofMillis(10));
+        var props = new AppProperties(null, null, null, null, null, null, null, null, null, audit, null);
+        var licenses = new LicenseRegistry(new LicenseProperties(List.of(), Map.of(), null), om);
+        var log = new HintAuditLog(om, licenses, props);
+
+        log.start();
+        var rnd = new Random(42);
+        for (int i = 0; i < records; i++) {
+            log.append(record(i, randomText(rnd, outputChars)));
+        }
+        log.stop();
+
+        assertThat(log.stats()).containsEntry("written", (long) records).containsEntry("dropped", 0L);
+    }
+
+    private static HintAuditRecord record(long ts, String output) {
+        return new HintAuditRecord(ts, "hint", false, "TEXT", "gpt-test", "ABC-123", null, "ru",
+                "question " + ts, 0, null, null, null, output, "stop", 0, 10, 100, 20, 0);
+    }
+
+    private static String randomText(Random rnd, int chars) {
+        var sb = new StringBuilder(chars);
+        for (int i = 0; i < chars; i++) sb.append((char) ('!' + rnd.nextInt(90)));
+        return sb.toString();
+    }
+
+    private record Read(HintAuditReader.Result result, List<HintAuditRecord> records) {}
+
+    private Read readAll() throws IOException {
+        var records = new ArrayList<HintAuditRecord>();
+        var result = HintAuditReader.read(dir, om, records::add);
+        return new Read(result, records);
+    }
+
+    /**
+     * Смещение n-й записи сегмента (с нуля) по цепочке длин.
+     */
+    private static int recordOffset(Path segment, int n) throws IOException {
+        try (var ch = FileChannel.open(segment, StandardOpenOption.READ)) {
+            var b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            int at = HintAuditLog.HEADER_BYTES;
+            for (int i = 0; i < n; i++) at += HintAuditLog.RECORD_HEADER_BYTES + b.getInt(at);
+            return at;
+        }
+    }
+
+    private interface Patch {
+        void apply(ByteBuffer b);
+    }
+
+    private static void patch(Path segment, int at, Patch patch) throws IOException {
+        try (var ch = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var b = ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size());
+            assertThat(at).isLessThan(b.capacity());
+            patch.apply(b);
+            b.force();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Инкрементальный разбор поля из JSON, который приходит кусками произвольной длины.
+ */
+class JsonStringFieldStreamTest {
+
+    @Test
+    void emitsFieldTextAsItArrives() {
+        var s = new JsonStringFieldStream("output");
+
+        assertThat(s.feed("{\"taskType\":\"THEORY\",\"out")).isEmpty();
+        assertThat(s.feed("put\" :  \"Hel")).isEqualTo("Hel");
+        assertThat(s.feed("lo")).isEqualTo("lo");
+        assertThat(s.feed("\",\"code\":\"x\"}")).isEmpty();
+        assertThat(s.content()).isEqualTo("{\"taskType\":\"THEORY\",\"output\" :  \"Hello\",\"code\":\"x\"}");
+    }
+
+    @Test
+    void decodesEscapesSplitAcrossChunks() {
+        var s = new JsonStringFieldStream("hint");
+
+        assertThat(s.feed("{\"hint\":\"a\\")).isEqualTo("a");
+        assertThat(s.feed("nb\\\"c\\")).isEqualTo("\nb\"c");
+        assertThat(s.feed("\\d\\t")).isEqualTo("\\d\t");
+        assertThat(s.feed("\"}")).isEmpty();
+    }
+
+    @Test
+    void decodesUnicodeEscapeSplitAnywhere() {
+        String json = "{\"hint\":\"caf\\u00e9 \\ud83d\\ude00\"}";
+        for (int cut = 1; cut < json.length(); cut++) {
+            var s = new JsonStringFieldStream("hint");
+            String out = s.feed(json.substring(0, cut)) + s.feed(json.substring(cut));
+            assertThat(out).as("cut at %d", cut).isEqualTo("café 😀");
+        }
+    }
+
+    @Test
+    void oneCharacterChunks() {
+        String json = "{\"nextSteps\":[\"output\"],\"output\":\"line1\\nline2 \\\"q\\\"\"}";
+        var s = new JsonStringFieldStream("output");
+        var out = new StringBuilder();
+        for (char c : json.toCharArray()) out.append(s.feed(String.valueOf(c)));
+
+        assertThat(out.toString()).isEqualTo("line1\nline2 \"q\"");
+        assertThat(s.content()).isEqualTo(json);
+    }
+
+    /**
+     * Имя поля внутри другого значения (экранированные кавычки) и как значение массива — не ключ.
+     */
+    @Test
+    void skipsNeedleInsideAnotherValue() {
+        var s = new JsonStringFieldStream("output");
+
+        String out = s.feed("{\"code\":\"print(\\\"output\\\": \\\"fake\\\")\",")
+                + s.feed("\"questions\":[\"output\"],")
+                + s.feed("\"output\":\"real\"}");
+
+        assertThat(out).isEqualTo("real");
+    }
+
+    @Test
+    void ignoresEverythingAfterTheValueCloses() {
+        var s = new JsonStringFieldStream("output");
+
+        assertThat(s.feed("{\"output\":\"first\"")).isEqualTo("first");
+        assertThat(s.feed(",\"output\":\"second\"}")).isEmpty();
+    }
+
+    /**
+     * finish_reason=length: продолжение дописывает хвост того же JSON в тот же поток,
+     * клиент видит непрерывный текст, а content() — склеенный ответ для разбора.
+     */
+    @Test
+    void continuationAppendsToTheSameValue() {
+        var s = new JsonStringFieldStream("output");
+        var out = new StringBuilder();
+
+        for (String chunk : List.of("{\"taskType\":\"CODING\",", "\"output\":\"Hel")) out.append(s.feed(chunk));
+        // второй запрос продолжает с места обрыва
+        for (String chunk : List.of("lo, ", "world\",\"code\":\"\"}")) out.append(s.feed(chunk));
+
+        assertThat(out.toString()).isEqualTo("Hello, world");
+        assertThat(s.content()).isEqualTo("{\"taskType\":\"CODING\",\"output\":\"Hello, world\",\"code\":\"\"}");
+    }
+
+    /**
+     * Почему стрим нельзя повторять после первого куска: префикс оборванной попытки остаётся в буфере,
+     * и повтор склеивается с ним в невалидный JSON (см. started в OpenAiClient.streamAttempt).
+     */
+    @Test
+    void retryAfterPartialPrefixCorruptsContent() {
+        var s = new JsonStringFieldStream("output");
+
+        assertThat(s.feed("{\"taskType\":\"CODING\",\"out")).isEmpty();
+        s.feed("{\"taskType\":\"CODING\",\"output\":\"Hello\"}");
+
+        assertThat(s.content()).isEqualTo("{\"taskType\":\"CODING\",\"out{\"taskType\":\"CODING\",\"output\":\"Hello\"}");
+    }
+
+    @Test
+    void emptyValue() {
+        var s = new JsonStringFieldStream("hint");
+        assertThat(s.feed("{\"hint\":\"\",\"nextSteps\":[]}")).isEmpty();
+        assertThat(s.feed("\"hint\":\"late\"")).isEmpty();
+    }
+}